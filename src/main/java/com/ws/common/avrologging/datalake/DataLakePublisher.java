@@ -2,10 +2,14 @@ package com.ws.common.avrologging.datalake;
 
 import com.amazonaws.services.s3.model.StorageClass;
 import com.ws.common.avrologging.shipper.SimpleS3Shipper;
+import com.ws.common.avrologging.writer.v2.AsyncAvroWriter;
 import com.ws.common.avrologging.writer.v2.AvroRollingFileWriter;
 import com.ws.common.avrologging.writer.v2.AvroWriter;
 import com.ws.common.avrologging.writer.v2.ReflectionRollingFileWriter;
+import com.ws.common.avrologging.writer.v2.RollingFileWriter;
 import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.commons.lang3.StringUtils;
 
@@ -35,10 +39,16 @@ import java.util.List;
  *
  * - Write records by calling the AvroWriters write(..) method
  *
+ * - Optionally call setAsync(..) before creating the writers, to have the records written by background threads instead
+ *   of the callers of write(..).
+ *
+ * - Optionally configure the spool guard, see getSpoolGuard(), to keep the local dir from filling the disk when files
+ *   cannot be uploaded.
+ *
  * - You manually publish/uploads all finished files to Data Lace by calling the publish() methods at even intervals.
  *
  * - When done you need to call close() on the DataLakePublisher instance. That will close all active writers and
- *   to upload all the remaining files not yet uploaded.
+ *   to upload all the remaining files not yet uploaded, or throw an IOException if some cannot be uploaded.
  *
  * Example:
  *
@@ -63,16 +73,31 @@ import java.util.List;
  */
 public class DataLakePublisher implements Closeable {
 
+    /** Pushes made by close() before giving up on files failing to upload */
+    private static final int CLOSE_PUBLISH_ATTEMPTS = 5;
+
     private File myDir;
 
     private String myFileNamePrefix;
 
+    private String myExtension;
+
     private SimpleS3Shipper myShipper;
 
+    private SpoolGuard mySpoolGuard;
+
     private boolean isS3PublishDisabled;
 
     private List<AvroWriter> myWriters = new ArrayList<>();
 
+    private CodecFactory myAvroCodec = CodecFactory.snappyCodec();
+    private int myAvroSyncInterval = DataFileConstants.DEFAULT_SYNC_INTERVAL;
+    private int myAvroBufferSize;
+
+    private int myAsyncBufferSize;
+    private int myAsyncThreads;
+    private AsyncAvroWriter.OverflowPolicy myAsyncPolicy;
+
     /*
      * Creates a Data Lake Publisher instance to help out with data publishing.
      *
@@ -113,6 +138,21 @@ public class DataLakePublisher implements Closeable {
      * @param theIsS3PublishDisabled true means data will not be uploaded to S3. Only files will be written.
      */
     protected DataLakePublisher(String theS3Bucket, String theS3Prefix, String theLocalDir, String theAwsKeyId, String theAwsSecretKeyId, boolean theIsS3PublishDisabled) {
+        this(theS3Bucket, theS3Prefix, theLocalDir, theAwsKeyId, theAwsSecretKeyId, theIsS3PublishDisabled, "avro");
+    }
+
+    /*
+     * Creates a Data Lake Publisher instance to help out with data publishing.
+     *
+     * @param theS3Bucket       The bucket in Data Lake where to upload and publish data.
+     * @param theS3Prefix       The S3 prefix / root where to upload files.
+     * @param theLocalDir       Path to a temporary folder on local disk where to write files and package them before publishing.
+     * @param theAwsKeyId       The AWS access key id with permissions to upload files to Data Lake bucket.
+     * @param theAwsSecretKeyId The AWS secret key
+     * @param theIsS3PublishDisabled true means data will not be uploaded to S3. Only files will be written.
+     * @param theExtension      The extension of the written files, e.g. 'avro' or 'parquet'.
+     */
+    protected DataLakePublisher(String theS3Bucket, String theS3Prefix, String theLocalDir, String theAwsKeyId, String theAwsSecretKeyId, boolean theIsS3PublishDisabled, String theExtension) {
         File aDir = new File(theLocalDir);
 
         if (!aDir.exists()) {
@@ -125,7 +165,16 @@ public class DataLakePublisher implements Closeable {
 
         myDir = aDir;
         isS3PublishDisabled = theIsS3PublishDisabled;
-        myShipper = new SimpleS3Shipper(myDir.getAbsolutePath(), theS3Bucket, theS3Prefix, theAwsKeyId, theAwsSecretKeyId, "avro");
+        myExtension = theExtension;
+        myShipper = new SimpleS3Shipper(myDir.getAbsolutePath(), theS3Bucket, theS3Prefix, theAwsKeyId, theAwsSecretKeyId, theExtension);
+
+        // The writers tell the shipper about completed files, no need to watch the dir
+        myShipper.setWatchEnabled(false);
+
+        mySpoolGuard = new SpoolGuard(myDir, theExtension);
+        mySpoolGuard.setRelief(this::publish);
+        mySpoolGuard.setShipLock(myShipper);
+        mySpoolGuard.update();
 
         setStorageClass(StorageClass.StandardInfrequentAccess);
     }
@@ -145,12 +194,114 @@ public class DataLakePublisher implements Closeable {
         myShipper.setStorageClass(theStorageClass);
     }
 
+    /**
+     * Limits the uploads to S3, see SimpleS3Shipper.
+     *
+     * @param theMaxConcurrentUploads The max number of files, or parts of files, to upload at the same time.
+     * @param theMaxBytesPerSecond    The max bandwidth of all uploads together, 0 for no limit.
+     */
+    public void setUploadLimits(int theMaxConcurrentUploads, long theMaxBytesPerSecond) {
+        myShipper.setMaxConcurrentUploads(theMaxConcurrentUploads);
+        myShipper.setMaxBytesPerSecond(theMaxBytesPerSecond);
+    }
+
+    /**
+     * Sets the delay before a file failed to upload is retried, doubled for every failure of the file up to the max.
+     */
+    public void setUploadRetryBackoff(long theInitialMs, long theMaxMs) {
+        myShipper.setRetryBackoff(theInitialMs, theMaxMs);
+    }
+
     public void setFileNamePrefix(String theFileNamePrefix) {
         myFileNamePrefix = theFileNamePrefix;
     }
 
-    private String getPathPattern() {
-        return myDir.getAbsolutePath() + "/%t/d=%d{yyyy-MM-dd}/h=%d{HH}/" + StringUtils.defaultString(myFileNamePrefix, "") + "%c{yyyyMMddHHmm}-%i.avro";
+    /**
+     * Sets the codec of the AVRO writers created after this call, default is snappy. Pick e.g. 'null' or 'snappy' for
+     * CPU bound producers and 'deflate-9' or 'xz' for storage cost bound ones, see AvroCodecs.
+     */
+    public void setAvroCodec(CodecFactory theCodec) {
+        myAvroCodec = theCodec;
+    }
+
+    /**
+     * Sets the size in bytes the uncompressed records of a block in the AVRO files reach before the block is compressed
+     * and written, default is 64000. The compressed blocks are smaller.
+     */
+    public void setAvroSyncInterval(int theSyncInterval) {
+        myAvroSyncInterval = theSyncInterval;
+    }
+
+    /**
+     * Sets the size in bytes of the write buffer of each AVRO file, 0 for the AVRO default.
+     */
+    public void setAvroBufferSize(int theBufferSize) {
+        myAvroBufferSize = theBufferSize;
+    }
+
+    /**
+     * Makes the writers created after this call asynchronous. The records are put in a bounded buffer and written by
+     * background threads, so callers do not wait for serialization, compression and disk.
+     *
+     * NOTE: Written records must not be modified or reused by the caller since they are written later.
+     *
+     * @param theBufferSize The max number of records to buffer per writer.
+     * @param theThreads    The number of background threads per writer.
+     * @param thePolicy     What to do with records written when the buffer is full.
+     */
+    public void setAsync(int theBufferSize, int theThreads, AsyncAvroWriter.OverflowPolicy thePolicy) {
+        myAsyncBufferSize = theBufferSize;
+        myAsyncThreads = theThreads;
+        myAsyncPolicy = thePolicy;
+    }
+
+    /**
+     * @return the number of records dropped by the asynchronous writers since their buffers were full.
+     */
+    public long getDroppedCount() {
+        long aCount = 0;
+
+        for (AvroWriter<?> aWriter : myWriters) {
+            if (aWriter instanceof AsyncAvroWriter) {
+                aCount += ((AsyncAvroWriter<?>) aWriter).getDroppedCount();
+            }
+        }
+
+        return aCount;
+    }
+
+    /**
+     * @return the guard of the local dir, to set its watermarks and to read the spool size.
+     */
+    public SpoolGuard getSpoolGuard() {
+        return mySpoolGuard;
+    }
+
+    /**
+     * @return the local dir the files are written to before upload.
+     */
+    public File getLocalDir() {
+        return myDir;
+    }
+
+    protected String getPathPattern() {
+        return myDir.getAbsolutePath() + "/%t/d=%d{yyyy-MM-dd}/h=%d{HH}/" + StringUtils.defaultString(myFileNamePrefix, "") + "%c{yyyyMMddHHmm}-%i." + myExtension;
+    }
+
+    /**
+     * Registers a writer to be closed when the publisher is closed, made asynchronous if configured to and guarded by
+     * the spool guard.
+     */
+    protected <T> AvroWriter<T> addWriter(AvroWriter<T> theWriter) {
+        if (theWriter instanceof RollingFileWriter) {
+            ((RollingFileWriter<T>) theWriter).addFileListener(myShipper::fileCompleted);
+        }
+
+        AvroWriter<T> aWriter = myAsyncPolicy == null ? theWriter : new AsyncAvroWriter<>(theWriter, myAsyncBufferSize, myAsyncThreads, myAsyncPolicy);
+
+        myWriters.add(aWriter);
+
+        return mySpoolGuard.guard(aWriter);
     }
 
     /**
@@ -168,11 +319,7 @@ public class DataLakePublisher implements Closeable {
 
         String aPattern = getPathPattern();
 
-        AvroWriter<T> aWriter = new AvroRollingFileWriter<T>(theSchema, aPattern, ".progress", theMaxRecords, theMaxAgeS);
-
-        myWriters.add(aWriter);
-
-        return aWriter;
+        return addWriter(configure(new AvroRollingFileWriter<T>(theSchema, aPattern, ".progress", theMaxRecords, theMaxAgeS)));
     }
 
     /**
@@ -191,36 +338,65 @@ public class DataLakePublisher implements Closeable {
 
         String aPattern = getPathPattern();
 
-        AvroWriter<T> aWriter = new ReflectionRollingFileWriter<T>(theClass, aPattern, ".progress", theMaxRecords, theMaxAgeS);
-
-        myWriters.add(aWriter);
+        return addWriter(configure(new ReflectionRollingFileWriter<T>(theClass, aPattern, ".progress", theMaxRecords, theMaxAgeS)));
+    }
 
-        return aWriter;
+    private <T> RollingFileWriter<T> configure(RollingFileWriter<T> theWriter) {
+        theWriter.setCodec(myAvroCodec);
+        theWriter.setSyncInterval(myAvroSyncInterval);
+        theWriter.setBufferSize(myAvroBufferSize);
+        return theWriter;
     }
 
     /**
-     * Call this to publish already packaged AVRO container files.
+     * Call this to publish already packaged AVRO container files. Also updates the spool guard.
      */
     public Collection<File> publish() {
-        if (isS3PublishDisabled) {
-            return Collections.emptyList();
-        }
+        Collection<File> aFiles = isS3PublishDisabled ? Collections.<File>emptyList() : myShipper.pushAndRemove();
+
+        mySpoolGuard.update();
 
-        return myShipper.pushAndRemove();
+        return aFiles;
     }
 
     /**
-     * Closes all created AVRO writers and makes a final publish/upload of the remainders.
+     * Closes all created AVRO writers and makes a final publish/upload of the remainders. Files failed to upload are
+     * retried a few times.
+     *
+     * @throws IOException if files are still not uploaded, they are left in the local dir.
      */
     @Override
     public void close() throws IOException {
+        closeWriters();
+
+        try {
+            if (!isS3PublishDisabled) {
+                myShipper.pushAndRemoveAll(CLOSE_PUBLISH_ATTEMPTS);
+            }
+
+            mySpoolGuard.update();
+
+        } finally {
+            myShipper.close();
+        }
+    }
+
+    /**
+     * Closes all created AVRO writers without publishing anything, e.g. when the written records are incomplete. The
+     * files are left in the local dir.
+     */
+    public void abort() {
+        closeWriters();
+
+        myShipper.close();
+    }
+
+    private void closeWriters() {
         for (AvroWriter aWriter : myWriters) {
             try {
                 aWriter.close();
             } catch (Exception e) {
             }
         }
-
-        publish();
     }
 }
@@ -0,0 +1,64 @@
+package com.ws.common.avrologging.datalake;
+
+import com.ws.common.avrologging.parquet.ParquetCodec;
+import com.ws.common.avrologging.writer.v2.AvroWriter;
+import com.ws.common.avrologging.writer.v2.ParquetRollingFileWriter;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+
+/**
+ * Data Lake Publisher writing the records as Parquet files instead of AVRO container files. The files are published
+ * in the Data Lake S3 bucket under following path:
+ *
+ * - s3://<theBucket>/parquet/<theComponentName>/<theSourceName>/
+ *
+ * Parquet is columnar so query engines like Athena and Spark only need to read the columns a query touch. The records
+ * are converted by parquet-avro.
+ */
+public class ParquetDataLakePublisher extends DataLakePublisher {
+
+    private ParquetCodec myCodec = ParquetCodec.SNAPPY;
+
+    private long myRowGroupSize = 32L * 1024 * 1024;
+
+    /*
+     * Creates a Data Lake Publisher instance to help out with data publishing.
+     *
+     * @param theComponentName  The name of system component producing the data in lower case. E.g. 'engine', 'recommender', 'inscreen' etc.
+     * @param theSourceName     The source/log in component producing the data. E.g. 'rl2', 'accesslogs', 'uidmergelogs' etc
+     * @param theLocalDir       Path to a temporary folder on local disk where to write Parquet files before publishing.
+     * @param theBucket         The bucket in Data Lake where to upload and publish data.
+     * @param theAwsKeyId       The AWS access key id with permissions to upload files to Data Lake bucket.
+     * @param theAwsSecretKeyId The AWS secret key
+     */
+    public ParquetDataLakePublisher(String theComponentName, String theSourceName, String theLocalDir, String theBucket, String theAwsKeyId, String theAwsSecretKeyId) {
+        super(theBucket, "parquet/" + theComponentName + "/" + theSourceName, theLocalDir, theAwsKeyId, theAwsSecretKeyId, false, "parquet");
+    }
+
+    /**
+     * Sets the compression of the Parquet pages. Default is Snappy.
+     */
+    public void setCodec(ParquetCodec theCodec) {
+        myCodec = theCodec;
+    }
+
+    /**
+     * Sets the size in bytes of the row groups. Default is 32 MB. A row group is buffered in memory per writer until
+     * written.
+     */
+    public void setRowGroupSize(long theRowGroupSize) {
+        myRowGroupSize = theRowGroupSize;
+    }
+
+    @Override
+    public <T extends GenericRecord> AvroWriter<T> createGenericRecordWriter(Schema theSchema, int theMaxRecords, int theMaxAgeS) throws IOException {
+        return addWriter(new ParquetRollingFileWriter<T>(theSchema, getPathPattern(), ".progress", theMaxRecords, theMaxAgeS, myCodec, myRowGroupSize));
+    }
+
+    @Override
+    public <T> AvroWriter<T> createReflectionRecordWriter(Class<T> theClass, int theMaxRecords, int theMaxAgeS) throws IOException {
+        return addWriter(new ParquetRollingFileWriter<T>(theClass, getPathPattern(), ".progress", theMaxRecords, theMaxAgeS, myCodec, myRowGroupSize));
+    }
+}
@@ -0,0 +1,394 @@
+package com.ws.common.avrologging.datalake;
+
+import com.ws.common.avrologging.writer.v2.AvroWriter;
+import com.ws.common.logging.Logger;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Guards the disk from the spool dir, where files are written and kept until uploaded, e.g. during an S3 outage.
+ *
+ * The spool is measured at every update(), i.e. at every publish of the DataLakePublisher, unless neither the
+ * watermarks nor the cold compression are set since the whole dir is walked to measure it. When the spool exceeds the
+ * high watermark, or the free disk is below the min free bytes, the guard overflows until the spool is back below the
+ * low watermark and there is enough free disk again. While overflowing, records written to guarded writers are handled
+ * according to the policy:
+ *
+ * - BLOCK   The caller waits until the guard no longer overflows, no records are lost. A waiting caller runs the relief
+ *           every second unless the guard was updated by another thread meanwhile, so a producer that also publishes
+ *           is not blocked for good, see setRelief().
+ * - SAMPLE  Records are kept at the sample rate, 0 drops all records, the others are dropped.
+ *
+ * Dropped records are counted, see getDroppedCount().
+ *
+ * Optionally, completed AVRO files older than an age are recompressed with a stronger codec, e.g. xz, since files that
+ * old are likely stuck waiting for S3. They are recompressed holding the ship lock, see setShipLock(), so not to
+ * recompress a file while it is uploaded.
+ *
+ * The watermarks are disabled by default.
+ */
+public class SpoolGuard {
+
+    public enum Policy {BLOCK, SAMPLE}
+
+    private static final Logger ourLog = Logger.getLogger();
+
+    /** Marks files already recompressed */
+    private static final String RECOMPRESSED_META = "ogre.recompressed";
+
+    private static final String TEMP_SUFFIX = ".recompress";
+
+    /** How often a blocked writer checks that the guard is updated */
+    private static final long BLOCK_RECHECK_MS = 1000;
+
+    private final File myDir;
+    private final String myExtension;
+
+    private long myHighBytes = Long.MAX_VALUE;
+    private long myLowBytes = Long.MAX_VALUE;
+    private long myMinFreeBytes;
+
+    private Policy myPolicy = Policy.SAMPLE;
+    private double mySampleRate;
+
+    private CodecFactory myColdCodec;
+    private long myColdAgeMs;
+
+    private volatile boolean isOverflowing;
+
+    private volatile long mySpoolBytes;
+    private volatile int mySpoolFileCount;
+    private volatile long myFreeBytes;
+
+    private volatile long myUpdatedAt;
+
+    private volatile Runnable myRelief = this::update;
+
+    private Object myShipLock = new Object();
+
+    private final AtomicLong myDroppedCount = new AtomicLong();
+
+    /** Blocked writers wait on this */
+    private final Object myRelease = new Object();
+
+    /**
+     * @param theDir       The spool dir.
+     * @param theExtension The extension of completed files, others are counted as in progress.
+     */
+    public SpoolGuard(File theDir, String theExtension) {
+        myDir = theDir;
+        myExtension = theExtension.startsWith(".") ? theExtension : "." + theExtension;
+    }
+
+    /**
+     * Sets the spool size to overflow at and the size to stop overflowing at, in bytes.
+     */
+    public synchronized void setWatermarks(long theHighBytes, long theLowBytes) {
+        myHighBytes = theHighBytes;
+        myLowBytes = Math.min(theLowBytes, theHighBytes);
+    }
+
+    /**
+     * Sets the free disk to overflow below, default is 0.
+     */
+    public synchronized void setMinFreeBytes(long theMinFreeBytes) {
+        myMinFreeBytes = theMinFreeBytes;
+    }
+
+    /**
+     * Sets what to do with records written while overflowing, default is to drop them all.
+     *
+     * @param thePolicy     BLOCK or SAMPLE.
+     * @param theSampleRate The share of records to keep when sampling, 0 - 1.
+     */
+    public synchronized void setPolicy(Policy thePolicy, double theSampleRate) {
+        myPolicy = thePolicy;
+        mySampleRate = theSampleRate;
+    }
+
+    /**
+     * Recompresses completed AVRO files older than an age with a codec, null to disable which is the default.
+     */
+    public synchronized void setColdCompression(CodecFactory theCodec, long theColdAgeMs) {
+        myColdCodec = theCodec;
+        myColdAgeMs = theColdAgeMs;
+    }
+
+    /**
+     * Sets what a blocked writer runs when the guard is not updated by other threads, it must update the guard. Default
+     * is update(), the DataLakePublisher sets its publish() to also upload files.
+     */
+    public void setRelief(Runnable theRelief) {
+        myRelief = theRelief;
+    }
+
+    /**
+     * Sets the lock held while files are uploaded and deleted, e.g. the SimpleS3Shipper, cold files are recompressed
+     * holding it. Default is a lock of its own.
+     */
+    public synchronized void setShipLock(Object theShipLock) {
+        myShipLock = theShipLock;
+    }
+
+    /**
+     * @return the bytes of all files in the spool, in progress ones included, 0 if not measured.
+     */
+    public long getSpoolBytes() {
+        return mySpoolBytes;
+    }
+
+    /**
+     * @return the number of completed files in the spool, 0 if not measured.
+     */
+    public int getSpoolFileCount() {
+        return mySpoolFileCount;
+    }
+
+    /**
+     * @return the free bytes of the spool disk.
+     */
+    public long getFreeBytes() {
+        return myFreeBytes;
+    }
+
+    public boolean isOverflowing() {
+        return isOverflowing;
+    }
+
+    /**
+     * @return the number of records dropped while overflowing.
+     */
+    public long getDroppedCount() {
+        return myDroppedCount.get();
+    }
+
+    /**
+     * Wraps a writer to apply the policy to its records while overflowing.
+     */
+    public <T> AvroWriter<T> guard(AvroWriter<T> theWriter) {
+        return new GuardedWriter<>(theWriter);
+    }
+
+    /**
+     * Measures the spool, recompresses cold files if enabled, and starts or stops overflowing.
+     */
+    public synchronized void update() {
+
+        List<File> aColdFiles = new ArrayList<>();
+
+        long aColdBefore = System.currentTimeMillis() - myColdAgeMs;
+
+        long[] aBytes = new long[1];
+        int[] aCount = new int[1];
+
+        // Only walk the spool if anything depends on it
+        boolean isToMeasure = myHighBytes != Long.MAX_VALUE || myColdCodec != null;
+
+        try {
+            if (isToMeasure && myDir.isDirectory()) {
+                Files.walkFileTree(myDir.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path thePath, BasicFileAttributes theAttributes) {
+
+                        aBytes[0] += theAttributes.size();
+
+                        String aName = thePath.getFileName().toString();
+
+                        if (aName.endsWith(myExtension)) {
+                            aCount[0]++;
+
+                            if (myColdCodec != null && aName.endsWith(".avro") && theAttributes.lastModifiedTime().toMillis() < aColdBefore) {
+                                aColdFiles.add(thePath.toFile());
+                            }
+                        }
+
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path thePath, IOException theException) {
+                        // E.g. uploaded and deleted while walking
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+
+        } catch (IOException e) {
+            ourLog.warn("Failed to measure spool dir %s", myDir, e);
+            return;
+        }
+
+        for (File aFile : aColdFiles) {
+            aBytes[0] -= recompress(aFile);
+        }
+
+        mySpoolBytes = aBytes[0];
+        mySpoolFileCount = aCount[0];
+        myFreeBytes = myDir.getUsableSpace();
+        myUpdatedAt = System.currentTimeMillis();
+
+        boolean isLowOnDisk = myFreeBytes < myMinFreeBytes;
+
+        if (!isOverflowing && (mySpoolBytes >= myHighBytes || isLowOnDisk)) {
+            ourLog.warn("Spool overflowing, records handled by policy %s: %s bytes in %s files, %s bytes free",
+                    myPolicy, mySpoolBytes, mySpoolFileCount, myFreeBytes);
+
+            isOverflowing = true;
+
+        } else if (isOverflowing && mySpoolBytes <= myLowBytes && !isLowOnDisk) {
+            ourLog.info("Spool no longer overflowing, %s records dropped so far: %s bytes in %s files, %s bytes free",
+                    myDroppedCount.get(), mySpoolBytes, mySpoolFileCount, myFreeBytes);
+
+            synchronized (myRelease) {
+                isOverflowing = false;
+                myRelease.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Rewrites an AVRO file with the cold codec unless done already or shipped meanwhile. The blocks are recompressed
+     * without decoding the records and the modification time is kept to keep the upload order.
+     *
+     * @return the number of bytes saved.
+     */
+    private long recompress(File theFile) {
+
+        // Not while uploading, the file could be moved back after being uploaded and deleted
+        synchronized (myShipLock) {
+            if (!theFile.exists()) {
+                return 0;
+            }
+
+            return recompressFile(theFile);
+        }
+    }
+
+    private long recompressFile(File theFile) {
+
+        File aTemp = new File(theFile.getPath() + TEMP_SUFFIX);
+
+        long aLength = theFile.length();
+        long aModified = theFile.lastModified();
+
+        try {
+            try (InputStream anIn = new BufferedInputStream(new FileInputStream(theFile));
+                 DataFileStream<GenericRecord> aReader = new DataFileStream<>(anIn, new GenericDatumReader<GenericRecord>())) {
+
+                if (aReader.getMetaString(RECOMPRESSED_META) != null) {
+                    return 0;
+                }
+
+                try (DataFileWriter<GenericRecord> aWriter = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>())) {
+
+                    for (String aKey : aReader.getMetaKeys()) {
+                        if (!aKey.startsWith("avro.")) {
+                            aWriter.setMeta(aKey, aReader.getMeta(aKey));
+                        }
+                    }
+
+                    aWriter.setMeta(RECOMPRESSED_META, "true");
+                    aWriter.setCodec(myColdCodec);
+                    aWriter.create(aReader.getSchema(), aTemp);
+                    aWriter.appendAllFrom(aReader, true);
+                }
+            }
+
+            if (!aTemp.setLastModified(aModified)) {
+                ourLog.debug("Failed to keep modification time of %s", theFile);
+            }
+
+            Files.move(aTemp.toPath(), theFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            ourLog.debug("Recompressed cold file %s from %s to %s bytes", theFile, aLength, theFile.length());
+
+            return aLength - theFile.length();
+
+        } catch (NoSuchFileException e) {
+            // Uploaded meanwhile
+            aTemp.delete();
+            return 0;
+
+        } catch (Exception e) {
+            ourLog.warn("Failed to recompress cold file %s", theFile, e);
+            aTemp.delete();
+            return 0;
+        }
+    }
+
+    /**
+     * @return true if a record written now is to be written.
+     */
+    private boolean admit() throws InterruptedException {
+
+        if (!isOverflowing) {
+            return true;
+        }
+
+        if (myPolicy == Policy.BLOCK) {
+            while (isOverflowing) {
+                synchronized (myRelease) {
+                    if (isOverflowing) {
+                        myRelease.wait(BLOCK_RECHECK_MS);
+                    }
+                }
+
+                // E.g. the blocked thread is the one publishing, then nobody else relieves the spool
+                if (isOverflowing && System.currentTimeMillis() - myUpdatedAt >= BLOCK_RECHECK_MS) {
+                    try {
+                        myRelief.run();
+                    } catch (RuntimeException e) {
+                        ourLog.warn("Failed to relieve spool dir %s", myDir, e);
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        if (mySampleRate > 0 && ThreadLocalRandom.current().nextDouble() < mySampleRate) {
+            return true;
+        }
+
+        myDroppedCount.incrementAndGet();
+
+        return false;
+    }
+
+    private class GuardedWriter<T> extends AvroWriter<T> {
+
+        private final AvroWriter<T> myWriter;
+
+        GuardedWriter(AvroWriter<T> theWriter) {
+            myWriter = theWriter;
+        }
+
+        @Override
+        public void write(long theTimestamp, T theRecord) throws Exception {
+            if (admit()) {
+                myWriter.write(theTimestamp, theRecord);
+            }
+        }
+
+        @Override
+        public void close() {
+            myWriter.close();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.ws.common.avrologging.parquet;
+
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+/**
+ * Compression codecs for Parquet pages, the ones that work without native Hadoop libraries.
+ */
+public enum ParquetCodec {
+
+    UNCOMPRESSED(CompressionCodecName.UNCOMPRESSED),
+    SNAPPY(CompressionCodecName.SNAPPY),
+    GZIP(CompressionCodecName.GZIP);
+
+    public static ParquetCodec fromValue(String theValue) throws IllegalArgumentException {
+        for (ParquetCodec aCodec : ParquetCodec.values()) {
+            if (aCodec.name().equalsIgnoreCase(theValue)) {
+                return aCodec;
+            }
+        }
+
+        throw new IllegalArgumentException("Cannot create enum from " + theValue + " value!");
+    }
+
+    private final CompressionCodecName myName;
+
+    ParquetCodec(CompressionCodecName theName) {
+        myName = theName;
+    }
+
+    public CompressionCodecName getCompressionCodecName() {
+        return myName;
+    }
+}
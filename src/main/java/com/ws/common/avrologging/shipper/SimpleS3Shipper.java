@@ -1,22 +1,38 @@
 package com.ws.common.avrologging.shipper;
 
 import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.event.ProgressEvent;
-import com.amazonaws.event.ProgressListener;
+import com.amazonaws.internal.ResettableInputStream;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.StorageClass;
 import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
 import com.amazonaws.services.s3.transfer.Upload;
+import com.amazonaws.services.s3.transfer.internal.TransferManagerUtils;
+import com.amazonaws.services.s3.transfer.model.UploadResult;
 import com.ws.common.logging.Logger;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import static java.nio.file.StandardWatchEventKinds.*;
 
 /**
  * Simple class that pushes up files to s3. This class is initiated with the local directory to search recursively for
@@ -41,9 +57,19 @@ import java.util.List;
  *   s3://blabla/a/b/c/date=2015-05-19/hour=12/2.apa
  *   s3://blabla/a/b/c/date=2015-05-19/hour=13/3.apa
  *
- * This class uses the AWS SDK to upload files using multipart put and 10 threads.
+ * This class uses the AWS SDK to upload files, files larger than the multipart threshold using multipart put. The
+ * number of concurrent uploads, 10 by default, and the bandwidth used can be limited.
+ *
+ * Files smaller than the multipart threshold are uploaded with their Content-MD5 for S3 to verify, the ETag of larger
+ * files is compared to the one calculated from the parts of the local file. Uploaded files will be removed only when
+ * verified and empty dirs will be pruned. Files failed to upload are retried at later pushes with exponential backoff.
+ * The oldest files are uploaded first.
  *
- * Uploaded files will be removed and empty dirs will be pruned.
+ * The source dir is only scanned in full on the first push, to pick up files left from before a restart. After that
+ * files to upload are queued when completed, either by calling fileCompleted(..), e.g. from a RollingFileWriter
+ * FileListener, or by watching the source dir and its sub dirs for new files. Watching is enabled by default and
+ * should be disabled when all files are reported through fileCompleted(..). If the dir cannot be watched, or events
+ * are lost, the source dir is scanned again.
  */
 public class SimpleS3Shipper {
 
@@ -58,6 +84,29 @@ public class SimpleS3Shipper {
 
     private String myExtension;
 
+    private TransferManager myTransferManager;
+
+    private int myMaxConcurrentUploads = 10;
+    private long myMultipartThreshold = 64L * 1024 * 1024;
+    private long myRetryInitialMs = 5000;
+    private long myRetryMaxMs = 15 * 60 * 1000;
+
+    /** Shared by all uploads, null when not limited */
+    private TokenBucket myBandwidth;
+
+    /** Files failed to upload, by file */
+    private final Map<File, RetryState> myRetries = new HashMap<>();
+
+    /** Completed files waiting to be uploaded */
+    private final Set<File> myQueue = ConcurrentHashMap.newKeySet();
+
+    private boolean isWatchEnabled = true;
+    private boolean isScanNeeded = true;
+    private boolean isScanEveryPush;
+
+    private WatchService myWatcher;
+    private final Map<WatchKey, Path> myWatchedDirs = new HashMap<>();
+
     private final static Logger ourLogger = Logger.getLogger();
 
     /**
@@ -108,7 +157,7 @@ public class SimpleS3Shipper {
 
     @SuppressWarnings("all")
     public SimpleS3Shipper(String theSourceDir, String theDestBucket, String theDestPrefix, String theExtension) {
-        this(theSourceDir, theDestBucket, theDestPrefix,theExtension, null, null);
+        this(theSourceDir, theDestBucket, theDestPrefix, null, null, theExtension);
     }
 
     public void setStorageClass(StorageClass theStorageClass) {
@@ -116,7 +165,57 @@ public class SimpleS3Shipper {
     }
 
     /**
-     * Scan source dir recursively for files to ship. Matching files are uploaded and then removed.
+     * Sets the max number of files, or parts of files, to upload at the same time, default is 10. Applies to pushes
+     * after the next close().
+     */
+    public synchronized void setMaxConcurrentUploads(int theMaxConcurrentUploads) {
+        myMaxConcurrentUploads = Math.max(1, theMaxConcurrentUploads);
+    }
+
+    /**
+     * Limits the bandwidth used by all uploads together, 0 for no limit which is the default.
+     */
+    public synchronized void setMaxBytesPerSecond(long theMaxBytesPerSecond) {
+        myBandwidth = theMaxBytesPerSecond > 0 ? new TokenBucket(theMaxBytesPerSecond) : null;
+    }
+
+    /**
+     * Sets the size in bytes above which files are uploaded in parts, default is 64MB. Applies to pushes after the
+     * next close().
+     */
+    public synchronized void setMultipartThreshold(long theMultipartThreshold) {
+        myMultipartThreshold = theMultipartThreshold;
+    }
+
+    /**
+     * Sets the delay before a file failed to upload is retried, doubled for every failure of the file up to the max.
+     * Default is 5 seconds up to 15 minutes. Files are retried at the first push after the delay.
+     */
+    public synchronized void setRetryBackoff(long theInitialMs, long theMaxMs) {
+        myRetryInitialMs = theInitialMs;
+        myRetryMaxMs = Math.max(theInitialMs, theMaxMs);
+    }
+
+    /**
+     * Enables or disables watching the source dir for new files, enabled by default. Disable it when all files are
+     * reported through fileCompleted(..).
+     */
+    public synchronized void setWatchEnabled(boolean theIsWatchEnabled) {
+        isWatchEnabled = theIsWatchEnabled;
+    }
+
+    /**
+     * Queues a completed file for upload at next push, ignored if not a file of the extension in the source dir.
+     */
+    public void fileCompleted(File theFile) {
+        if (isToShip(theFile)) {
+            myQueue.add(theFile.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Uploads the queued files, the ones found by watching the source dir included, and then removes them. Files
+     * failed to upload are queued again for the next push.
      *
      * This method is synchronized because in practice, we have timer to push to s3 and on service shutdown
      * time, we can push again to confirm all data to be uploaded in s3.
@@ -124,79 +223,389 @@ public class SimpleS3Shipper {
      * @return The shipped (and removed) files
      */
     public synchronized Collection<File> pushAndRemove() {
+        return push(false);
+    }
 
-        try {
+    /**
+     * Pushes until all queued files are uploaded, e.g. at shutdown. All queued files are tried at every push, also
+     * the ones backing off, with the retry delay doubled between the pushes. At most theAttempts pushes in total.
+     *
+     * @return The shipped (and removed) files
+     * @throws IOException if files are still not uploaded after the attempts, they are left on disk.
+     */
+    public synchronized Collection<File> pushAndRemoveAll(int theAttempts) throws IOException {
 
-            TransferManager aMgr;
+        List<File> anUploaded = new ArrayList<>();
 
-            if (myAwsKeyId == null) {
-                aMgr = new TransferManager();
-            } else {
-                aMgr = new TransferManager(new BasicAWSCredentials(myAwsKeyId, myAwsSecretKey));
+        for (int i = 0; i < theAttempts; i++) {
+
+            anUploaded.addAll(push(true));
+
+            if (myQueue.isEmpty()) {
+                return anUploaded;
+            }
+
+            if (i < theAttempts - 1) {
+                long aDelay = Math.min(myRetryInitialMs << Math.min(i, 30), myRetryMaxMs);
+
+                ourLogger.info("%s file(s) not uploaded, retry in %s ms", myQueue.size(), aDelay);
+
+                try {
+                    Thread.sleep(aDelay);
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry uploads");
+                }
             }
+        }
+
+        throw new IOException(myQueue.size() + " file(s) not uploaded after " + theAttempts + " attempts, left in " + mySourceDir);
+    }
+
+    /**
+     * @param isIgnoringBackoff true to also upload the files failed to upload that are still backing off.
+     */
+    private Collection<File> push(boolean isIgnoringBackoff) {
+
+        File aSrcDir = new File(mySourceDir);
+
+        if (!aSrcDir.exists() || !aSrcDir.isDirectory()) {
+            return Collections.emptyList();
+        }
+
+        if (isWatchEnabled && myWatcher == null && !isScanEveryPush) {
+            startWatching();
+        }
 
-            File aSrcDir = new File(mySourceDir);
+        pollWatcher();
 
-            if (!aSrcDir.exists() || !aSrcDir.isDirectory()) {
-                return Collections.emptyList();
+        if (isScanNeeded) {
+            scan(aSrcDir);
+
+            // Only needed again if the dir cannot be watched
+            isScanNeeded = isScanEveryPush;
+        }
+
+        long aNow = System.currentTimeMillis();
+
+        List<File> aFiles = new ArrayList<>();
+
+        for (File aFile : myQueue) {
+            RetryState aRetry = myRetries.get(aFile);
+
+            // Files backing off are left in the queue
+            if (aRetry == null || aRetry.nextAttemptAt <= aNow || isIgnoringBackoff) {
+                aFiles.add(aFile);
             }
+        }
 
-            List<Upload> anUploads = new ArrayList<>();
+        myQueue.removeAll(aFiles);
 
-            // Find all files to upload
-            Collection<File> aFiles = FileUtils.listFiles(aSrcDir, new String[]{myExtension}, true);
+        if (aFiles.isEmpty()) {
+            return Collections.emptyList();
+        }
 
-            for (final File aFile : aFiles) {
+        // Oldest first, to catch up in order after an outage
+        aFiles.sort(Comparator.comparingLong(File::lastModified));
 
-                // Calc destination prefix preserving file structure above the source dir
-                String aRelativePath = aFile.getAbsolutePath().substring(mySourceDir.length());
-                String aDestKey = myDestPrefix+aRelativePath;
+        TransferManager aMgr = getTransferManager();
 
+        List<PendingUpload> anUploads = new ArrayList<>();
 
-                ourLogger.debug("Upload %s to: s3://%s/%s", aFile.getAbsolutePath(), myDestBucket, aDestKey);
+        for (final File aFile : aFiles) {
 
-                PutObjectRequest aPutRequest = new PutObjectRequest(myDestBucket, aDestKey, aFile)
-                        .withStorageClass(myStorageClass);
+            // Uploaded by an earlier push, e.g. both reported and found by a scan
+            if (!aFile.exists()) {
+                myRetries.remove(aFile);
+                continue;
+            }
 
-                Upload anUpload = aMgr.upload(aPutRequest);
+            try {
+                anUploads.add(upload(aMgr, aFile));
 
-                // Add a progress listener that deletes the file on successful upload and
-                // also prunes empty folders if any.
-                anUpload.addProgressListener(new ProgressListener() {
-                    public void progressChanged(ProgressEvent theProgressEvent) {
+            } catch (Exception e) {
+                uploadFailed(aFile, e);
+            }
+        }
 
-                        switch (theProgressEvent.getEventType()) {
-                            case TRANSFER_COMPLETED_EVENT:
-                                ourLogger.debug("File uploaded, delete it: %s", aFile.getAbsolutePath());
-                                pruneFileAndEmptyDirs(aFile);
-                                break;
+        List<File> anUploaded = new ArrayList<>();
 
-                            case TRANSFER_FAILED_EVENT:
-                            case TRANSFER_CANCELED_EVENT:
-                                ourLogger.warn("Failed to upload file: %s", aFile.getAbsolutePath());
-                        }
-                    }
-                });
+        // Wait for uploads to finnish
+        for (PendingUpload anUpload : anUploads) {
+
+            File aFile = anUpload.file;
+
+            try {
+                UploadResult aResult = anUpload.upload.waitForUploadResult();
+
+                // S3 only verifies the parts of multipart uploads, not that they make up the file
+                if (anUpload.eTag != null && !anUpload.eTag.equalsIgnoreCase(aResult.getETag().replace("\"", ""))) {
+                    throw new IOException("Uploaded file has ETag " + aResult.getETag() + ", expected " + anUpload.eTag);
+                }
+
+                ourLogger.debug("File uploaded, delete it: %s", aFile.getAbsolutePath());
+                pruneFileAndEmptyDirs(aFile);
+
+                myRetries.remove(aFile);
+                anUploaded.add(aFile);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                myQueue.add(aFile);
+
+            } catch (Exception e) {
+                uploadFailed(aFile, e);
+
+            } finally {
+                IOUtils.closeQuietly(anUpload.stream);
+            }
+        }
+
+        ourLogger.debug("%s files uploaded", anUploaded.size());
+
+        return anUploaded;
+    }
+
+    /**
+     * Stops watching the source dir and releases the upload threads. Files not yet pushed are left on disk.
+     */
+    public synchronized void close() {
+
+        if (myTransferManager != null) {
+            myTransferManager.shutdownNow();
+            myTransferManager = null;
+        }
+
+        stopWatching();
+    }
+
+    @SuppressWarnings("deprecation")
+    private TransferManager getTransferManager() {
+
+        if (myTransferManager == null) {
+
+            AmazonS3Client aClient = myAwsKeyId == null
+                    ? new AmazonS3Client()
+                    : new AmazonS3Client(new BasicAWSCredentials(myAwsKeyId, myAwsSecretKey));
 
-                anUploads.add(anUpload);
+            final int aThreads = myMaxConcurrentUploads;
+
+            myTransferManager = TransferManagerBuilder.standard()
+                    .withS3Client(aClient)
+                    .withExecutorFactory(() -> Executors.newFixedThreadPool(aThreads))
+                    .withMultipartUploadThreshold(myMultipartThreshold)
+                    .withShutDownThreadPools(true)
+                    .build();
+        }
+
+        return myTransferManager;
+    }
+
+    /**
+     * Starts uploading a file. Files up to the multipart threshold get their Content-MD5 set for S3 to reject them if
+     * corrupted on the way, the ETag of larger files is calculated to compare when uploaded.
+     */
+    private PendingUpload upload(TransferManager theMgr, File theFile) throws IOException {
+
+        // Calc destination prefix preserving file structure above the source dir
+        String aRelativePath = theFile.getAbsolutePath().substring(mySourceDir.length());
+        String aDestKey = myDestPrefix+aRelativePath;
+
+        ourLogger.debug("Upload %s to: s3://%s/%s", theFile.getAbsolutePath(), myDestBucket, aDestKey);
+
+        long aLength = theFile.length();
+
+        ObjectMetadata aMetadata = new ObjectMetadata();
+        aMetadata.setContentLength(aLength);
+
+        PutObjectRequest aPutRequest;
+        InputStream aStream = null;
+
+        if (myBandwidth == null) {
+            aPutRequest = new PutObjectRequest(myDestBucket, aDestKey, theFile);
+
+        } else {
+            // Resettable for the SDK to retry requests
+            aStream = new ThrottledInputStream(new ResettableInputStream(theFile), myBandwidth);
+            aPutRequest = new PutObjectRequest(myDestBucket, aDestKey, aStream, null);
+        }
+
+        aPutRequest.withMetadata(aMetadata).withStorageClass(myStorageClass);
+
+        String anETag = null;
+
+        try {
+            // Same decisions as the transfer manager makes
+            TransferManagerConfiguration aConfig = theMgr.getConfiguration();
+
+            if (TransferManagerUtils.shouldUseMultipartUpload(aPutRequest, aConfig)) {
+                anETag = getMultipartETag(theFile, TransferManagerUtils.calculateOptimalPartSize(aPutRequest, aConfig));
+
+            } else {
+                try (InputStream anIn = new FileInputStream(theFile)) {
+                    aMetadata.setContentMD5(Base64.encodeBase64String(DigestUtils.md5(anIn)));
+                }
             }
 
-            // Wait for uploads to finnish
-            for (Upload anUpload : anUploads) {
-                anUpload.waitForCompletion();
+            return new PendingUpload(theFile, theMgr.upload(aPutRequest), aStream, anETag);
+
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(aStream);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the ETag S3 gives a file uploaded in parts of a size, the MD5 of the MD5s of the parts and the number
+     *         of parts.
+     */
+    private static String getMultipartETag(File theFile, long thePartSize) throws IOException {
+
+        ByteArrayOutputStream aDigests = new ByteArrayOutputStream();
+        int aParts = 0;
+
+        try (InputStream anIn = new FileInputStream(theFile)) {
+
+            long aRemaining = theFile.length();
+
+            while (aRemaining > 0) {
+                long aPartSize = Math.min(thePartSize, aRemaining);
+
+                aDigests.write(DigestUtils.md5(new BoundedInputStream(anIn, aPartSize)));
+
+                aRemaining -= aPartSize;
+                aParts++;
             }
+        }
+
+        return Hex.encodeHexString(DigestUtils.md5(aDigests.toByteArray())) + "-" + aParts;
+    }
+
+    /**
+     * Queues a file failed to upload again, to be retried when backed off.
+     */
+    private void uploadFailed(File theFile, Exception theCause) {
+
+        RetryState aRetry = myRetries.computeIfAbsent(theFile, theKey -> new RetryState());
+
+        aRetry.attempts++;
+
+        long aDelay = myRetryInitialMs << Math.min(aRetry.attempts - 1, 30);
+        aDelay = aDelay < 0 ? myRetryMaxMs : Math.min(aDelay, myRetryMaxMs);
+
+        aRetry.nextAttemptAt = System.currentTimeMillis() + aDelay;
+
+        ourLogger.warn("Failed to upload file (attempt %s), retry in %s ms: %s", aRetry.attempts, aDelay, theFile.getAbsolutePath(), theCause);
+
+        myQueue.add(theFile);
+    }
 
-            ourLogger.debug("%s files uploaded", aFiles.size());
+    private boolean isToShip(File theFile) {
+        return theFile.getName().endsWith("." + myExtension) && theFile.getAbsolutePath().startsWith(mySourceDir);
+    }
+
+    /**
+     * Queues all files in the dir and its sub dirs.
+     */
+    private void scan(File theDir) {
+
+        ourLogger.debug("Scan for files to upload: %s", theDir);
+
+        for (File aFile : FileUtils.listFiles(theDir, new String[]{myExtension}, true)) {
+            myQueue.add(aFile.getAbsoluteFile());
+        }
+    }
+
+    private void startWatching() {
+        try {
+            myWatcher = FileSystems.getDefault().newWatchService();
+
+            watchTree(Paths.get(mySourceDir));
+
+        } catch (IOException e) {
+            ourLogger.warn("Failed to watch %s, will scan it at every push instead", mySourceDir, e);
+            stopWatching();
+            isScanEveryPush = true;
+        }
+
+        // Files may have been added before the watch started
+        isScanNeeded = true;
+    }
 
-            aMgr.shutdownNow();
+    private void stopWatching() {
 
-            return aFiles;
+        if (myWatcher == null) {
+            return;
+        }
 
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        try {
+            myWatcher.close();
+        } catch (IOException e) {
+            ourLogger.warn("Failed to close watcher", e);
         }
+
+        myWatcher = null;
+        myWatchedDirs.clear();
     }
 
+    private void watchTree(Path theDir) throws IOException {
+        Files.walkFileTree(theDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path theSubDir, BasicFileAttributes theAttributes) throws IOException {
+                myWatchedDirs.put(theSubDir.register(myWatcher, ENTRY_CREATE), theSubDir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Queues the files created since last poll, new dirs are watched too.
+     */
+    private void pollWatcher() {
+
+        if (myWatcher == null) {
+            return;
+        }
+
+        WatchKey aKey;
+
+        while ((aKey = myWatcher.poll()) != null) {
+
+            Path aDir = myWatchedDirs.get(aKey);
+
+            for (WatchEvent<?> anEvent : aKey.pollEvents()) {
+
+                if (anEvent.kind() == OVERFLOW || aDir == null) {
+                    ourLogger.debug("Lost file events, will scan %s", mySourceDir);
+                    isScanNeeded = true;
+                    continue;
+                }
+
+                Path aPath = aDir.resolve((Path) anEvent.context());
+
+                if (Files.isDirectory(aPath)) {
+                    try {
+                        // Files may have been created in the dir before it was watched
+                        watchTree(aPath);
+                        scan(aPath.toFile());
+
+                    } catch (IOException e) {
+                        ourLogger.debug("Failed to watch %s, will scan %s", aPath, mySourceDir, e);
+                        isScanNeeded = true;
+                    }
+
+                } else {
+                    fileCompleted(aPath.toFile());
+                }
+            }
+
+            // Invalid when the dir is deleted, e.g. pruned after upload
+            if (!aKey.reset()) {
+                myWatchedDirs.remove(aKey);
+            }
+        }
+    }
 
     private void pruneFileAndEmptyDirs(File theFile) {
         try {
@@ -232,4 +641,24 @@ public class SimpleS3Shipper {
         }
     }
 
+    private static class PendingUpload {
+        private final File file;
+        private final Upload upload;
+        private final InputStream stream;
+
+        /** Expected ETag of a multipart upload, null if verified by S3 through the Content-MD5 */
+        private final String eTag;
+
+        PendingUpload(File theFile, Upload theUpload, InputStream theStream, String theETag) {
+            file = theFile;
+            upload = theUpload;
+            stream = theStream;
+            eTag = theETag;
+        }
+    }
+
+    private static class RetryState {
+        private int attempts;
+        private long nextAttemptAt;
+    }
 }
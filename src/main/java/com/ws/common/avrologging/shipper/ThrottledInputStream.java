@@ -0,0 +1,54 @@
+package com.ws.common.avrologging.shipper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Input stream taking a token per byte read from a token bucket, to limit the bandwidth of uploads.
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+    /** Reads are split in chunks not to take a large number of tokens at once */
+    private static final int MAX_CHUNK = 64 * 1024;
+
+    private final TokenBucket myBucket;
+
+    ThrottledInputStream(InputStream theIn, TokenBucket theBucket) {
+        super(theIn);
+        myBucket = theBucket;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int aByte = super.read();
+
+        if (aByte >= 0) {
+            take(1);
+        }
+
+        return aByte;
+    }
+
+    @Override
+    public int read(byte[] theBuffer, int theOffset, int theLength) throws IOException {
+        int aRead = super.read(theBuffer, theOffset, Math.min(theLength, MAX_CHUNK));
+
+        if (aRead > 0) {
+            take(aRead);
+        }
+
+        return aRead;
+    }
+
+    private void take(int theBytes) throws IOException {
+        try {
+            myBucket.take(theBytes);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+}
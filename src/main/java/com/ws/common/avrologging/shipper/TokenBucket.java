@@ -0,0 +1,47 @@
+package com.ws.common.avrologging.shipper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the bytes per second shared by a number of threads. A thread taking more tokens than there
+ * are sleeps until the bucket would have refilled, so the threads together keep to the rate while bursts of up to one
+ * second worth of bytes pass without delay.
+ */
+class TokenBucket {
+
+    private final long myRate;
+    private final long myCapacity;
+
+    private double myTokens;
+    private long myLastRefill;
+
+    /**
+     * @param theBytesPerSecond The max bytes per second.
+     */
+    TokenBucket(long theBytesPerSecond) {
+        myRate = theBytesPerSecond;
+        myCapacity = theBytesPerSecond;
+        myTokens = theBytesPerSecond;
+        myLastRefill = System.nanoTime();
+    }
+
+    void take(int theBytes) throws InterruptedException {
+
+        long aSleepNs;
+
+        synchronized (this) {
+            long aNow = System.nanoTime();
+
+            myTokens = Math.min(myCapacity, myTokens + (aNow - myLastRefill) * myRate / 1e9);
+            myLastRefill = aNow;
+
+            myTokens -= theBytes;
+
+            aSleepNs = myTokens < 0 ? (long) (-myTokens * 1e9 / myRate) : 0;
+        }
+
+        if (aSleepNs > 0) {
+            TimeUnit.NANOSECONDS.sleep(aSleepNs);
+        }
+    }
+}
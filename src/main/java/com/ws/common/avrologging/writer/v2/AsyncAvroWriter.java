@@ -0,0 +1,224 @@
+package com.ws.common.avrologging.writer.v2;
+
+import com.ws.common.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writer handing the records over to background threads writing them to another writer. The caller only enqueues the
+ * record in a bounded buffer, serialization, compression and file I/O are done by the background threads.
+ *
+ * When the buffer is full the overflow policy decides what to do:
+ *
+ * - BLOCK        The caller waits for room in the buffer, no records are lost.
+ * - DROP_OLDEST  The oldest buffered record is dropped to make room for the new one.
+ * - DROP_NEW     The new record is dropped.
+ *
+ * Dropped records are counted, see getDroppedCount(). Records failing to be written are logged and counted, see
+ * getFailedCount(), since there is no caller to throw to.
+ *
+ * NOTE: The records are written after write(..) returns, so they must not be modified or reused by the caller.
+ *
+ * NOTE: With more than one thread, records in the same file are not necessarily in the order they were written.
+ */
+public class AsyncAvroWriter<T> extends AvroWriter<T> {
+
+    public enum OverflowPolicy {BLOCK, DROP_OLDEST, DROP_NEW}
+
+    private static final Logger ourLog = Logger.getLogger();
+
+    /** Marks the end of the records in the buffer */
+    private static final Entry END = new Entry(0, null);
+
+    private final AvroWriter<T> myWriter;
+    private final OverflowPolicy myPolicy;
+    private final BlockingQueue<Entry> myBuffer;
+    private final List<Thread> myThreads = new ArrayList<>();
+
+    /** Writes hold the read lock, close takes the write lock so no write enqueues after the end markers */
+    private final ReadWriteLock myCloseLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong myDroppedCount = new AtomicLong();
+    private final AtomicLong myFailedCount = new AtomicLong();
+
+    private volatile boolean isClosed;
+
+    /**
+     * @param theWriter     The writer to write the records to, must be thread safe if more than one thread.
+     * @param theBufferSize The max number of records to buffer.
+     * @param theThreads    The number of background threads writing the records.
+     * @param thePolicy     What to do when the buffer is full.
+     */
+    public AsyncAvroWriter(AvroWriter<T> theWriter, int theBufferSize, int theThreads, OverflowPolicy thePolicy) {
+        myWriter = theWriter;
+        myPolicy = thePolicy;
+        myBuffer = new ArrayBlockingQueue<>(Math.max(1, theBufferSize));
+
+        for (int i = 0; i < Math.max(1, theThreads); i++) {
+            Thread aThread = new Thread(this::run, "AsyncAvroWriter-" + i);
+            aThread.setDaemon(true);
+            aThread.start();
+
+            myThreads.add(aThread);
+        }
+    }
+
+    /**
+     * Enqueues the record to be written.
+     *
+     * @param theTimestamp The timestamp for record used to sort it into the correct avro container file
+     */
+    @Override
+    public void write(long theTimestamp, T theRecord) throws Exception {
+
+        Entry anEntry = new Entry(theTimestamp, theRecord);
+
+        myCloseLock.readLock().lock();
+
+        try {
+            if (isClosed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+
+            switch (myPolicy) {
+
+                case BLOCK:
+                    myBuffer.put(anEntry);
+                    break;
+
+                case DROP_OLDEST:
+                    // The end markers are only enqueued when no write is in progress, so only records are dropped
+                    while (!myBuffer.offer(anEntry)) {
+                        if (myBuffer.poll() != null) {
+                            myDroppedCount.incrementAndGet();
+                        }
+                    }
+                    break;
+
+                case DROP_NEW:
+                    if (!myBuffer.offer(anEntry)) {
+                        myDroppedCount.incrementAndGet();
+                    }
+                    break;
+            }
+
+        } finally {
+            myCloseLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered records, stops the threads and closes the underlying writer. Records still buffered if
+     * interrupted are counted as dropped.
+     */
+    @Override
+    public void close() {
+
+        // Wait for the writes in progress, the later ones fail
+        myCloseLock.writeLock().lock();
+
+        try {
+            if (isClosed) {
+                return;
+            }
+
+            isClosed = true;
+
+        } finally {
+            myCloseLock.writeLock().unlock();
+        }
+
+        try {
+            for (int i = 0; i < myThreads.size(); i++) {
+                myBuffer.put(END);
+            }
+
+            for (Thread aThread : myThreads) {
+                aThread.join();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ourLog.warn("Interrupted while writing the buffered records");
+        }
+
+        // Count the records not written, if interrupted
+        List<Entry> someLeft = new ArrayList<>();
+        myBuffer.drainTo(someLeft);
+
+        for (Entry anEntry : someLeft) {
+            if (anEntry != END) {
+                myDroppedCount.incrementAndGet();
+            }
+        }
+
+        myWriter.close();
+
+        if (myDroppedCount.get() > 0 || myFailedCount.get() > 0) {
+            ourLog.warn("Closed writer, %s records dropped and %s failed", myDroppedCount.get(), myFailedCount.get());
+        }
+    }
+
+    /**
+     * @return the number of records dropped since the buffer was full.
+     */
+    public long getDroppedCount() {
+        return myDroppedCount.get();
+    }
+
+    /**
+     * @return the number of records failed to be written.
+     */
+    public long getFailedCount() {
+        return myFailedCount.get();
+    }
+
+    /**
+     * @return the number of records buffered and not yet written.
+     */
+    public int getBufferedCount() {
+        return myBuffer.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run() {
+        while (true) {
+            Entry anEntry;
+
+            try {
+                anEntry = myBuffer.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (anEntry == END) {
+                return;
+            }
+
+            try {
+                myWriter.write(anEntry.timestamp, (T) anEntry.record);
+
+            } catch (Exception e) {
+                if (myFailedCount.incrementAndGet() == 1) {
+                    ourLog.warn("Failed to write record, further failures are only counted", e);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        private final long timestamp;
+        private final Object record;
+
+        Entry(long theTimestamp, Object theRecord) {
+            timestamp = theTimestamp;
+            record = theRecord;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.ws.common.avrologging.writer.v2;
+
+import org.apache.avro.file.CodecFactory;
+
+/**
+ * Parses Avro container file codecs from specs like 'snappy' or 'deflate-9'. Supported specs:
+ *
+ * - null            No compression, cheapest on CPU.
+ * - snappy          Fast with fair compression, the default.
+ * - deflate[-level] Deflate with level 1-9, default level 6 if none.
+ * - xz[-level]      XZ with level 0-9, default level 6 if none. Smallest files, most CPU.
+ * - bzip2           BZip2.
+ */
+public class AvroCodecs {
+
+    private AvroCodecs() {
+    }
+
+    public static CodecFactory fromSpec(String theSpec) throws IllegalArgumentException {
+
+        String aSpec = theSpec.trim().toLowerCase();
+
+        int aPos = aSpec.indexOf('-');
+
+        String aName = aPos < 0 ? aSpec : aSpec.substring(0, aPos);
+        Integer aLevel = aPos < 0 ? null : parseLevel(theSpec, aSpec.substring(aPos + 1));
+
+        switch (aName) {
+
+            case "null":
+            case "none":
+                return CodecFactory.nullCodec();
+
+            case "snappy":
+                return CodecFactory.snappyCodec();
+
+            case "deflate":
+                return CodecFactory.deflateCodec(aLevel != null ? aLevel : CodecFactory.DEFAULT_DEFLATE_LEVEL);
+
+            case "xz":
+                return CodecFactory.xzCodec(aLevel != null ? aLevel : CodecFactory.DEFAULT_XZ_LEVEL);
+
+            case "bzip2":
+                return CodecFactory.bzip2Codec();
+
+            default:
+                throw new IllegalArgumentException("Unknown Avro codec: " + theSpec);
+        }
+    }
+
+    private static int parseLevel(String theSpec, String theLevel) {
+        try {
+            return Integer.parseInt(theLevel);
+
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid Avro codec level: " + theSpec);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.ws.common.avrologging.writer.v2;
 
 import org.apache.avro.Schema;
-import org.apache.avro.file.CodecFactory;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.DatumWriter;
@@ -25,12 +24,8 @@ public class AvroRollingFileWriter<T extends GenericRecord> extends RollingFileW
     protected DataFileWriter<T> getDataFileWriter(File theFile) throws IOException {
 
         DatumWriter<T> aDatumWriter = new SpecificDatumWriter<>(mySchema);
-        DataFileWriter<T> aFileWriter = new DataFileWriter<>(aDatumWriter);
-        aFileWriter.setCodec(CodecFactory.snappyCodec());
 
-        aFileWriter.create(mySchema, theFile);
-
-        return aFileWriter;
+        return createDataFileWriter(aDatumWriter, mySchema, theFile);
     }
 
     @Override
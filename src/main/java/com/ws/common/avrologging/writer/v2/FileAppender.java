@@ -0,0 +1,12 @@
+package com.ws.common.avrologging.writer.v2;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A file records are appended to by a RollingFileWriter, e.g. an Avro container file or a Parquet file.
+ */
+public interface FileAppender<T> extends Closeable {
+
+    void append(T theRecord) throws IOException;
+}
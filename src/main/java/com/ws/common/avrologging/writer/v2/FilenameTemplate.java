@@ -0,0 +1,288 @@
+package com.ws.common.avrologging.writer.v2;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang3.time.FastDateFormat;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A RollingFileWriter filename pattern compiled once into tokens with their date formatters, see RollingFileWriter for
+ * the tokens supported.
+ *
+ * Also maps a record timestamp to the time bucket of its file, i.e. the period of the most frequent changing %d date
+ * component. Records with the same bucket go to the same file, so the bucket is used to look up the file to write to
+ * instead of formatting the dates.
+ *
+ * Weeks do not nest in months and years, so patterns mixing week components with month or calendar year components,
+ * e.g. "yyyy-ww" or "MM-W", are bucketed per day instead of per week not to map one bucket to two filenames.
+ */
+class FilenameTemplate {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final long SECOND_MS = 1000;
+    private static final long MINUTE_MS = 60 * SECOND_MS;
+    private static final long HOUR_MS = 60 * MINUTE_MS;
+    private static final long DAY_MS = 24 * HOUR_MS;
+
+    /** Periods not of fixed length, bucketed per calendar day */
+    private static final long WEEK = -1;
+    private static final long MONTH = -2;
+    private static final long YEAR = -3;
+
+    private final List<Token> myTokens = new ArrayList<>();
+
+    private final long myBucketUnit;
+
+    private volatile DayBucket myLastDayBucket = new DayBucket(Long.MIN_VALUE, 0);
+
+    FilenameTemplate(String thePattern) {
+
+        long aBucketUnit = Long.MAX_VALUE; // No %d, all records in the same bucket
+
+        boolean isWeekNested = true;
+
+        StringBuilder aLiteral = new StringBuilder();
+
+        int aPos = 0;
+
+        while (aPos < thePattern.length()) {
+
+            char aChar = thePattern.charAt(aPos);
+
+            if (aChar != '%' || aPos + 1 >= thePattern.length()) {
+                aLiteral.append(aChar);
+                aPos++;
+                continue;
+            }
+
+            char aToken = thePattern.charAt(aPos + 1);
+
+            if ("dctTi".indexOf(aToken) < 0) {
+                aLiteral.append(aChar);
+                aPos++;
+                continue;
+            }
+
+            if (aLiteral.length() > 0) {
+                final String aText = aLiteral.toString();
+                myTokens.add((theBuilder, theTimestamp, theType, theCreated) -> theBuilder.append(aText));
+                aLiteral.setLength(0);
+            }
+
+            switch (aToken) {
+
+                case 'd':
+                case 'c':
+                    int anEnd = thePattern.indexOf("}", aPos);
+                    String aDatePattern = thePattern.substring(aPos + 3, anEnd);
+
+                    final FastDateFormat aFormat = FastDateFormat.getInstance(aDatePattern, UTC);
+
+                    if (aToken == 'd') {
+                        myTokens.add((theBuilder, theTimestamp, theType, theCreated) -> aFormat.format(theTimestamp, theBuilder));
+                        aBucketUnit = finest(aBucketUnit, getUnit(aDatePattern));
+                        isWeekNested &= !containsAny(aDatePattern, "WMyG");
+                    } else {
+                        myTokens.add((theBuilder, theTimestamp, theType, theCreated) -> aFormat.format(theCreated, theBuilder));
+                    }
+
+                    aPos = anEnd + 1;
+                    break;
+
+                case 't':
+                    myTokens.add((theBuilder, theTimestamp, theType, theCreated) -> theBuilder.append(theType.toLowerCase()));
+                    aPos += 2;
+                    break;
+
+                case 'T':
+                    myTokens.add((theBuilder, theTimestamp, theType, theCreated) -> theBuilder.append(theType));
+                    aPos += 2;
+                    break;
+
+                case 'i':
+                    myTokens.add((theBuilder, theTimestamp, theType, theCreated) -> theBuilder.append(createRandomHex(8)));
+                    aPos += 2;
+                    break;
+            }
+        }
+
+        if (aLiteral.length() > 0) {
+            final String aText = aLiteral.toString();
+            myTokens.add((theBuilder, theTimestamp, theType, theCreated) -> theBuilder.append(aText));
+        }
+
+        // Only week of week year and week year nest, e.g. "YYYY-ww", else a week spanning two months or years would
+        // be one bucket with two filenames
+        myBucketUnit = aBucketUnit == WEEK && !isWeekNested ? DAY_MS : aBucketUnit;
+    }
+
+    String format(long theTimestamp, String theType, long theCreated) {
+
+        StringBuilder aBuilder = new StringBuilder(128);
+
+        for (Token aToken : myTokens) {
+            aToken.append(aBuilder, theTimestamp, theType, theCreated);
+        }
+
+        return aBuilder.toString();
+    }
+
+    /**
+     * @return the time bucket of the file to write a record with the timestamp to.
+     */
+    long getBucket(long theTimestamp) {
+
+        if (myBucketUnit == Long.MAX_VALUE) {
+            return 0;
+        }
+
+        if (myBucketUnit > 0) {
+            return Math.floorDiv(theTimestamp, myBucketUnit);
+        }
+
+        // Calendar periods only change at midnight, so they are only calculated once per day
+        long aDay = Math.floorDiv(theTimestamp, DAY_MS);
+
+        DayBucket aLast = myLastDayBucket;
+
+        if (aLast.day == aDay) {
+            return aLast.bucket;
+        }
+
+        long aBucket = getCalendarBucket(aDay);
+
+        myLastDayBucket = new DayBucket(aDay, aBucket);
+
+        return aBucket;
+    }
+
+    private long getCalendarBucket(long theDay) {
+
+        if (myBucketUnit == WEEK) {
+            // Same week rules as the formatter
+            Calendar aCalendar = Calendar.getInstance(UTC);
+            aCalendar.setTimeInMillis(theDay * DAY_MS);
+            return aCalendar.getWeekYear() * 100L + aCalendar.get(Calendar.WEEK_OF_YEAR);
+        }
+
+        LocalDate aDate = LocalDate.ofEpochDay(theDay);
+
+        if (myBucketUnit == MONTH) {
+            return aDate.getYear() * 12L + aDate.getMonthValue() - 1;
+        }
+
+        return aDate.getYear();
+    }
+
+    /**
+     * @return the length of the period of the most frequent changing component in a date pattern.
+     */
+    private static long getUnit(String theDatePattern) {
+
+        long aUnit = Long.MAX_VALUE;
+
+        boolean inQuote = false;
+
+        for (char aChar : theDatePattern.toCharArray()) {
+
+            if (aChar == '\'') {
+                inQuote = !inQuote;
+                continue;
+            }
+
+            if (inQuote) {
+                continue;
+            }
+
+            switch (aChar) {
+                case 'S': aUnit = finest(aUnit, 1); break;
+                case 's': aUnit = finest(aUnit, SECOND_MS); break;
+                case 'm': aUnit = finest(aUnit, MINUTE_MS); break;
+                case 'H': case 'k': case 'K': case 'h': aUnit = finest(aUnit, HOUR_MS); break;
+                case 'a': aUnit = finest(aUnit, 12 * HOUR_MS); break;
+                case 'd': case 'D': case 'E': case 'u': case 'F': aUnit = finest(aUnit, DAY_MS); break;
+                case 'w': case 'W': aUnit = finest(aUnit, WEEK); break;
+                case 'M': aUnit = finest(aUnit, MONTH); break;
+                case 'y': case 'Y': case 'G': aUnit = finest(aUnit, YEAR); break;
+            }
+        }
+
+        return aUnit;
+    }
+
+    /**
+     * @return true if a date pattern has any of the components, quoted text not counted.
+     */
+    private static boolean containsAny(String theDatePattern, String theComponents) {
+
+        boolean inQuote = false;
+
+        for (char aChar : theDatePattern.toCharArray()) {
+
+            if (aChar == '\'') {
+                inQuote = !inQuote;
+
+            } else if (!inQuote && theComponents.indexOf(aChar) >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the finest of two units, fixed length units are finer than calendar ones that are finer the longer they
+     *         are, e.g. WEEK is finer than MONTH.
+     */
+    private static long finest(long theUnit, long theOther) {
+
+        if (theUnit > 0 && theOther > 0) {
+            return Math.min(theUnit, theOther);
+        }
+
+        if (theUnit > 0 && theUnit != Long.MAX_VALUE) {
+            return theUnit;
+        }
+
+        if (theOther > 0 && theOther != Long.MAX_VALUE) {
+            return theOther;
+        }
+
+        // Both calendar units, or one missing
+        if (theUnit == Long.MAX_VALUE) {
+            return theOther;
+        }
+
+        if (theOther == Long.MAX_VALUE) {
+            return theUnit;
+        }
+
+        return Math.max(theUnit, theOther);
+    }
+
+    private static String createRandomHex(int theLength) {
+        byte[] aBuff = new byte[theLength];
+        ThreadLocalRandom.current().nextBytes(aBuff);
+        return Hex.encodeHexString(aBuff);
+    }
+
+    private interface Token {
+        void append(StringBuilder theBuilder, long theTimestamp, String theType, long theCreated);
+    }
+
+    private static class DayBucket {
+        private final long day;
+        private final long bucket;
+
+        DayBucket(long theDay, long theBucket) {
+            day = theDay;
+            bucket = theBucket;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ws.common.avrologging.writer.v2;
+
+import com.ws.common.avrologging.parquet.ParquetCodec;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.reflect.ReflectData;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Rolling file writer writing the records to Parquet files instead of Avro container files, with parquet-avro.
+ *
+ * NOTE: A row group is buffered in memory until it reaches the row group size, per open file.
+ */
+public class ParquetRollingFileWriter<T> extends RollingFileWriter<T> {
+
+    private Schema mySchema;
+    private GenericData myData;
+    private ParquetCodec myCodec;
+    private int myRowGroupSize;
+    private Configuration myConf;
+
+    /**
+     * Creates a writer of generic or specific records of a schema.
+     */
+    public ParquetRollingFileWriter(Schema theSchema, String theFilenamePattern, String theProgressPostfix, int theMaxRecords, int theMaxAgeS, ParquetCodec theCodec, long theRowGroupSize) throws IOException {
+        this(theSchema, GenericData.get(), theFilenamePattern, theProgressPostfix, theMaxRecords, theMaxAgeS, theCodec, theRowGroupSize);
+    }
+
+    /**
+     * Creates a writer of java POJOs using reflection, the schema is generated from the class.
+     */
+    public ParquetRollingFileWriter(Class<T> theClass, String theFilenamePattern, String theProgressPostfix, int theMaxRecords, int theMaxAgeS, ParquetCodec theCodec, long theRowGroupSize) throws IOException {
+        this(ReflectData.get().getSchema(theClass), ReflectData.get(), theFilenamePattern, theProgressPostfix, theMaxRecords, theMaxAgeS, theCodec, theRowGroupSize);
+    }
+
+    private ParquetRollingFileWriter(Schema theSchema, GenericData theData, String theFilenamePattern, String theProgressPostfix, int theMaxRecords, int theMaxAgeS, ParquetCodec theCodec, long theRowGroupSize) throws IOException {
+        super(theFilenamePattern, theProgressPostfix, theMaxRecords, theMaxAgeS);
+        mySchema = theSchema;
+        myData = theData;
+        myCodec = theCodec;
+        myRowGroupSize = (int) Math.min(theRowGroupSize, Integer.MAX_VALUE);
+
+        // The raw local file system writes no .crc files next to the Parquet files, they would be left in the spool
+        myConf = new Configuration();
+        myConf.setClass("fs.file.impl", RawLocalFileSystem.class, FileSystem.class);
+        myConf.setBoolean("fs.file.impl.disable.cache", true);
+    }
+
+    @Override
+    protected FileAppender<T> createFileAppender(File theFile) throws IOException {
+        final ParquetWriter<T> aWriter = AvroParquetWriter.<T>builder(new Path(theFile.toURI()))
+                .withSchema(mySchema)
+                .withDataModel(myData)
+                .withConf(myConf)
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .withCompressionCodec(myCodec.getCompressionCodecName())
+                .withRowGroupSize(myRowGroupSize)
+                .build();
+
+        return new FileAppender<T>() {
+            public void append(T theRecord) throws IOException {
+                aWriter.write(theRecord);
+            }
+
+            public void close() throws IOException {
+                aWriter.close();
+            }
+        };
+    }
+
+    @Override
+    protected Schema getSchema() {
+        return mySchema;
+    }
+}
@@ -1,7 +1,6 @@
 package com.ws.common.avrologging.writer.v2;
 
 import org.apache.avro.Schema;
-import org.apache.avro.file.CodecFactory;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.reflect.ReflectData;
@@ -26,12 +25,8 @@ public class ReflectionRollingFileWriter<T> extends RollingFileWriter<T> {
     protected DataFileWriter<T> getDataFileWriter(File theFile) throws IOException {
 
         DatumWriter<T> aDatumWriter = new ReflectDatumWriter<>(mySchema);
-        DataFileWriter<T> aFileWriter = new DataFileWriter<>(aDatumWriter);
-        aFileWriter.setCodec(CodecFactory.snappyCodec());
 
-        aFileWriter.create(mySchema, theFile);
-
-        return aFileWriter;
+        return createDataFileWriter(aDatumWriter, mySchema, theFile);
     }
 
     @Override
@@ -2,17 +2,23 @@ package com.ws.common.avrologging.writer.v2;
 
 import com.ws.common.logging.Logger;
 import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
 import org.apache.avro.file.DataFileWriter;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.lang3.time.FastDateFormat;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Random;
-import java.util.TimeZone;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
@@ -69,15 +75,19 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
 
     private static final Logger ourLog = Logger.getLogger();
 
-    private String myFilenamePattern;
+    private FilenameTemplate myFilenameTemplate;
     private String myProgressPostfix;
     private Integer myMaxRecords;
     private Integer myMaxAge;
 
-    private FastDateFormat myHashFormat;
+    private CodecFactory myCodec = CodecFactory.snappyCodec();
+    private int mySyncInterval = DataFileConstants.DEFAULT_SYNC_INTERVAL;
+    private int myBufferSize;
 
     private Writers myWriters = new Writers();
 
+    private List<FileListener> myFileListeners = new CopyOnWriteArrayList<>();
+
     private Timer myTimer = new Timer(true);
 
     /**
@@ -90,7 +100,6 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
      */
     public RollingFileWriter(String theFilenamePattern, String theProgressPostfix, int theMaxRecords, int theMaxAgeS) throws IOException {
 
-        myFilenamePattern = theFilenamePattern;
         myProgressPostfix = theProgressPostfix != null ? theProgressPostfix : "";
         myMaxRecords = theMaxRecords;
         myMaxAge = theMaxAgeS*1000;
@@ -111,8 +120,8 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
             throw new IllegalArgumentException("Filename must contain %i");
         }
 
-        // Create a formatter for fast hash generation of filenames
-        myHashFormat = getHashFormat(myFilenamePattern);
+        // Compile the pattern once, also gives the time bucket of the file to write a record to
+        myFilenameTemplate = new FilenameTemplate(theFilenamePattern);
 
         // Create a cleanup timer
         myTimer.schedule(new TimerTask() {
@@ -123,6 +132,37 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
         }, 15000, 15000);
     }
 
+    /**
+     * Sets the codec of the Avro container files created after this call, default is snappy. See AvroCodecs for
+     * creating one from a spec.
+     */
+    public void setCodec(CodecFactory theCodec) {
+        myCodec = theCodec;
+    }
+
+    /**
+     * Sets the size in bytes the uncompressed records of a block reach before the block is compressed and written, for
+     * the Avro container files created after this call, default is 64000. Each block is compressed as a whole, larger
+     * blocks usually compress better but take more memory.
+     */
+    public void setSyncInterval(int theSyncInterval) {
+        mySyncInterval = theSyncInterval;
+    }
+
+    /**
+     * Sets the size in bytes of the buffer of each file created after this call, 0 for Avro's default.
+     */
+    public void setBufferSize(int theBufferSize) {
+        myBufferSize = theBufferSize;
+    }
+
+    /**
+     * Adds a listener told about each file when closed, and renamed if progress postfix, e.g. to ship it.
+     */
+    public void addFileListener(FileListener theListener) {
+        myFileListeners.add(theListener);
+    }
+
     /**
      * Closing all underlying writers.
      */
@@ -133,7 +173,9 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
         myTimer.cancel();
 
         for (Writer aWriter : myWriters.values()) {
-            aWriter.close();
+            synchronized (aWriter) {
+                aWriter.close();
+            }
         }
 
         myWriters.clear();
@@ -149,97 +191,135 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
     /**
      * Writes record to Avro container file.
      *
-     * Note: This method is synchronized to assure that the max count limit is strictly correct. This could
-     * be removed if ok to relax the limit if not super important.
+     * Note: Writes are synchronized per file, to assure that the max count limit is strictly correct, while records
+     * to different files are written in parallel.
      *
      * @param theTimestamp The timestamp for record used to sort it into the correct avro container file
      */
-    public synchronized void write(long theTimestamp, T theRecord) throws Exception {
+    public void write(long theTimestamp, T theRecord) throws Exception {
 
-        // Fetch writer to use based on filename pattern
-        Writer aWriter = getWriter(theTimestamp);
+        // Get time bucket of file based on record timestamp
+        long aBucket = myFilenameTemplate.getBucket(theTimestamp);
 
-        // Append record
-        aWriter.write(theRecord);
-    }
+        while (true) {
 
-    /**
-     * Implement this in sub classes and return the created and configured DataFileWriter of preferred type.
-     */
-    abstract protected DataFileWriter<T> getDataFileWriter(File theFile) throws IOException;
+            // Fetch writer to use based on filename pattern
+            Writer aWriter = getWriter(aBucket, theTimestamp);
 
-    /**
-     * Implement this in sub classes and return the schema for AVROs of class <T>.
-     */
-    abstract protected Schema getSchema();
+            synchronized (aWriter) {
+
+                // Rolled by another thread or the cleanup, fetch the new one
+                if (aWriter.isClosed()) {
+                    continue;
+                }
+
+                // Roll it if time
+                if (aWriter.getCount() >= myMaxRecords || aWriter.getAge() >= myMaxAge) {
+                    aWriter.close();
+                    myWriters.remove(aBucket, aWriter);
+                    continue;
+                }
+
+                // Append record
+                aWriter.write(theRecord);
+                return;
+            }
+        }
+    }
 
     /**
-     * Override this for setting custom type for AVROs to be written.
+     * Override this in sub classes to return the created and configured DataFileWriter of preferred type. Default is
+     * a writer of the records as specific or generic records of getSchema().
      */
-    protected String getTypeName() {
-        return getSchema().getName();
+    protected DataFileWriter<T> getDataFileWriter(File theFile) throws IOException {
+        return createDataFileWriter(new SpecificDatumWriter<T>(getSchema()), getSchema(), theFile);
     }
 
-
     /**
-     * Returns a Writer based on the filename to write record into.
+     * Creates an Avro container file with the codec, sync interval and buffer size set.
      */
-    private synchronized Writer getWriter(long theTimestamp) throws IOException {
+    protected DataFileWriter<T> createDataFileWriter(DatumWriter<T> theDatumWriter, Schema theSchema, File theFile) throws IOException {
 
-        // Get hash for filename based on record timestamp
-        String aHash = getHash(theTimestamp);
+        DataFileWriter<T> aFileWriter = new DataFileWriter<>(theDatumWriter);
+        aFileWriter.setCodec(myCodec);
+        aFileWriter.setSyncInterval(mySyncInterval);
 
-        // Fetch writer for filename if any
-        Writer aWriter = myWriters.get(aHash);
+        if (myBufferSize <= 0) {
+            return aFileWriter.create(theSchema, theFile);
+        }
 
-        // Create new file if none exists, or roll it if time
-        if (aWriter == null || aWriter.getCount() >= myMaxRecords || aWriter.getAge() >= myMaxAge) {
+        OutputStream anOut = new BufferedOutputStream(new FileOutputStream(theFile), myBufferSize);
 
-            if (aWriter != null) {
-                aWriter.close();
-            }
+        try {
+            return aFileWriter.create(theSchema, anOut);
 
-            long aCreated = System.currentTimeMillis();
-            String aFilename = getFilename(myFilenamePattern, theTimestamp, getTypeName(), aCreated);
-            aWriter = new Writer(aFilename, aCreated);
-            myWriters.put(aHash, aWriter);
+        } catch (IOException e) {
+            anOut.close();
+            throw e;
         }
+    }
 
-        return aWriter;
+    /**
+     * Override this to write another file format than Avro container files. Default is to append to the
+     * DataFileWriter from getDataFileWriter(..).
+     */
+    protected FileAppender<T> createFileAppender(File theFile) throws IOException {
+        final DataFileWriter<T> aWriter = getDataFileWriter(theFile);
+
+        return new FileAppender<T>() {
+            public void append(T theRecord) throws IOException {
+                aWriter.append(theRecord);
+            }
+
+            public void close() throws IOException {
+                aWriter.close();
+            }
+        };
     }
 
+    /**
+     * Implement this in sub classes and return the schema for AVROs of class <T>.
+     */
+    abstract protected Schema getSchema();
 
     /**
-     * Get fast hash of file depending on the timestamp to book record under.
-     *
-     * This is basically done by generating a string out of all date patterns in filename pattern. This works since the
-     * date parts represents all moving parts in the file name with exception of %i that is handled later.
+     * Override this for setting custom type for AVROs to be written.
      */
-    private String getHash(long theTimestamp) {
-        return myHashFormat.format(theTimestamp);
+    protected String getTypeName() {
+        return getSchema().getName();
     }
 
+
     /**
-     * Generates a date formatter for all date patterns in file name pattern.
+     * Returns a Writer based on the filename to write record into, a new file is created if none exists. The returned
+     * writer may have been rolled by another thread when used.
      */
-    private FastDateFormat getHashFormat(String thePattern) {
+    private Writer getWriter(long theBucket, long theTimestamp) throws IOException {
 
-        StringBuilder aBuilder = new StringBuilder();
+        // Fetch writer for filename if any
+        Writer aWriter = myWriters.get(theBucket);
 
-        int aPos = thePattern.indexOf("%d{");
+        if (aWriter != null) {
+            return aWriter;
+        }
 
-        while (aPos >= 0) {
-            int anEnd = thePattern.indexOf("}", aPos);
+        // Create the file outside the map not to block the writers of other buckets on the I/O, if another thread
+        // created one for the bucket meanwhile use that one and drop this
+        long aCreated = System.currentTimeMillis();
+        Writer aNewWriter = new Writer(myFilenameTemplate.format(theTimestamp, getTypeName(), aCreated), aCreated);
 
-            aBuilder.append(thePattern.substring(aPos+3, anEnd));
-            aBuilder.append(".");
+        aWriter = myWriters.putIfAbsent(theBucket, aNewWriter);
 
-            aPos = thePattern.indexOf("%d{", anEnd);
+        if (aWriter == null) {
+            return aNewWriter;
         }
 
-        return FastDateFormat.getInstance(aBuilder.toString(), TimeZone.getTimeZone("UTC"));
+        aNewWriter.discard();
+
+        return aWriter;
     }
 
+
     /**
      * Generates a filename for the filename pattern. Support for following tokens:
      *
@@ -247,105 +327,56 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
      * - %c{datetime pattern}  Replaced by the datetime for created and the given pattern (see SimpleDateFormat)
      * - %t                    Replaced with the AVRO type name (default: Schema.getName()) in lower case
      * - %T                    Replaced with the AVRO type name (default: Schema.getName())
-     * - %i                    Replaced is replaced by a random 8 letter hex string
+     * - %i                    Replaced is replaced by a random 16 letter hex string
+     *
+     * Note: Compiles the pattern on every call, the writer itself compiles it once.
      */
     public static String getFilename(String thePattern, long theTimestamp, String theType, long theCreated) {
-
-        StringBuilder aBuilder = new StringBuilder();
-
-        while (true) {
-
-            int aPos = thePattern.indexOf("%");
-
-            if (aPos < 0) {
-                aBuilder.append(thePattern);
-                break;
-            }
-
-            aBuilder.append(thePattern.substring(0, aPos));
-
-            switch (thePattern.charAt(aPos+1)) {
-
-                case 'd':
-                    int anEnd = thePattern.indexOf("}", aPos);
-
-                    FastDateFormat aFormat = FastDateFormat.getInstance(thePattern.substring(aPos + 3, anEnd), TimeZone.getTimeZone("UTC"));
-
-                    aBuilder.append(aFormat.format(theTimestamp));
-                    thePattern = thePattern.length() > anEnd ? thePattern.substring(anEnd+1) : "";
-                    break;
-
-                case 'c':
-                    anEnd = thePattern.indexOf("}", aPos);
-
-                    aFormat = FastDateFormat.getInstance(thePattern.substring(aPos + 3, anEnd), TimeZone.getTimeZone("UTC"));
-
-                    aBuilder.append(aFormat.format(theCreated));
-                    thePattern = thePattern.length() > anEnd ? thePattern.substring(anEnd+1) : "";
-                    break;
-
-                case 't':
-                    aBuilder.append(theType.toLowerCase());
-                    thePattern = thePattern.length() > 2 ? thePattern.substring(aPos + 2) : "";
-                    break;
-
-                case 'T':
-                    aBuilder.append(theType);
-                    thePattern = thePattern.length() > 2 ? thePattern.substring(aPos + 2) : "";
-                    break;
-
-                case 'i':
-                    aBuilder.append(createRandomHex(8));
-                    thePattern = thePattern.length() > 2 ? thePattern.substring(aPos + 2) : "";
-                    break;
-
-                default:
-                    aBuilder.append("%");
-                    thePattern = thePattern.length() > 1 ? thePattern.substring(aPos + 1) : "";
-            }
-        }
-
-        return aBuilder.toString();
+        return new FilenameTemplate(thePattern).format(theTimestamp, theType, theCreated);
     }
 
     /**
      * Timer callback cleaning up over aged Writers.
      */
-    private synchronized void onCleanup() {
+    private void onCleanup() {
 
-        for (String aHash : myWriters.keySet()) {
+        for (Map.Entry<Long, Writer> anEntry : myWriters.entrySet()) {
 
-            Writer aWriter = myWriters.get(aHash);
+            Writer aWriter = anEntry.getValue();
 
-            if (aWriter.getCount() < myMaxRecords && aWriter.getAge() < myMaxAge) {
-                continue;
-            }
+            synchronized (aWriter) {
+
+                if (aWriter.getCount() < myMaxRecords && aWriter.getAge() < myMaxAge) {
+                    continue;
+                }
 
-            aWriter.close();
+                aWriter.close();
+            }
 
-            myWriters.remove(aHash);
+            myWriters.remove(anEntry.getKey(), aWriter);
         }
     }
 
-    private static String createRandomHex(int theLength) {
-        byte[] aBuff = new byte[theLength];
-        new Random().nextBytes(aBuff);
-        return Hex.encodeHexString(aBuff);
+    /**
+     * Listener told about completed files.
+     */
+    public interface FileListener {
+        void onFileCompleted(File theFile);
     }
 
 
     /**
      * Beautifies a map of Writers.
      */
-    private class Writers extends ConcurrentHashMap<String, Writer> {}
+    private class Writers extends ConcurrentHashMap<Long, Writer> {}
 
 
     /**
-     * Class containing the Avro writer for a file name and the stats for it.
+     * Class containing the Avro writer for a file name and the stats for it. Synchronize on it to use it.
      */
     private class Writer {
 
-        private DataFileWriter<T> myWriter;
+        private FileAppender<T> myWriter;
         private String myFilename;
         private long myCreated;
         private AtomicInteger myCount;
@@ -356,11 +387,11 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
             myCount = new AtomicInteger();
             myCreated = theCreated;
 
-            myWriter = createAvroFile(theFilename + myProgressPostfix);
+            myWriter = createFile(theFilename + myProgressPostfix);
         }
 
-        private DataFileWriter<T> createAvroFile(String theFilename) throws IOException {
-            ourLog.debug("Create new AVRO file: %s", theFilename);
+        private FileAppender<T> createFile(String theFilename) throws IOException {
+            ourLog.debug("Create new file: %s", theFilename);
 
             File aFile = new File(theFilename);
 
@@ -369,7 +400,7 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
                 ourLog.debug("Created new dir: %s", aFile.getParent());
             }
 
-            return getDataFileWriter(aFile);
+            return createFileAppender(aFile);
         }
 
         public void write(T theRecord) throws IOException {
@@ -390,8 +421,13 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
                 myWriter.close();
                 myWriter = null;
 
-                if (!myProgressPostfix.isEmpty()) {
-                    new File(myFilename + myProgressPostfix).renameTo(new File(myFilename));
+                if (!myProgressPostfix.isEmpty() && !new File(myFilename + myProgressPostfix).renameTo(new File(myFilename))) {
+                    ourLog.warn("Failed to rename file %s", myFilename + myProgressPostfix);
+                    return;
+                }
+
+                for (FileListener aListener : myFileListeners) {
+                    aListener.onFileCompleted(new File(myFilename));
                 }
 
             } catch (IOException e) {
@@ -399,6 +435,29 @@ public abstract class RollingFileWriter<T> extends AvroWriter<T> {
             }
         }
 
+        /**
+         * Closes and deletes the file without telling the listeners, for a file never written to.
+         */
+        public void discard() {
+            try {
+                ourLog.debug("Discarding file");
+
+                myWriter.close();
+                myWriter = null;
+
+            } catch (IOException e) {
+                ourLog.warn("Failed to close file " + myFilename + myProgressPostfix, e);
+            }
+
+            if (!new File(myFilename + myProgressPostfix).delete()) {
+                ourLog.warn("Failed to delete file %s", myFilename + myProgressPostfix);
+            }
+        }
+
+        public boolean isClosed() {
+            return myWriter == null;
+        }
+
         public long getAge() {
             return System.currentTimeMillis()-myCreated;
         }
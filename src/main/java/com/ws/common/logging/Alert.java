@@ -1,16 +1,21 @@
 package com.ws.common.logging;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * This is the interface for generating alerts (events that might trigger alarms) in the system.
  */
 public class Alert {
 
+    /** Alerts by class name, they only wrap a logger so they can be shared */
+    private static final ConcurrentMap<String, Alert> ourAlerts = new ConcurrentHashMap<>();
 
     private Logger myLog;
 
 
     protected Alert() {
-        myLog =  Logger.getLogger(Thread.currentThread().getStackTrace()[3].getClassName());
+        myLog =  Logger.getLogger(CallerResolver.getCallerClassName(2));
     }
 
     protected Alert(String theClassName) {
@@ -21,8 +26,27 @@ public class Alert {
         myLog =  theLogger;
     }
 
+    /**
+     * For getting an alert object connected to the calling class'es logger.
+     *
+     * Prefer a static field or getAlert(Class) in hot code, resolving the calling class costs some microseconds.
+     */
     public static Alert getAlert() {
-        return new Alert();
+        return getAlert(CallerResolver.getCallerClassName(1));
+    }
+
+    public static Alert getAlert(Class<?> theClass) {
+        return getAlert(theClass.getName());
+    }
+
+    private static Alert getAlert(String theClassName) {
+        Alert anAlert = ourAlerts.get(theClassName);
+
+        if (anAlert == null) {
+            anAlert = ourAlerts.computeIfAbsent(theClassName, Alert::new);
+        }
+
+        return anAlert;
     }
 
     /**
@@ -0,0 +1,54 @@
+package com.ws.common.logging;
+
+/**
+ * Resolves the class of a caller from the class context of a security manager, which is much cheaper than a stack
+ * trace since no StackTraceElements are created. Falls back on the stack trace if no security manager can be created,
+ * e.g. once SecurityManager is removed from the JDK.
+ */
+class CallerResolver {
+
+    private static final ClassContext ourContext = ClassContext.create();
+
+    private CallerResolver() {
+    }
+
+    /**
+     * @param theDepth The depth of the caller from the method calling this, 1 for the caller of that method.
+     * @return the class name of the caller.
+     */
+    static String getCallerClassName(int theDepth) {
+
+        if (ourContext != null) {
+            Class<?>[] aContext = ourContext.getClassContext();
+
+            // One for this method and one for ClassContext.getClassContext
+            if (aContext.length > theDepth + 2) {
+                return aContext[theDepth + 2].getName();
+            }
+        }
+
+        // One for this method and one for getStackTrace
+        return Thread.currentThread().getStackTrace()[theDepth + 2].getClassName();
+    }
+
+    /**
+     * Only used for the class context, never installed as the security manager. SecurityManager is deprecated for
+     * removal since Java 17 but has no replacement on Java 8, StackWalker would do once the source level is 9+.
+     */
+    @SuppressWarnings("removal")
+    private static class ClassContext extends SecurityManager {
+
+        @Override
+        protected Class<?>[] getClassContext() {
+            return super.getClassContext();
+        }
+
+        private static ClassContext create() {
+            try {
+                return new ClassContext();
+            } catch (RuntimeException | LinkageError e) {
+                return null;
+            }
+        }
+    }
+}
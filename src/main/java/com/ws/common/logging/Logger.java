@@ -6,7 +6,11 @@ import org.apache.log4j.Priority;
 
 import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.Formattable;
 import java.util.Formatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 /**
  * Widespace Logger API
@@ -14,10 +18,20 @@ import java.util.Formatter;
  * This class wraps a native logger for convenience of common logWithParameters behaviour,
  * possibility to change logWithParameters framework etc.
  *
+ * Parameterized messages with only %s specifiers are formatted without a Formatter, others with one.
+ *
+ * The parameterized methods return before formatting when the level is disabled. The fixed arity variants of trace,
+ * debug and info also avoid the varargs array, and the Supplier variants of trace and debug also avoid evaluating the
+ * arguments, e.g. ourLog.debug("Record: %s", () -> toJson(aRecord)). Primitive arguments are still boxed by the caller,
+ * check isDebugEnabled() etc. first in the hottest loops.
+ *
  * @see Formatter for information about parameterized logging format
  */
 public class Logger {
 
+    /** Loggers by name, they only wrap the log4j loggers so they can be shared. Before ourLog, which uses it */
+    private static final ConcurrentMap<String, Logger> ourLoggers = new ConcurrentHashMap<>();
+
     private static final Logger ourLog = Logger.getLogger();
     // Thread local logger usage is off by default, in order to work with e.g. sl4j bridges
     protected static final String SYSTEM_PROPERTY_ENABLE_THREADLOCAL = "com.ws.common.logging.Logger.threadlocal.enabled";
@@ -35,6 +49,8 @@ public class Logger {
      */
     private static final String FQCN = Logger.class.getName();
 
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
     /** The previous value of System.out. */
     private static PrintStream out;
 
@@ -48,7 +64,7 @@ public class Logger {
      * @return a new Logger instance.
      */
     public static Logger getLogger(Class theClass) {
-        return new Logger(theClass.getName());
+        return getLogger(theClass.getName());
     }
 
     /**
@@ -57,16 +73,24 @@ public class Logger {
      * @return a new Logger instance.
      */
     public static Logger getLogger(String theName) {
-        return new Logger(theName);
+        Logger aLogger = ourLoggers.get(theName);
+
+        if (aLogger == null) {
+            aLogger = ourLoggers.computeIfAbsent(theName, Logger::new);
+        }
+
+        return aLogger;
     }
 
     /**
      * Constructs a logger. The name of the Logger will be taken from the calling class.
      *
+     * Prefer a static field or getLogger(Class) in hot code, resolving the calling class costs some microseconds.
+     *
      * @return a new Logger instance.
      */
     public static Logger getLogger() {
-        return new Logger(Thread.currentThread().getStackTrace()[2].getClassName());
+        return getLogger(CallerResolver.getCallerClassName(1));
     }
 
     /**
@@ -134,6 +158,54 @@ public class Logger {
     }
 
 
+    // Fixed arity parameterized methods for the per record levels, no varargs array when disabled
+
+    public void trace(String theMessage, Object theArg) {
+        if (isEnabled(Level.TRACE)) {
+            logParameterized(Level.TRACE, theMessage, theArg);
+        }
+    }
+    public void trace(String theMessage, Object theArg1, Object theArg2) {
+        if (isEnabled(Level.TRACE)) {
+            logParameterized(Level.TRACE, theMessage, theArg1, theArg2);
+        }
+    }
+    public void debug(String theMessage, Object theArg) {
+        if (isEnabled(Level.DEBUG)) {
+            logParameterized(Level.DEBUG, theMessage, theArg);
+        }
+    }
+    public void debug(String theMessage, Object theArg1, Object theArg2) {
+        if (isEnabled(Level.DEBUG)) {
+            logParameterized(Level.DEBUG, theMessage, theArg1, theArg2);
+        }
+    }
+    public void info(String theMessage, Object theArg) {
+        if (isEnabled(Level.INFO)) {
+            logParameterized(Level.INFO, theMessage, theArg);
+        }
+    }
+    public void info(String theMessage, Object theArg1, Object theArg2) {
+        if (isEnabled(Level.INFO)) {
+            logParameterized(Level.INFO, theMessage, theArg1, theArg2);
+        }
+    }
+
+
+    // Lazy parameterized methods, the arguments are only evaluated when enabled
+
+    public void trace(String theMessage, Supplier<?>... theArgs) {
+        if (isEnabled(Level.TRACE)) {
+            logParameterized(Level.TRACE, theMessage, get(theArgs));
+        }
+    }
+    public void debug(String theMessage, Supplier<?>... theArgs) {
+        if (isEnabled(Level.DEBUG)) {
+            logParameterized(Level.DEBUG, theMessage, get(theArgs));
+        }
+    }
+
+
     // Parameterized methods. Note: if there is a Throwable as last argument, it will be printed with stacktrace
 
     public void trace(String theMessage, Object... theArgs) {
@@ -155,6 +227,16 @@ public class Logger {
         logParameterized(Level.ERROR, theMessage, theArgs);
     }
 
+    private static Object[] get(Supplier<?>[] theArgs) {
+        Object[] someArgs = new Object[theArgs.length];
+
+        for (int i = 0; i < theArgs.length; i++) {
+            someArgs[i] = theArgs[i].get();
+        }
+
+        return someArgs;
+    }
+
     private void logPlain(Level theLevel, String theMessage, Throwable theThrowable) {
         logWithThrowable(theLevel, theMessage, theThrowable);
         ThreadLogger aThreadLogger = ourThreadLocalLogger.get();
@@ -164,6 +246,12 @@ public class Logger {
     }
 
     private void logParameterized(Level theLevel, String theMessage, Object... theArgs) {
+        if (theArgs.length == 0) {
+            // E.g. no suppliers, nothing to format
+            logPlain(theLevel, theMessage, null);
+            return;
+        }
+
         logWithParameters(theLevel, theMessage, theArgs);
         ThreadLogger aThreadLogger = ourThreadLocalLogger.get();
         if (aThreadLogger !=  null && aThreadLogger.getLog().isEnabledFor(theLevel)) {
@@ -213,6 +301,18 @@ public class Logger {
         return myWrappedLogger.isEnabledFor(thePriority);
     }
 
+    /**
+     * @return true if enabled for this logger or the thread local logger.
+     */
+    private boolean isEnabled(Level theLevel) {
+        if (isEnabledFor(theLevel)) {
+            return true;
+        }
+
+        ThreadLogger aThreadLogger = ourThreadLocalLogger.get();
+        return aThreadLogger != null && aThreadLogger.getLog().isEnabledFor(theLevel);
+    }
+
 
     public static void enableThreadLocalLogger(String theLogLevel) {
         ThreadLogger aThreadLogger = ourThreadLocalLogger.get();
@@ -242,6 +342,12 @@ public class Logger {
     public static String format(String theMessage, Object[] theArgs) {
         Formatter aFormatter = ourThreadLocalFormatter.get();
         try {
+            String aSimple = formatSimple((StringBuilder) aFormatter.out(), theMessage, theArgs);
+
+            if (aSimple != null) {
+                return aSimple;
+            }
+
             aFormatter.format(theMessage, theArgs);
             StringBuilder aBuilder = (StringBuilder) aFormatter.out();
             String aReturn = aBuilder.toString();
@@ -255,6 +361,51 @@ public class Logger {
     }
 
 
+    /**
+     * Formats messages with only %s, %% and %n specifiers by appending to the builder, without the parsing and
+     * allocations of Formatter. The builder is left as it was, also if an argument logs when formatted.
+     *
+     * @return the formatted message, null if to be formatted by a Formatter.
+     */
+    private static String formatSimple(StringBuilder theBuilder, String theMessage, Object[] theArgs) {
+        int aStart = theBuilder.length();
+        int anArg = 0;
+
+        try {
+            int aLength = theMessage.length();
+
+            for (int i = 0; i < aLength; i++) {
+                char aChar = theMessage.charAt(i);
+
+                if (aChar != '%') {
+                    theBuilder.append(aChar);
+                    continue;
+                }
+
+                char aSpecifier = ++i < aLength ? theMessage.charAt(i) : 0;
+
+                if (aSpecifier == 's' && anArg < theArgs.length && !(theArgs[anArg] instanceof Formattable)) {
+                    theBuilder.append(theArgs[anArg++]);
+
+                } else if (aSpecifier == '%') {
+                    theBuilder.append('%');
+
+                } else if (aSpecifier == 'n') {
+                    theBuilder.append(LINE_SEPARATOR);
+
+                } else {
+                    // Flags, width, other conversions or missing arguments
+                    return null;
+                }
+            }
+
+            return theBuilder.substring(aStart);
+
+        } finally {
+            theBuilder.setLength(aStart);
+        }
+    }
+
     /** For runtime modifications of the logWithParameters level */
     public void setLevel(String theLevel) {
         myWrappedLogger.setLevel(Level.toLevel(theLevel));
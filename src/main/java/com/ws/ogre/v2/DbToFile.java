@@ -89,6 +89,6 @@ public class DbToFile {
         DbToFileHandler aHandler = new DbToFileHandler(aConfig, theCommand.getVariables());
 
         // Execute command
-        aHandler.load(theCommand.getType(), theCommand.getOutputFilePath());
+        aHandler.load(theCommand.getType(), theCommand.getOutputFilePath(), theCommand.isGzip());
     }
 }
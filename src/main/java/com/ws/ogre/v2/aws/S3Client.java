@@ -7,16 +7,27 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.*;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.util.StringInputStream;
+import com.ws.common.logging.Logger;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class S3Client {
 
+    private static final Logger ourLogger = Logger.getLogger();
+
+    /** How long a failed multipart copy waits for the part copies in flight before aborting */
+    private static final int ABORT_WAIT_MINUTES = 5;
+
     private AWSCredentials myCredentials;
 
     public S3Client(String theAccessKeyId, String theSecretKey) {
@@ -53,6 +64,17 @@ public class S3Client {
     }
 
     public List<S3Url> listObjects(S3Url theRoot) {
+
+        List<S3Url> anUrls = new ArrayList<>();
+
+        for (S3ObjectSummary aSummary : listObjectSummaries(theRoot)) {
+            anUrls.add(new S3Url(aSummary.getBucketName(), aSummary.getKey()));
+        }
+
+        return anUrls;
+    }
+
+    public List<S3ObjectSummary> listObjectSummaries(S3Url theRoot) {
         try {
             AmazonS3Client aClient = new AmazonS3Client(myCredentials);
 
@@ -62,7 +84,7 @@ public class S3Client {
 
             ObjectListing aListing;
 
-            List<S3Url> anUrls = new ArrayList<>();
+            List<S3ObjectSummary> aSummaries = new ArrayList<>();
 
             do {
                 aListing = aClient.listObjects(aRequest);
@@ -73,13 +95,13 @@ public class S3Client {
                         continue;
                     }
 
-                    anUrls.add(new S3Url(aSummary.getBucketName(), aSummary.getKey()));
+                    aSummaries.add(aSummary);
                 }
                 aRequest.setMarker(aListing.getNextMarker());
 
             } while (aListing.isTruncated());
 
-            return anUrls;
+            return aSummaries;
 
         } catch (AmazonClientException e) {
             throw new RuntimeException(e);
@@ -223,6 +245,25 @@ public class S3Client {
         return new TransferManager(myCredentials);
     }
 
+    /**
+     * Returns a new client, share it for many requests to reuse its connections.
+     */
+    public AmazonS3Client getAmazonS3Client() {
+        return new AmazonS3Client(myCredentials);
+    }
+
+    /**
+     * Opens a stream uploading everything written to it as a multipart upload, completed when the stream is closed.
+     */
+    public S3MultipartOutputStream createMultipartOutputStream(S3Url theUrl, StorageClass theStorageClass, int thePartSize, int theParallelism) {
+        try {
+            return new S3MultipartOutputStream(new AmazonS3Client(myCredentials), theUrl, theStorageClass, thePartSize, theParallelism);
+
+        } catch (AmazonClientException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void putObjectGzipped(String theBucket, String theKey, String theData) {
         try {
             ByteArrayInputStream anIn = new ByteArrayInputStream(gzip(theData.getBytes("UTF8")));
@@ -285,6 +326,132 @@ public class S3Client {
         aClient.copyObject(theFrom.bucket, theFrom.key, theTo.bucket, theTo.key);
     }
 
+    /**
+     * Copies an object server side, S3 copies the bytes and nothing passes through this machine. The source must be
+     * readable with the credentials of this client.
+     */
+    public void copy(S3Url theFrom, S3Url theTo, StorageClass theStorageClass) {
+        try {
+            AmazonS3Client aClient = new AmazonS3Client(myCredentials);
+
+            aClient.copyObject(new CopyObjectRequest(theFrom.bucket, theFrom.key, theTo.bucket, theTo.key).withStorageClass(theStorageClass));
+
+        } catch (AmazonClientException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Copies an object server side as a multipart upload where the parts are copied in parallel. Use this for large
+     * objects, a single copy request is limited to 5 GB and copies at the pace of one request.
+     *
+     * @param theSize the size of the source object.
+     * @param theETag the ETag of the source object, the parts are only copied from that version so an object
+     *                overwritten meanwhile fails the copy instead of mixing versions.
+     */
+    public void copyMultipart(final S3Url theFrom, final S3Url theTo, StorageClass theStorageClass, long theSize, String theETag, long thePartSize, int theParallelism) {
+        final AmazonS3Client aClient = new AmazonS3Client(myCredentials);
+
+        InitiateMultipartUploadRequest aRequest = new InitiateMultipartUploadRequest(theTo.bucket, theTo.key)
+                .withStorageClass(theStorageClass);
+
+        final String anUploadId = aClient.initiateMultipartUpload(aRequest).getUploadId();
+
+        ExecutorService anExecutor = Executors.newFixedThreadPool(theParallelism);
+
+        try {
+            List<Future<PartETag>> aPartETags = new ArrayList<>();
+
+            int aPartNumber = 0;
+
+            for (long aFirst = 0; aFirst < theSize; aFirst += thePartSize) {
+
+                final CopyPartRequest aPartRequest = new CopyPartRequest()
+                        .withSourceBucketName(theFrom.bucket)
+                        .withSourceKey(theFrom.key)
+                        .withMatchingETagConstraint(theETag)
+                        .withDestinationBucketName(theTo.bucket)
+                        .withDestinationKey(theTo.key)
+                        .withUploadId(anUploadId)
+                        .withPartNumber(++aPartNumber)
+                        .withFirstByte(aFirst)
+                        .withLastByte(Math.min(aFirst + thePartSize, theSize) - 1);
+
+                aPartETags.add(anExecutor.submit(new Callable<PartETag>() {
+                    public PartETag call() throws Exception {
+                        return aClient.copyPart(aPartRequest).getPartETag();
+                    }
+                }));
+            }
+
+            List<PartETag> aDone = new ArrayList<>();
+
+            for (Future<PartETag> aPartETag : aPartETags) {
+                aDone.add(aPartETag.get());
+            }
+
+            aClient.completeMultipartUpload(new CompleteMultipartUploadRequest(theTo.bucket, theTo.key, anUploadId, aDone));
+
+        } catch (Exception e) {
+            // Stop the part copies first, a part copied after the abort would be left behind
+            anExecutor.shutdownNow();
+
+            try {
+                if (!anExecutor.awaitTermination(ABORT_WAIT_MINUTES, TimeUnit.MINUTES)) {
+                    ourLogger.warn("Part copies to %s still running, abort upload %s anyway", theTo, anUploadId);
+                }
+            } catch (InterruptedException e2) {
+                Thread.currentThread().interrupt();
+            }
+
+            try {
+                aClient.abortMultipartUpload(new AbortMultipartUploadRequest(theTo.bucket, theTo.key, anUploadId));
+            } catch (Exception e2) {
+                // Left for the bucket lifecycle rule to clean up
+            }
+
+            throw new RuntimeException("Failed to copy " + theFrom + " to " + theTo, e);
+
+        } finally {
+            anExecutor.shutdownNow();
+        }
+    }
+
+    public ObjectMetadata getObjectMetadata(S3Url theUrl) {
+        try {
+            AmazonS3Client aClient = new AmazonS3Client(myCredentials);
+
+            return aClient.getObjectMetadata(theUrl.bucket, theUrl.key);
+
+        } catch (AmazonClientException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks if an object is readable with the credentials of this client, e.g. if it is in a bucket of another
+     * account.
+     */
+    public boolean canRead(S3Url theUrl) {
+        try {
+            AmazonS3Client aClient = new AmazonS3Client(myCredentials);
+
+            aClient.getObjectMetadata(theUrl.bucket, theUrl.key);
+
+            return true;
+
+        } catch (AmazonS3Exception e) {
+            // Without list permission on the bucket S3 answers 403 also for missing objects
+            if (e.getStatusCode() == 403 || e.getStatusCode() == 404) {
+                return false;
+            }
+            throw new RuntimeException(e);
+
+        } catch (AmazonClientException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private String gunzip(InputStream theIn) throws Exception {
 
         byte[] buffer = new byte[1024];
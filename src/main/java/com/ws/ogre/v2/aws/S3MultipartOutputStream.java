@@ -0,0 +1,206 @@
+package com.ws.ogre.v2.aws;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.*;
+import com.ws.common.logging.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Output stream uploading everything written to it to S3 as a multipart upload. Data is buffered in memory one part
+ * at a time and each full part is uploaded in the background while writing continues, so nothing is ever spooled to
+ * local disk. The upload is completed on close, call abort() instead to discard it on failure.
+ */
+public class S3MultipartOutputStream extends OutputStream {
+
+    private static final Logger ourLogger = Logger.getLogger();
+
+    /** S3 requires all parts but the last to be at least 5 MB */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private AmazonS3Client myClient;
+    private S3Url myUrl;
+    private String myUploadId;
+
+    private int myPartSize;
+    private byte[] myBuffer;
+    private int myPosition;
+    private int myPartNumber;
+
+    private ExecutorService myExecutor;
+    private Semaphore myPartsInFlight;
+    private List<Future<PartETag>> myPartsUploading = new LinkedList<>();
+    private List<PartETag> myPartETags = new ArrayList<>();
+
+    private boolean isClosed;
+
+    S3MultipartOutputStream(AmazonS3Client theClient, S3Url theUrl, StorageClass theStorageClass, int thePartSize, int theParallelism) {
+        myClient = theClient;
+        myUrl = theUrl;
+        myPartSize = Math.max(MIN_PART_SIZE, thePartSize);
+
+        // Bound the number of part buffers held in memory to the ones uploading plus the one being filled
+        myExecutor = Executors.newFixedThreadPool(theParallelism);
+        myPartsInFlight = new Semaphore(theParallelism);
+
+        InitiateMultipartUploadRequest aRequest = new InitiateMultipartUploadRequest(theUrl.bucket, theUrl.key)
+                .withStorageClass(theStorageClass);
+
+        myUploadId = myClient.initiateMultipartUpload(aRequest).getUploadId();
+
+        ourLogger.debug("Initiated multipart upload %s to %s", myUploadId, myUrl);
+    }
+
+    @Override
+    public void write(int theByte) throws IOException {
+        write(new byte[]{(byte) theByte}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] theBytes, int theOffset, int theLength) throws IOException {
+        assertOpen();
+
+        while (theLength > 0) {
+            if (myBuffer == null) {
+                myBuffer = new byte[myPartSize];
+                myPosition = 0;
+            }
+
+            int aCount = Math.min(theLength, myBuffer.length - myPosition);
+
+            System.arraycopy(theBytes, theOffset, myBuffer, myPosition, aCount);
+
+            myPosition += aCount;
+            theOffset += aCount;
+            theLength -= aCount;
+
+            if (myPosition == myBuffer.length) {
+                uploadPart();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+
+        try {
+            // S3 needs at least one part, even if empty
+            if (myPosition > 0 || myPartNumber == 0) {
+                if (myBuffer == null) {
+                    myBuffer = new byte[0];
+                }
+                uploadPart();
+            }
+
+            for (Future<PartETag> aPartETag : myPartsUploading) {
+                myPartETags.add(aPartETag.get());
+            }
+
+            myPartsUploading.clear();
+
+            // Parts complete in any order, S3 wants them in order
+            myPartETags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+
+            myClient.completeMultipartUpload(new CompleteMultipartUploadRequest(myUrl.bucket, myUrl.key, myUploadId, myPartETags));
+
+            ourLogger.debug("Completed multipart upload of %s parts to %s", myPartETags.size(), myUrl);
+
+            isClosed = true;
+
+        } catch (Exception e) {
+            abort();
+            throw new IOException("Failed to upload " + myUrl, e);
+
+        } finally {
+            myExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Discards the upload and all parts uploaded so far.
+     */
+    public void abort() {
+        if (isClosed) {
+            return;
+        }
+
+        isClosed = true;
+
+        myExecutor.shutdownNow();
+
+        try {
+            myClient.abortMultipartUpload(new AbortMultipartUploadRequest(myUrl.bucket, myUrl.key, myUploadId));
+            ourLogger.info("Aborted multipart upload to %s", myUrl);
+
+        } catch (Exception e) {
+            ourLogger.warn("Failed to abort multipart upload %s to %s", myUploadId, myUrl, e);
+        }
+    }
+
+    public S3Url getUrl() {
+        return myUrl;
+    }
+
+    private void uploadPart() throws IOException {
+        try {
+            myPartsInFlight.acquire();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        final UploadPartRequest aRequest = new UploadPartRequest()
+                .withBucketName(myUrl.bucket)
+                .withKey(myUrl.key)
+                .withUploadId(myUploadId)
+                .withPartNumber(++myPartNumber)
+                .withInputStream(new ByteArrayInputStream(myBuffer, 0, myPosition))
+                .withPartSize(myPosition);
+
+        myBuffer = null;
+        myPosition = 0;
+
+        myPartsUploading.add(myExecutor.submit(new Callable<PartETag>() {
+            public PartETag call() throws Exception {
+                try {
+                    return myClient.uploadPart(aRequest).getPartETag();
+                } finally {
+                    myPartsInFlight.release();
+                }
+            }
+        }));
+
+        // Collect the parts done, and fail fast if one failed. Only the parts in flight are left, at most the parallelism
+        Iterator<Future<PartETag>> anIt = myPartsUploading.iterator();
+
+        while (anIt.hasNext()) {
+            Future<PartETag> aPartETag = anIt.next();
+
+            if (aPartETag.isDone()) {
+                try {
+                    myPartETags.add(aPartETag.get());
+                } catch (Exception e) {
+                    throw new IOException("Failed to upload part to " + myUrl, e);
+                }
+
+                anIt.remove();
+            }
+        }
+    }
+
+    private void assertOpen() throws IOException {
+        if (isClosed) {
+            throw new IOException("Stream to " + myUrl + " is closed");
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.ws.ogre.v2.aws;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.*;
+import com.ws.common.logging.Logger;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies objects between two S3 clients, e.g. buckets in different accounts or regions, without spooling them to
+ * local disk. The source is read with ranged GETs that are uploaded as parts of a multipart upload on the
+ * destination, several parts at a time.
+ *
+ * The part buffers are taken from a bounded pool shared by all copies through the relay, which caps the memory
+ * used however many copies run in parallel.
+ *
+ * Copies are verified end to end:
+ *
+ * - All ranges are read from the same version of the source object, the ETag seen when the copy started.
+ * - Each part is uploaded with its MD5 so S3 rejects parts corrupted on the way.
+ * - The ETag of the completed upload is checked against the MD5s of the parts read.
+ * - The MD5 of the whole object is checked against the source ETag, if the source ETag is one, i.e. the source was
+ *   not a multipart upload or encrypted with KMS.
+ */
+public class S3Relay {
+
+    private static final Logger ourLogger = Logger.getLogger();
+
+    /** S3 allows at most 10000 parts in a multipart upload */
+    private static final int MAX_PARTS = 10000;
+
+    /** How long a failed relay waits for the part uploads in flight before aborting */
+    private static final int ABORT_WAIT_MINUTES = 5;
+
+    private AmazonS3Client mySrcClient;
+    private AmazonS3Client myDstClient;
+
+    private int myPartSize;
+    private int myPartConcurrency;
+
+    private BufferPool myBuffers;
+
+    /**
+     * @param thePartSize        the size of the ranges read and the parts uploaded.
+     * @param thePartConcurrency the number of parts of an object copied in parallel.
+     * @param theMaxBuffers      the max number of part buffers in memory for all copies in total.
+     */
+    public S3Relay(AmazonS3Client theSrcClient, AmazonS3Client theDstClient, int thePartSize, int thePartConcurrency, int theMaxBuffers) {
+        mySrcClient = theSrcClient;
+        myDstClient = theDstClient;
+        myPartSize = Math.max(S3MultipartOutputStream.MIN_PART_SIZE, thePartSize);
+        myPartConcurrency = Math.max(1, thePartConcurrency);
+        myBuffers = new BufferPool(Math.max(1, theMaxBuffers), myPartSize);
+    }
+
+    public void copy(S3Url theFrom, S3Url theTo, StorageClass theStorageClass) throws IOException {
+        ObjectMetadata aSrcMeta = mySrcClient.getObjectMetadata(theFrom.bucket, theFrom.key);
+
+        long aSize = aSrcMeta.getContentLength();
+
+        if (aSize <= myPartSize) {
+            copySingle(theFrom, theTo, theStorageClass, aSrcMeta);
+        } else {
+            copyMultipart(theFrom, theTo, theStorageClass, aSrcMeta);
+        }
+    }
+
+    private void copySingle(S3Url theFrom, S3Url theTo, StorageClass theStorageClass, ObjectMetadata theSrcMeta) throws IOException {
+        int aSize = (int) theSrcMeta.getContentLength();
+
+        byte[] aBuffer = myBuffers.take();
+
+        try {
+            if (aSize > 0) {
+                readRange(theFrom, theSrcMeta.getETag(), 0, aSize, aBuffer);
+            }
+
+            byte[] aMd5 = md5(aBuffer, 0, aSize);
+
+            ObjectMetadata aMeta = new ObjectMetadata();
+            aMeta.setContentLength(aSize);
+            aMeta.setContentMD5(Base64.encodeBase64String(aMd5));
+
+            PutObjectResult aResult = myDstClient.putObject(
+                    new PutObjectRequest(theTo.bucket, theTo.key, new ByteArrayInputStream(aBuffer, 0, aSize), aMeta)
+                            .withStorageClass(theStorageClass)
+            );
+
+            verifySource(theFrom, theSrcMeta, aMd5);
+            verifyDestination(theTo, aResult.getSSEAlgorithm(), aResult.getETag(), Hex.encodeHexString(aMd5));
+
+        } finally {
+            myBuffers.release(aBuffer);
+        }
+    }
+
+    private void copyMultipart(final S3Url theFrom, final S3Url theTo, StorageClass theStorageClass, final ObjectMetadata theSrcMeta) throws IOException {
+        final long aSize = theSrcMeta.getContentLength();
+        final int aParts = (int) ((aSize + myPartSize - 1) / myPartSize);
+
+        if (aParts > MAX_PARTS) {
+            throw new IOException(theFrom + " needs " + aParts + " parts of " + myPartSize + " bytes, S3 allows " + MAX_PARTS + ". Use a bigger part size.");
+        }
+
+        final String anUploadId = myDstClient.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(theTo.bucket, theTo.key).withStorageClass(theStorageClass)
+        ).getUploadId();
+
+        ourLogger.debug("Relay %s to %s as %s parts, upload id %s", theFrom, theTo, aParts, anUploadId);
+
+        final PartETag[] aPartETags = new PartETag[aParts];
+        final byte[][] aPartMd5s = new byte[aParts][];
+        final OrderedDigest anObjectDigest = new OrderedDigest();
+        final AtomicInteger aNextPart = new AtomicInteger();
+
+        int aThreads = Math.min(myPartConcurrency, aParts);
+
+        ExecutorService anExecutor = Executors.newFixedThreadPool(aThreads);
+
+        try {
+            List<Future<Void>> aWorkers = new ArrayList<>();
+
+            for (int i = 0; i < aThreads; i++) {
+                aWorkers.add(anExecutor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        while (true) {
+                            // Take the buffer before claiming a part, then the lowest part not done always has a
+                            // buffer and the ordered digest below can not dead lock on the shared pool.
+                            byte[] aBuffer = myBuffers.take();
+
+                            try {
+                                int aPart = aNextPart.getAndIncrement();
+
+                                if (aPart >= aParts) {
+                                    return null;
+                                }
+
+                                long aFirst = (long) aPart * myPartSize;
+                                int aLength = (int) Math.min(myPartSize, aSize - aFirst);
+
+                                readRange(theFrom, theSrcMeta.getETag(), aFirst, aLength, aBuffer);
+
+                                aPartMd5s[aPart] = md5(aBuffer, 0, aLength);
+                                anObjectDigest.update(aPart, aBuffer, aLength);
+
+                                aPartETags[aPart] = myDstClient.uploadPart(new UploadPartRequest()
+                                        .withBucketName(theTo.bucket)
+                                        .withKey(theTo.key)
+                                        .withUploadId(anUploadId)
+                                        .withPartNumber(aPart + 1)
+                                        .withInputStream(new ByteArrayInputStream(aBuffer, 0, aLength))
+                                        .withPartSize(aLength)
+                                        .withMD5Digest(Base64.encodeBase64String(aPartMd5s[aPart]))
+                                ).getPartETag();
+
+                            } catch (Exception e) {
+                                anObjectDigest.fail();
+                                throw e;
+
+                            } finally {
+                                myBuffers.release(aBuffer);
+                            }
+                        }
+                    }
+                }));
+            }
+
+            for (Future<Void> aWorker : aWorkers) {
+                aWorker.get();
+            }
+
+            CompleteMultipartUploadResult aResult = myDstClient.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(theTo.bucket, theTo.key, anUploadId, Arrays.asList(aPartETags))
+            );
+
+            verifySource(theFrom, theSrcMeta, anObjectDigest.digest());
+            verifyDestination(theTo, aResult.getSSEAlgorithm(), aResult.getETag(), getMultipartETag(aPartMd5s));
+
+        } catch (Exception e) {
+            // Stop the part uploads first, a part uploaded after the abort would be left behind
+            anExecutor.shutdownNow();
+
+            try {
+                if (!anExecutor.awaitTermination(ABORT_WAIT_MINUTES, TimeUnit.MINUTES)) {
+                    ourLogger.warn("Part uploads to %s still running, abort upload %s anyway", theTo, anUploadId);
+                }
+            } catch (InterruptedException e2) {
+                Thread.currentThread().interrupt();
+            }
+
+            try {
+                myDstClient.abortMultipartUpload(new AbortMultipartUploadRequest(theTo.bucket, theTo.key, anUploadId));
+            } catch (Exception e2) {
+                ourLogger.warn("Failed to abort multipart upload %s to %s", anUploadId, theTo, e2);
+            }
+
+            if (e instanceof ExecutionException && e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw e instanceof IOException ? (IOException) e : new IOException("Failed to relay " + theFrom + " to " + theTo, e);
+
+        } finally {
+            anExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads a range of the source into the buffer. The ETag constraint makes sure all ranges of an object are read
+     * from the same version of it.
+     */
+    private void readRange(S3Url theFrom, String theETag, long theFirst, int theLength, byte[] theBuffer) throws IOException {
+        GetObjectRequest aRequest = new GetObjectRequest(theFrom.bucket, theFrom.key)
+                .withRange(theFirst, theFirst + theLength - 1)
+                .withMatchingETagConstraint(theETag);
+
+        S3Object anObject = mySrcClient.getObject(aRequest);
+
+        if (anObject == null) {
+            throw new IOException(theFrom + " was changed during copy, ETag is no longer " + theETag);
+        }
+
+        try (InputStream anIn = anObject.getObjectContent()) {
+            int aRead = 0;
+
+            while (aRead < theLength) {
+                int aCount = anIn.read(theBuffer, aRead, theLength - aRead);
+
+                if (aCount < 0) {
+                    throw new IOException("Unexpected end of " + theFrom + " at " + (theFirst + aRead) + ", expected " + theLength + " bytes from " + theFirst);
+                }
+
+                aRead += aCount;
+            }
+        }
+    }
+
+    private void verifySource(S3Url theFrom, ObjectMetadata theSrcMeta, byte[] theMd5) throws IOException {
+        String anETag = unquote(theSrcMeta.getETag());
+
+        // Only single part uploads not encrypted with KMS have the MD5 of the content as ETag
+        if (anETag.contains("-") || !isMd5ETag(theSrcMeta.getSSEAlgorithm())) {
+            return;
+        }
+
+        if (!anETag.equalsIgnoreCase(Hex.encodeHexString(theMd5))) {
+            throw new IOException("Checksum mismatch for " + theFrom + ", read " + Hex.encodeHexString(theMd5) + " but source ETag is " + anETag);
+        }
+    }
+
+    private void verifyDestination(S3Url theTo, String theSSEAlgorithm, String theETag, String theExpected) throws IOException {
+        if (!isMd5ETag(theSSEAlgorithm)) {
+            return;
+        }
+
+        if (!unquote(theETag).equalsIgnoreCase(theExpected)) {
+            throw new IOException("Checksum mismatch for " + theTo + ", uploaded " + theExpected + " but S3 stored " + theETag);
+        }
+    }
+
+    /**
+     * The ETag S3 gives a multipart upload, the MD5 of the part MD5s followed by the number of parts.
+     */
+    static String getMultipartETag(byte[][] thePartMd5s) throws IOException {
+        MessageDigest aDigest = newMd5();
+
+        for (byte[] aPartMd5 : thePartMd5s) {
+            aDigest.update(aPartMd5);
+        }
+
+        return Hex.encodeHexString(aDigest.digest()) + "-" + thePartMd5s.length;
+    }
+
+    private static boolean isMd5ETag(String theSSEAlgorithm) {
+        return theSSEAlgorithm == null || ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION.equals(theSSEAlgorithm);
+    }
+
+    private static String unquote(String theETag) {
+        return theETag == null ? "" : theETag.replace("\"", "");
+    }
+
+    private static byte[] md5(byte[] theBuffer, int theOffset, int theLength) throws IOException {
+        MessageDigest aDigest = newMd5();
+        aDigest.update(theBuffer, theOffset, theLength);
+        return aDigest.digest();
+    }
+
+    private static MessageDigest newMd5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    /**
+     * MD5 of a whole object fed with the parts in order although the parts are read in parallel. A part waits for
+     * the ones before it to be digested.
+     */
+    private static class OrderedDigest {
+        private MessageDigest myDigest;
+        private int myNext;
+        private boolean isFailed;
+
+        OrderedDigest() throws IOException {
+            myDigest = newMd5();
+        }
+
+        synchronized void update(int thePart, byte[] theBuffer, int theLength) throws IOException, InterruptedException {
+            while (myNext != thePart) {
+                if (isFailed) {
+                    throw new IOException("Copy aborted");
+                }
+                wait();
+            }
+
+            myDigest.update(theBuffer, 0, theLength);
+            myNext++;
+
+            notifyAll();
+        }
+
+        synchronized void fail() {
+            isFailed = true;
+            notifyAll();
+        }
+
+        synchronized byte[] digest() {
+            return myDigest.digest();
+        }
+    }
+
+    /**
+     * Pool of part buffers, allocated on demand up to the max count.
+     */
+    private static class BufferPool {
+        private Semaphore myPermits;
+        private Queue<byte[]> myFree = new ConcurrentLinkedQueue<>();
+        private int myBufferSize;
+
+        BufferPool(int theMaxBuffers, int theBufferSize) {
+            myPermits = new Semaphore(theMaxBuffers, true);
+            myBufferSize = theBufferSize;
+        }
+
+        byte[] take() throws IOException {
+            try {
+                myPermits.acquire();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+
+            byte[] aBuffer = myFree.poll();
+
+            return aBuffer != null ? aBuffer : new byte[myBufferSize];
+        }
+
+        void release(byte[] theBuffer) {
+            myFree.offer(theBuffer);
+            myPermits.release();
+        }
+    }
+}
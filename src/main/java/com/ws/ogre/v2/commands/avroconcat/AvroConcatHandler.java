@@ -1,14 +1,13 @@
 package com.ws.ogre.v2.commands.avroconcat;
 
-import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.StorageClass;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.Upload;
 import com.google.gson.Gson;
 import com.ws.common.logging.Alert;
 import com.ws.common.logging.Logger;
 import com.ws.ogre.v2.aws.S3Client;
+import com.ws.ogre.v2.aws.S3MultipartOutputStream;
 import com.ws.ogre.v2.aws.S3Url;
+import com.ws.ogre.v2.commands.avroconcat.ConcatIndex.HourIndex;
 import com.ws.ogre.v2.datafile.DataFileHandler;
 import com.ws.ogre.v2.datafile.DataFileHandler.*;
 import com.ws.ogre.v2.datafile.DataFileManifest;
@@ -34,6 +33,15 @@ public class AvroConcatHandler {
 
     private static final Logger ourLogger = Logger.getLogger();
 
+    private static final Gson ourGson = new Gson();
+
+    private static final int MANIFEST_FETCH_THREADS = 20;
+
+    private static final int READ_AHEAD_FILES = 4;
+
+    private static final int UPLOAD_PART_SIZE = 16 * 1024 * 1024;
+    private static final int UPLOAD_PARALLELISM = 2;
+
     private DataFileHandler myAvroSrcHandler;
     private S3Client myAvroSrcS3Client;
 
@@ -44,6 +52,12 @@ public class AvroConcatHandler {
 
     private Set<String> myTypes;
 
+    private ConcatIndex myIndex;
+
+    private ConcatPlanner myPlanner;
+
+    private long myMaxPrefetchBytes;
+
 
     public AvroConcatHandler(Config theConfig, Set<String> theCliTypes) {
 
@@ -56,6 +70,12 @@ public class AvroConcatHandler {
         myStorageClass = theConfig.dstClass;
 
         myTypes = getTypes(theCliTypes, theConfig.types);
+
+        myIndex = new ConcatIndex(new File(theConfig.indexDir), theConfig.dstRoot);
+
+        myPlanner = new ConcatPlanner(theConfig.targetSizeMb * 1024L * 1024L);
+
+        myMaxPrefetchBytes = theConfig.prefetchMb * 1024L * 1024L;
     }
 
 
@@ -142,10 +162,13 @@ public class AvroConcatHandler {
         // Should we replace old existing files, then delete old first
         if (theReplace) {
             delete(myTypes, theHour);
+            myIndex.delete(theHour);
         }
 
+        HourIndex anIndex = myIndex.load(theHour);
+
         // Fetch files to concatenate if any
-        DataFiles allToConcat = getToConcatenate(theHour);
+        DataFiles allToConcat = getToConcatenate(theHour, anIndex);
 
         // Anything to concatenate?
         if (allToConcat.isEmpty()) {
@@ -159,32 +182,44 @@ public class AvroConcatHandler {
         for (String aType : allToConcatByType.getTypes()) {
             DataFiles aToConvert = allToConcatByType.getForType(aType);
 
-            concat(aToConvert);
+            List<DataFiles> aBins = myPlanner.plan(aToConvert);
+
+            ourLogger.info("Concat %s files of type %s into %s file(s)", aToConvert.size(), aType, aBins.size());
+
+            for (DataFiles aBin : aBins) {
+                concat(aBin, anIndex);
+            }
         }
 
         ourLogger.info("Batch concat done");
     }
 
-    private DataFiles getToConcatenate(DateHour theHour) {
-
-        DataFiles isDone = new DataFiles();
+    private DataFiles getToConcatenate(DateHour theHour, HourIndex theIndex) {
 
         // Get manifest files (*.mf) containing info of the files already concatenated
         DataFiles aManifests = myAvroDstHandler.findFilesByTimeRange(theHour, theHour, myTypes, ".*\\.mf");
 
-        // Collect all files already concatenated
+        // Forget indexed manifests no longer in S3 and fetch the ones not yet indexed
+        theIndex.retain(aManifests);
+
+        DataFiles aNotIndexed = new DataFiles();
+
         for (DataFile aManifestFile : aManifests) {
-            // Fetch manifest json
-            String aJson = myAvroDstS3Client.getObjectAsString(aManifestFile.url.bucket, aManifestFile.url.key);
+            if (!theIndex.contains(aManifestFile)) {
+                aNotIndexed.add(aManifestFile);
+            }
+        }
 
-            System.out.println("JSON:\n" + aJson);
-            // Parse manifest
-            DataFileManifest aManifest = new Gson().fromJson(aJson, DataFileManifest.class);
+        ourLogger.debug("%s manifests for %s, %s not indexed", aManifests.size(), theHour, aNotIndexed.size());
 
-            // Register the already concatenated
-            isDone.addAll(aManifest.getIncludes());
+        if (!aNotIndexed.isEmpty()) {
+            fetchManifests(aNotIndexed, theIndex);
+            theIndex.save();
         }
 
+        // Collect all files already concatenated
+        DataFilesById isDone = new DataFilesById(theIndex.getIncludes());
+
         DataFiles aToConcat = new DataFiles();
 
         // Fetch all source files
@@ -202,121 +237,116 @@ public class AvroConcatHandler {
     }
 
 
-    private void concat(DataFiles theFiles) throws Exception {
+    private void fetchManifests(DataFiles theManifests, final HourIndex theIndex) {
+
+        JobExecutorService<DataFile> anExecutor = new JobExecutorService<>(Math.min(MANIFEST_FETCH_THREADS, theManifests.size()));
+
+        anExecutor.addTasks(theManifests);
+
+        anExecutor.execute(new JobExecutorService.JobExecutor<DataFile>() {
+            public void execute(DataFile theManifestFile) throws Exception {
+                // Fetch manifest json
+                String aJson = myAvroDstS3Client.getObjectAsString(theManifestFile.url.bucket, theManifestFile.url.key);
+
+                // Parse manifest
+                DataFileManifest aManifest = ourGson.fromJson(aJson, DataFileManifest.class);
+
+                // Register the already concatenated
+                theIndex.put(theManifestFile, aManifest.getIncludes());
+            }
+        });
+    }
+
+    private void concat(DataFiles theFiles, HourIndex theIndex) throws Exception {
 
         MyAvroRecordWriter aWriter = null;
-        MyAvroRecordReader aReader = null;
+        S3MultipartOutputStream anOut = null;
         String aSchema = null;
-        File aDest = null;
 
         DataFiles allIncluded = new DataFiles();
 
         // Sort files to convert so we have them in "chronological" order
         theFiles.sortAsc();
 
-        // Go through all files and concat their rows. If schema changes then continue concatenating into a new file.
-        for (DataFile aFile : theFiles) {
+        SourcePrefetcher aSources = new SourcePrefetcher(myAvroSrcS3Client, theFiles, READ_AHEAD_FILES, myMaxPrefetchBytes);
 
-            ourLogger.info("Fetch and concat: %s", aFile);
+        try {
+            // Go through all files and concat their rows. If schema changes then continue concatenating into a new file.
+            for (DataFile aFile : theFiles) {
 
-            // Create temp file
-            File aDataFile = File.createTempFile(aFile.name, aFile.ext);
+                ourLogger.info("Fetch and concat: %s", aFile);
 
-            // Download avro into temp file
-            myAvroSrcS3Client.getObjectToFile(aFile.url.bucket, aFile.url.key, aDataFile);
+                // Create Avro reader streaming the source, the stream is closed also if not an Avro file
+                try (InputStream anIn = aSources.next(); MyAvroRecordReader aReader = new MyAvroRecordReader(anIn)) {
 
-            // Create Avro reader
-            aReader = new MyAvroRecordReader(new FileInputStream(aDataFile));
+                    // Shift destination file if schema changed
+                    if (aSchema == null || !aSchema.equals(aReader.getSchema().toString())) {
 
-            // Shift destination file if schema changed
-            if (aSchema == null || !aSchema.equals(aReader.getSchema().toString())) {
+                        // Close old stuff first?
+                        if (aWriter != null) {
+                            ourLogger.info("Schema changed, start concatenate to a new file");
 
-                // Close old stuff first?
-                if (aDest != null) {
-                    ourLogger.info("Schema changed, start concatenate to a new file");
-                    aReader.close();
-                    aWriter.close();
+                            // Completes the upload
+                            aWriter.close();
+                            aWriter = null;
 
-                    // Upload it
-                    upload(aDest, allIncluded);
+                            publish(anOut.getUrl(), allIncluded, theIndex);
 
-                    allIncluded.clear();
-                    aDest.delete();
-                }
+                            allIncluded.clear();
+                        }
 
-                // Create a new file to merge avros into
-                aDest = File.createTempFile("concat-" + aFile.name, ".avro");
+                        // Start a new upload to merge avros into
+                        S3Url aPath = DataFile.createUrl(myAvroDstRoot, aFile.date, aFile.hour, aFile.type, "concat-" + aFile.name, aFile.ext);
 
-                aSchema = aReader.getSchema().toString();
-                aWriter = new MyAvroRecordWriter(aReader.getSchema(), aDest);
-            }
+                        ourLogger.info("Concatenate into %s", aPath);
 
-            // Concat all rows
-            while (aReader.hasNext()) {
-                GenericRecord aRecord = aReader.next();
+                        anOut = myAvroDstS3Client.createMultipartOutputStream(aPath, myStorageClass, UPLOAD_PART_SIZE, UPLOAD_PARALLELISM);
 
-                aWriter.append(aRecord);
-            }
+                        aSchema = aReader.getSchema().toString();
+                        aWriter = new MyAvroRecordWriter(aReader.getSchema(), anOut);
+                    }
 
-            allIncluded.add(aFile);
+                    // Concat all rows, copies the compressed blocks as is when codec is the same
+                    aWriter.appendAllFrom(aReader, false);
+                }
 
-            // Clean up
-            aDataFile.delete();
-        }
+                allIncluded.add(aFile);
+            }
+
+            if (aWriter != null) {
+                // Completes the upload
+                aWriter.close();
+                aWriter = null;
 
-        if (aDest != null) {
-            aReader.close();
-            aWriter.close();
+                publish(anOut.getUrl(), allIncluded, theIndex);
+            }
 
-            // Upload it
-            upload(aDest, allIncluded);
+        } finally {
+            aSources.close();
 
-            aDest.delete();
+            // Discard any half written file
+            if (aWriter != null) {
+                anOut.abort();
+            }
         }
     }
 
-    private void upload(File theFile, DataFiles theIncluded) throws Exception {
-
-        TransferManager aMgr = myAvroDstS3Client.getTransferManager();
-
-        try {
-            // Calc destination path
-            DataFile aFile = theIncluded.get(0);
-            S3Url aPath = DataFile.createUrl(myAvroDstRoot, aFile.date, aFile.hour, aFile.type, "concat-" + aFile.name, aFile.ext);
-
-            ourLogger.info("Upload file containing %s concatenated files to %s", theIncluded.size(), aPath);
-
-            PutObjectRequest aRequest = new PutObjectRequest(aPath.bucket, aPath.key, theFile)
-                    .withStorageClass(myStorageClass);
+    private void publish(S3Url thePath, DataFiles theIncluded, HourIndex theIndex) {
 
-            // Upload file
-            Upload anUpload = aMgr.upload(aRequest);
-            anUpload.waitForCompletion();
-            ourLogger.info("Uploaded: %s", anUpload.getDescription());
+        ourLogger.info("Uploaded file containing %s concatenated files to %s", theIncluded.size(), thePath);
 
-            // Generate manifest
-            DataFileManifest aManifest = new DataFileManifest();
-            aManifest.setFile(aPath);
-            aManifest.setIncludes(theIncluded);
+        // Generate manifest
+        DataFileManifest aManifest = new DataFileManifest();
+        aManifest.setFile(thePath);
+        aManifest.setIncludes(theIncluded);
 
-            // Upload manifest
-            aPath = new S3Url(aPath.toString() + ".mf");
-            ourLogger.info("Upload manifest file to %s", aPath);
-            myAvroDstS3Client.putObject(aPath.bucket, aPath.key, aManifest.serialize());
+        // Upload manifest
+        S3Url aPath = new S3Url(thePath.toString() + ".mf");
+        ourLogger.info("Upload manifest file to %s", aPath);
+        myAvroDstS3Client.putObject(aPath.bucket, aPath.key, aManifest.serialize());
 
-        } finally {
-            aMgr.shutdownNow();
-        }
-    }
-
-    private class Concated {
-        File file;
-        DataFiles included;
-
-        public Concated(File theFile, DataFiles theIncluded) {
-            file = theFile;
-            included = theIncluded;
-        }
+        theIndex.put(aPath, theIncluded);
+        theIndex.save();
     }
 
     private void delete(Set<String> theTypes, DateHour theHour) {
@@ -347,10 +377,10 @@ public class AvroConcatHandler {
 
     /* Just hide away some generics ugliness */
     static class MyAvroRecordWriter extends DataFileWriter<GenericRecord> {
-        public MyAvroRecordWriter(Schema theSchema, File theFile) throws IOException {
+        public MyAvroRecordWriter(Schema theSchema, OutputStream theOut) throws IOException {
             super(new SpecificDatumWriter<GenericRecord>(theSchema));
             setCodec(CodecFactory.snappyCodec());
-            create(theSchema, theFile);
+            create(theSchema, theOut);
         }
     }
 
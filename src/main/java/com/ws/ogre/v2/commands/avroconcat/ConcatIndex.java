@@ -0,0 +1,146 @@
+package com.ws.ogre.v2.commands.avroconcat;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+import com.ws.common.logging.Logger;
+import com.ws.ogre.v2.aws.S3Url;
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFile;
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFiles;
+import com.ws.ogre.v2.datetime.DateHour;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Local index, one file per hour, of the concat manifests (*.mf) already written to the destination and the source
+ * files each of them includes. With the index in place an incremental concat cycle only has to fetch the manifests
+ * it has not seen before instead of every manifest of the hour.
+ *
+ * The index is only a cache of what is in S3, manifests no longer listed in S3 are dropped from it.
+ */
+public class ConcatIndex {
+
+    private static final Logger ourLogger = Logger.getLogger();
+
+    private static final Gson ourGson = new Gson();
+
+    private File myDir;
+
+    public ConcatIndex(File theIndexDir, S3Url theDstRoot) {
+        myDir = new File(theIndexDir, theDstRoot.bucket + "/" + theDstRoot.key);
+    }
+
+    public HourIndex load(DateHour theHour) {
+        File aFile = getFile(theHour);
+
+        if (!aFile.exists()) {
+            return new HourIndex(aFile);
+        }
+
+        try {
+            HourIndex anIndex = ourGson.fromJson(FileUtils.readFileToString(aFile, "UTF-8"), HourIndex.class);
+
+            if (anIndex == null) {
+                return new HourIndex(aFile);
+            }
+
+            // E.g. "manifests": null
+            if (anIndex.myManifests == null) {
+                anIndex.myManifests = new HashMap<>();
+            }
+
+            anIndex.myFile = aFile;
+            return anIndex;
+
+        } catch (Exception e) {
+            ourLogger.warn("Failed to read concat index %s, will rebuild it from manifests", aFile, e);
+            return new HourIndex(aFile);
+        }
+    }
+
+    public void delete(DateHour theHour) {
+        FileUtils.deleteQuietly(getFile(theHour));
+    }
+
+    private File getFile(DateHour theHour) {
+        return new File(myDir, "d=" + theHour.format("yyyy-MM-dd") + "/h=" + theHour.format("HH") + ".json");
+    }
+
+    public static class HourIndex {
+
+        private transient File myFile;
+
+        @SerializedName("manifests")
+        private Map<String, List<String>> myManifests = new HashMap<>();
+
+        /** For Gson, to run the field initializers */
+        private HourIndex() {
+        }
+
+        private HourIndex(File theFile) {
+            myFile = theFile;
+        }
+
+        public synchronized boolean contains(DataFile theManifest) {
+            return myManifests.containsKey(theManifest.url.toString());
+        }
+
+        public synchronized void put(DataFile theManifest, DataFiles theIncludes) {
+            put(theManifest.url, theIncludes);
+        }
+
+        public synchronized void put(S3Url theManifest, DataFiles theIncludes) {
+            List<String> anUrls = new ArrayList<>();
+
+            for (DataFile aFile : theIncludes) {
+                anUrls.add(aFile.url.toString());
+            }
+
+            myManifests.put(theManifest.toString(), anUrls);
+        }
+
+        /**
+         * Drops all manifests not among the specified, i.e. the ones deleted from S3 since last cycle.
+         */
+        public synchronized void retain(DataFiles theManifests) {
+            Set<String> anUrls = new HashSet<>();
+
+            for (DataFile aFile : theManifests) {
+                anUrls.add(aFile.url.toString());
+            }
+
+            myManifests.keySet().retainAll(anUrls);
+        }
+
+        public synchronized DataFiles getIncludes() {
+            DataFiles aFiles = new DataFiles();
+
+            for (List<String> anUrls : myManifests.values()) {
+                for (String anUrl : anUrls) {
+                    aFiles.add(new DataFile(new S3Url(anUrl)));
+                }
+            }
+
+            return aFiles;
+        }
+
+        public synchronized void save() {
+            try {
+                File aTmpFile = new File(myFile.getPath() + ".tmp");
+
+                FileUtils.writeStringToFile(aTmpFile, ourGson.toJson(this), "UTF-8");
+
+                // Replace the old index in one go so a crash never leaves a half written index behind
+                Files.move(aTmpFile.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            } catch (IOException e) {
+                // The index is only a cache, we will just have to fetch the manifests again next cycle
+                ourLogger.warn("Failed to save concat index %s", myFile, e);
+            }
+        }
+    }
+}
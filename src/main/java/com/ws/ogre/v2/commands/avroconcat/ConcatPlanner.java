@@ -0,0 +1,70 @@
+package com.ws.ogre.v2.commands.avroconcat;
+
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFile;
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFiles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans how the source files of a type are packed into concatenated files.
+ *
+ * Without a target size all files of an hour go into one concatenated file. With a target size files are binned in
+ * chronological order so each concatenated file ends up close to the target size, i.e. quiet hours still produce one
+ * file while busy hours are split into several. Files are never binned across hours since all records in a data
+ * lake file must belong to the same hour.
+ */
+public class ConcatPlanner {
+
+    private long myTargetSize;
+
+    /**
+     * @param theTargetSize target size in bytes of concatenated files, 0 to concatenate each hour into one file.
+     */
+    public ConcatPlanner(long theTargetSize) {
+        myTargetSize = theTargetSize;
+    }
+
+    public List<DataFiles> plan(DataFiles theFiles) {
+
+        List<DataFiles> aBins = new ArrayList<>();
+
+        DataFiles aBin = new DataFiles();
+        long aBinSize = 0;
+
+        // Sort files so we have them in "chronological" order
+        theFiles.sortAsc();
+
+        for (DataFile aFile : theFiles) {
+
+            if (!aBin.isEmpty() && !fits(aBin, aBinSize, aFile)) {
+                aBins.add(aBin);
+                aBin = new DataFiles();
+                aBinSize = 0;
+            }
+
+            aBin.add(aFile);
+            aBinSize += Math.max(0, aFile.size);
+        }
+
+        if (!aBin.isEmpty()) {
+            aBins.add(aBin);
+        }
+
+        return aBins;
+    }
+
+    private boolean fits(DataFiles theBin, long theBinSize, DataFile theFile) {
+
+        if (!theBin.get(0).dateHour.equals(theFile.dateHour)) {
+            return false;
+        }
+
+        if (myTargetSize <= 0) {
+            return true;
+        }
+
+        // Files with unknown size are always accepted, no reason to produce tiny files because of lacking info
+        return theFile.size < 0 || theBinSize + theFile.size <= myTargetSize;
+    }
+}
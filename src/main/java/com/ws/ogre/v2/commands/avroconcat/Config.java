@@ -26,6 +26,11 @@ import java.util.*;
  dst.s3.rootPath       =
  dst.s3.storageClass   = STANDARD_IA
 
+ index.localDir        = /tmp/ogre-avroconcat-index (optional, default <java.io.tmpdir>/ogre-avroconcat-index)
+
+ concat.targetSizeMb   = 256 (optional, default 0 - concatenate all files of an hour into one)
+ concat.prefetchMb     = 64  (optional, default 64 - max source bytes read ahead into memory in total, 0 to stream all)
+
  */
 public class Config {
 
@@ -46,6 +51,11 @@ public class Config {
     private static final String PROP_DST_S3_ROOT         = "dst.s3.rootPath";
     private static final String PROP_DST_S3_STORAGECLASS = "dst.s3.storageClass";
 
+    private static final String PROP_INDEX_LOCALDIR      = "index.localDir";
+
+    private static final String PROP_CONCAT_TARGETSIZE   = "concat.targetSizeMb";
+    private static final String PROP_CONCAT_PREFETCH     = "concat.prefetchMb";
+
 
     public String log4jConf;
 
@@ -64,6 +74,11 @@ public class Config {
     public S3Url  dstRoot;
     public StorageClass dstClass;
 
+    public String indexDir;
+
+    public int targetSizeMb;
+    public int prefetchMb;
+
 
     public static Config load(String theFile) {
         try {
@@ -95,6 +110,11 @@ public class Config {
         dstSecret      = aConf.getString(PROP_DST_S3_SECRET);
         dstRoot        = new S3Url(aConf.getString(PROP_DST_S3_ROOT));
         dstClass       = StorageClass.fromValue(aConf.getString(PROP_DST_S3_STORAGECLASS, "STANDARD_IA"));
+
+        indexDir       = aConf.getString(PROP_INDEX_LOCALDIR, System.getProperty("java.io.tmpdir") + "/ogre-avroconcat-index");
+
+        targetSizeMb   = aConf.getInt(PROP_CONCAT_TARGETSIZE, 0);
+        prefetchMb     = aConf.getInt(PROP_CONCAT_PREFETCH, 64);
     }
 
     public static class ConfigException extends RuntimeException {
@@ -117,6 +137,9 @@ public class Config {
                 ", dstSecret='xxx'" +
                 ", dstRoot=" + dstRoot +
                 ", dstClass=" + dstClass +
+                ", indexDir='" + indexDir + '\'' +
+                ", targetSizeMb=" + targetSizeMb +
+                ", prefetchMb=" + prefetchMb +
                 '}';
     }
 }
@@ -0,0 +1,131 @@
+package com.ws.ogre.v2.commands.avroconcat;
+
+import com.ws.common.logging.Logger;
+import com.ws.ogre.v2.aws.S3Client;
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFile;
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFiles;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+
+/**
+ * Hands out the source files to concatenate as streams, in order. The next few files are read ahead into memory in
+ * the background while the current one is concatenated, as long as the files read ahead and the one handed out last
+ * fit in the max prefetch bytes in total. Files too big for that, or with unknown size, are streamed straight from S3
+ * when their turn comes.
+ */
+class SourcePrefetcher implements Closeable {
+
+    private static final Logger ourLogger = Logger.getLogger();
+
+    private S3Client myS3Client;
+    private DataFiles myFiles;
+    private int myReadAhead;
+    private long myMaxPrefetchBytes;
+
+    private ExecutorService myExecutor;
+    private List<Future<byte[]>> myPrefetched = new ArrayList<>();
+    private int myNext;
+
+    /** The next file to consider reading ahead */
+    private int myPrefetchNext;
+
+    /** The bytes of the files read ahead and not yet released */
+    private long myPrefetchedBytes;
+
+    /** The bytes of the file handed out last, released at the next file */
+    private long myHandedOutBytes;
+
+    /**
+     * @param theReadAhead         The max number of files to read ahead.
+     * @param theMaxPrefetchBytes  The max bytes in memory of all files read ahead, 0 to stream all files.
+     */
+    SourcePrefetcher(S3Client theS3Client, DataFiles theFiles, int theReadAhead, long theMaxPrefetchBytes) {
+        myS3Client = theS3Client;
+        myFiles = theFiles;
+        myReadAhead = theReadAhead;
+        myMaxPrefetchBytes = theMaxPrefetchBytes;
+
+        myExecutor = Executors.newFixedThreadPool(Math.max(1, theReadAhead));
+
+        for (int i = 0; i < myFiles.size(); i++) {
+            myPrefetched.add(null);
+        }
+
+        fill();
+    }
+
+    public InputStream next() throws Exception {
+        if (myNext >= myFiles.size()) {
+            throw new NoSuchElementException();
+        }
+
+        int anIndex = myNext++;
+
+        DataFile aFile = myFiles.get(anIndex);
+        Future<byte[]> aPrefetched = myPrefetched.set(anIndex, null);
+
+        // The previous file is done with, this one is in memory until the next
+        myPrefetchedBytes -= myHandedOutBytes;
+        myHandedOutBytes = aPrefetched != null ? aFile.size : 0;
+
+        // Keep the read ahead window full
+        fill();
+
+        if (aPrefetched != null) {
+            try {
+                return new ByteArrayInputStream(aPrefetched.get());
+
+            } catch (ExecutionException e) {
+                ourLogger.warn("Failed to prefetch %s, stream it instead", aFile, e.getCause());
+            }
+        }
+
+        return new BufferedInputStream(myS3Client.getObjectStream(aFile.url.bucket, aFile.url.key), 256 * 1024);
+    }
+
+    public void close() {
+        myExecutor.shutdownNow();
+    }
+
+    /**
+     * Reads ahead the files after the one handed out last, in order, until the read ahead files or bytes are used up.
+     */
+    private void fill() {
+        myPrefetchNext = Math.max(myPrefetchNext, myNext);
+
+        while (myPrefetchNext < myFiles.size() && myPrefetchNext < myNext + myReadAhead) {
+            DataFile aFile = myFiles.get(myPrefetchNext);
+
+            if (myMaxPrefetchBytes > 0 && aFile.size >= 0 && aFile.size <= myMaxPrefetchBytes) {
+                if (myPrefetchedBytes + aFile.size > myMaxPrefetchBytes) {
+                    // Wait for files to be released
+                    return;
+                }
+
+                prefetch(myPrefetchNext);
+            }
+
+            myPrefetchNext++;
+        }
+    }
+
+    private void prefetch(int theIndex) {
+        final DataFile aFile = myFiles.get(theIndex);
+
+        myPrefetchedBytes += aFile.size;
+
+        myPrefetched.set(theIndex, myExecutor.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                ourLogger.debug("Prefetch %s", aFile);
+                return myS3Client.getRawObject(aFile.url.bucket, aFile.url.key);
+            }
+        }));
+    }
+}
@@ -19,6 +19,11 @@ import org.apache.commons.configuration.PropertiesConfiguration;
  dst.s3.rootPath     =
  dst.s3.storageClass = STANDARD_IA
 
+ copy.mode             = auto (optional, auto/serverside/stream - default auto, server side copy if the dst credentials can read the src files)
+ copy.partSizeMb       = 64 (optional, default 64, files bigger than this are copied as multipart uploads of parts this size)
+ copy.partParallelism  = 8 (optional, default 8, parts copied in parallel per file)
+ copy.relayMemoryMb    = 512 (optional, default 512, max memory for part buffers in total when files are streamed)
+
  */
 public class Config {
 
@@ -35,6 +40,11 @@ public class Config {
     private static final String PROP_DST_S3_ROOT = "dst.s3.rootPath";
     private static final String PROP_DST_S3_STORAGECLASS = "dst.s3.storageClass";
 
+    private static final String PROP_COPY_MODE = "copy.mode";
+    private static final String PROP_COPY_PART_SIZE_MB = "copy.partSizeMb";
+    private static final String PROP_COPY_PART_PARALLELISM = "copy.partParallelism";
+    private static final String PROP_COPY_RELAY_MEMORY_MB = "copy.relayMemoryMb";
+
     public String log4jConf;
 
     public String[] types;
@@ -48,6 +58,11 @@ public class Config {
     public S3Url dstRoot;
     public StorageClass dstClass;
 
+    public CopyMode copyMode;
+    public int copyPartSizeMb;
+    public int copyPartParallelism;
+    public int copyRelayMemoryMb;
+
     public static Config load(String theFile) {
         try {
 
@@ -73,6 +88,11 @@ public class Config {
         dstRoot = new S3Url(aConf.getString(PROP_DST_S3_ROOT));
         dstClass = StorageClass.fromValue(aConf.getString(PROP_DST_S3_STORAGECLASS, "STANDARD_IA"));
 
+        copyMode = CopyMode.fromValue(aConf.getString(PROP_COPY_MODE, "auto"));
+        copyPartSizeMb = aConf.getInt(PROP_COPY_PART_SIZE_MB, 64);
+        copyPartParallelism = aConf.getInt(PROP_COPY_PART_PARALLELISM, 8);
+        copyRelayMemoryMb = aConf.getInt(PROP_COPY_RELAY_MEMORY_MB, 512);
+
         types = aConf.getStringArray(PROP_TYPES);
     }
 
@@ -92,6 +112,10 @@ public class Config {
                 ", dstAccessKey='" + dstAccessKey + '\'' +
                 ", dstSecret='" + dstSecret + '\'' +
                 ", dstRoot=" + dstRoot +
+                ", copyMode=" + copyMode +
+                ", copyPartSizeMb=" + copyPartSizeMb +
+                ", copyPartParallelism=" + copyPartParallelism +
+                ", copyRelayMemoryMb=" + copyRelayMemoryMb +
                 '}';
     }
 }
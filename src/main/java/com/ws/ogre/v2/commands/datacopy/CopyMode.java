@@ -0,0 +1,36 @@
+package com.ws.ogre.v2.commands.datacopy;
+
+/**
+ * How files are copied from source to destination.
+ */
+public enum CopyMode {
+
+    /** Server side copy if the destination credentials can read the source, otherwise streamed */
+    AUTO("auto"),
+
+    /** Server side copy, S3 copies the bytes and nothing passes through this machine */
+    SERVER_SIDE("serverside"),
+
+    /** Streamed from source to destination through this machine, e.g. when each side has its own credentials */
+    STREAM("stream");
+
+    public static CopyMode fromValue(String theModeId) throws IllegalArgumentException {
+        for (CopyMode aMode : CopyMode.values()) {
+            if (aMode.myModeId.equalsIgnoreCase(theModeId)) {
+                return aMode;
+            }
+        }
+
+        throw new IllegalArgumentException("Cannot create enum from " + theModeId + " value!");
+    }
+
+    private final String myModeId;
+
+    CopyMode(String theModeId) {
+        myModeId = theModeId;
+    }
+
+    public String getModeId() {
+        return myModeId;
+    }
+}
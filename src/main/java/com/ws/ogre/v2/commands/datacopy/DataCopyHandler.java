@@ -1,9 +1,12 @@
 package com.ws.ogre.v2.commands.datacopy;
 
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.StorageClass;
 import com.ws.common.logging.Alert;
 import com.ws.common.logging.Logger;
 import com.ws.ogre.v2.aws.S3Client;
+import com.ws.ogre.v2.aws.S3MultipartOutputStream;
+import com.ws.ogre.v2.aws.S3Relay;
 import com.ws.ogre.v2.aws.S3Url;
 import com.ws.ogre.v2.datafile.DataFileHandler;
 import com.ws.ogre.v2.datafile.DataFileHandler.DataFile;
@@ -15,9 +18,7 @@ import com.ws.ogre.v2.datetime.DateHour.Ranges;
 import com.ws.ogre.v2.utils.JobExecutorService;
 import com.ws.ogre.v2.utils.SleepUtil;
 import com.ws.ogre.v2.utils.StopWatch;
-import org.apache.commons.io.FileUtils;
 
-import java.io.File;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
@@ -29,12 +30,21 @@ import java.util.Set;
  * - From Ireland redshift, we can only UNLOAD to Ireland s3 bucket (aws limitation).
  * - For saving data into Asia s3 bucket, we need to copy data from the s3.
  * <p/>
- * But be aware, this operation uses processing machine's disk. So, take care for big data size.
+ * Files are copied server side when the destination credentials can read the source files, small files with a
+ * single copy request and large ones as multipart uploads copying the parts in parallel. Otherwise the files are
+ * relayed through this machine by S3Relay, ranges of the source are uploaded as parts to the destination straight
+ * from memory, no temp files on local disk.
  */
 public class DataCopyHandler {
 
     private static final Logger ourLogger = Logger.getLogger();
 
+    /** S3 limits both a single copy request and a part to 5 GB */
+    private static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+
+    /** Relayed parts are buffered in memory */
+    private static final long MAX_RELAY_PART_SIZE = 1024 * 1024 * 1024;
+
     private Config myConfig;
 
     private DataFileHandler mySrcDataFileHandler;
@@ -45,6 +55,15 @@ public class DataCopyHandler {
     private S3Url myDstRoot;
     private StorageClass myDstStorageClass;
 
+    private CopyMode myCopyMode;
+    private long myPartSize;
+    private int myPartParallelism;
+
+    private S3Relay myRelay;
+
+    // Resolved on first copy if auto mode
+    private Boolean isServerSideCopy;
+
     private Set<String> myTypes;
 
     // Import states (to resume upon failures)
@@ -62,6 +81,13 @@ public class DataCopyHandler {
         myDstDataFileHandler = new DataFileHandler(myDstS3Client, theConfig.dstRoot);
         myDstStorageClass = theConfig.dstClass;
 
+        myCopyMode = theConfig.copyMode;
+        myPartSize = Math.min(MAX_PART_SIZE, Math.max(S3MultipartOutputStream.MIN_PART_SIZE, theConfig.copyPartSizeMb * 1024L * 1024L));
+        myPartParallelism = Math.max(1, theConfig.copyPartParallelism);
+
+        int aRelayPartSize = (int) Math.min(MAX_RELAY_PART_SIZE, myPartSize);
+        myRelay = new S3Relay(mySrcS3Client.getAmazonS3Client(), myDstS3Client.getAmazonS3Client(), aRelayPartSize, myPartParallelism, (int) Math.max(1, theConfig.copyRelayMemoryMb * 1024L * 1024L / aRelayPartSize));
+
         myTypes = getTypesToWorkWith(theCliTypes, theConfig.types);
     }
 
@@ -209,7 +235,11 @@ public class DataCopyHandler {
         // Single threaded requested?
         if (theThreads == 1) {
             for (DataFile aFile : theFiles) {
-                copy(aFile);
+                try {
+                    copy(aFile);
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to copy " + aFile.url, e);
+                }
             }
             return;
         }
@@ -227,18 +257,63 @@ public class DataCopyHandler {
         });
     }
 
-    private void copy(DataFile theFile) {
-        File aSrcFile = mySrcDataFileHandler.downloadDataFile(theFile);
-        aSrcFile.deleteOnExit(); // Safe guard to delete even though we will manually delete it later.
-
+    private void copy(DataFile theFile) throws Exception {
         S3Url aDest = DataFile.createUrl(myDstRoot, theFile.date, theFile.hour, theFile.type, theFile.name, theFile.ext);
-        myDstDataFileHandler.uploadDataFile(aSrcFile, new DataFile(aDest), myDstStorageClass);
 
-        ourLogger.info("Deleting temporary file: %s", aSrcFile.getAbsolutePath());
+        if (isServerSideCopy(theFile)) {
+            copyServerSide(theFile, aDest);
+        } else {
+            copyRelayed(theFile, aDest);
+        }
+    }
+
+    private synchronized boolean isServerSideCopy(DataFile theFile) {
+        if (isServerSideCopy == null) {
+            switch (myCopyMode) {
+                case SERVER_SIDE:
+                    isServerSideCopy = true;
+                    break;
+
+                case STREAM:
+                    isServerSideCopy = false;
+                    break;
+
+                default:
+                    // Probe once with a file to copy, the access is the same for all files under the source root
+                    isServerSideCopy = myDstS3Client.canRead(theFile.url);
+            }
+
+            ourLogger.info("Copy files %s", isServerSideCopy ? "server side" : "streamed through this machine");
+        }
+
+        return isServerSideCopy;
+    }
+
+    private void copyServerSide(DataFile theFile, S3Url theDest) {
+        long aSize = theFile.size;
+        String anETag = theFile.eTag;
+
+        if (aSize < 0 || anETag == null) {
+            ObjectMetadata aMeta = myDstS3Client.getObjectMetadata(theFile.url);
 
-        if (!FileUtils.deleteQuietly(aSrcFile)) {
-            Alert.getAlert().alert("Unable to delete temporary file: %s", aSrcFile.getAbsolutePath());
+            aSize = aMeta.getContentLength();
+            anETag = aMeta.getETag();
         }
+
+        ourLogger.info("Copy %s to %s server side (%s bytes)", theFile.url, theDest, aSize);
+
+        if (aSize <= myPartSize) {
+            myDstS3Client.copy(theFile.url, theDest, myDstStorageClass);
+        } else {
+            myDstS3Client.copyMultipart(theFile.url, theDest, myDstStorageClass, aSize, anETag, myPartSize, myPartParallelism);
+        }
+    }
+
+    private void copyRelayed(DataFile theFile, S3Url theDest) throws Exception {
+
+        ourLogger.info("Relay %s to %s", theFile.url, theDest);
+
+        myRelay.copy(theFile.url, theDest, myDstStorageClass);
     }
 
     private void deleteFilesInDestination(Set<String> theTypes, DateHour theFrom, DateHour theTo) {
@@ -0,0 +1,125 @@
+package com.ws.ogre.v2.commands.dataverifier;
+
+import com.ws.ogre.v2.db.JdbcDbHandler;
+import org.apache.commons.lang3.StringUtils;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the aggregate queries compared before the rows, and compares their results.
+ *
+ * The query of a verification is wrapped as a sub query and aggregated in the DB, so only one row is sent per side:
+ * the row count, the sum of each integer and decimal column that must match exactly, and any extra aggregates
+ * configured for the side, e.g. a dialect specific hash of the rows. Floating point columns and columns with a
+ * tolerance are not summed, their differences are left to the row comparison.
+ */
+class Aggregates {
+
+    private final List<Integer> mySummedColumns = new ArrayList<>();
+    private final String myRefExtra;
+    private final String myTestExtra;
+
+    Aggregates(ResultColumns theRefColumns, ResultColumns theTestColumns, List<MismatchTolerance> theTolerances, String theRefExtra, String theTestExtra) {
+        myRefExtra = theRefExtra;
+        myTestExtra = theTestExtra;
+
+        for (int i = 0; i < theRefColumns.size(); i++) {
+            MismatchTolerance aTolerance = i < theTolerances.size() ? theTolerances.get(i) : MismatchTolerance.ZERO_TOLERANCE;
+
+            if (aTolerance.isExact() && isExactNumber(theRefColumns.types[i]) && isExactNumber(theTestColumns.types[i])) {
+                mySummedColumns.add(i);
+            }
+        }
+    }
+
+    /**
+     * @return a query returning no rows but the columns of the query.
+     */
+    static String getProbeSql(String theQuerySql) {
+        return "select * from (" + theQuerySql + ") ogre_probe where 1 = 0";
+    }
+
+    String getRefSql(String theQuerySql, ResultColumns theColumns, JdbcDbHandler.DbType theDbType) {
+        return getSql(theQuerySql, theColumns, theDbType, myRefExtra);
+    }
+
+    String getTestSql(String theQuerySql, ResultColumns theColumns, JdbcDbHandler.DbType theDbType) {
+        return getSql(theQuerySql, theColumns, theDbType, myTestExtra);
+    }
+
+    /**
+     * @return descriptions of the aggregates that differ, empty if all are equal.
+     */
+    List<String> getMismatches(ResultColumns theRefColumns, String[] theRef, String[] theTest) {
+        if (theRef.length != theTest.length) {
+            throw new IllegalArgumentException("The ref and test aggregates have " + theRef.length + " and " + theTest.length +
+                    " columns, check the extra aggregates in compare.ref.aggregate and compare.test.aggregate");
+        }
+
+        List<String> someMismatches = new ArrayList<>();
+
+        for (int i = 0; i < theRef.length; i++) {
+            if (!isEqual(theRef[i], theTest[i])) {
+                someMismatches.add(getName(theRefColumns, i) + ": " + theRef[i] + " != " + theTest[i]);
+            }
+        }
+
+        return someMismatches;
+    }
+
+    private String getSql(String theQuerySql, ResultColumns theColumns, JdbcDbHandler.DbType theDbType, String theExtra) {
+        StringBuilder aSql = new StringBuilder("select count(*)");
+
+        for (int aColumn : mySummedColumns) {
+            aSql.append(", sum(").append(quote(theColumns.labels[aColumn], theDbType)).append(")");
+        }
+
+        if (StringUtils.isNotBlank(theExtra)) {
+            aSql.append(", ").append(theExtra);
+        }
+
+        return aSql.append(" from (").append(theQuerySql).append(") ogre_agg").toString();
+    }
+
+    private String getName(ResultColumns theRefColumns, int theIndex) {
+        if (theIndex == 0) {
+            return "count";
+        }
+
+        if (theIndex <= mySummedColumns.size()) {
+            return "sum(" + theRefColumns.labels[mySummedColumns.get(theIndex - 1)] + ")";
+        }
+
+        return "extra#" + (theIndex - mySummedColumns.size());
+    }
+
+    static boolean isEqual(String theRef, String theTest) {
+        if (theRef == null || theTest == null) {
+            return theRef == theTest;
+        }
+
+        try {
+            // Same number may be formatted differently by the DBs, e.g. 10 and 10.00
+            return new BigDecimal(theRef.trim()).compareTo(new BigDecimal(theTest.trim())) == 0;
+
+        } catch (NumberFormatException e) {
+            return theRef.equals(theTest);
+        }
+    }
+
+    private static boolean isExactNumber(int theColumnType) {
+        return theColumnType == Types.BIGINT || theColumnType == Types.INTEGER || theColumnType == Types.SMALLINT || theColumnType == Types.TINYINT ||
+                theColumnType == Types.NUMERIC || theColumnType == Types.DECIMAL;
+    }
+
+    private static String quote(String theColumn, JdbcDbHandler.DbType theDbType) {
+        if (theDbType == JdbcDbHandler.DbType.MYSQL) {
+            return "`" + theColumn.replace("`", "``") + "`";
+        }
+
+        return "\"" + theColumn.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -7,9 +7,47 @@ import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+/*
+ log4j.configuration = log4j.xml
+
+ ref.db.type         = redshift (optional, default redshift)
+ ref.db.host         = ...
+ ref.db.port         = 5439 (optional, default 5439)
+ ref.db.database     = ...
+ ref.db.user         = ...
+ ref.db.password     = ...
+ ref.db.maxParallelQueries = 2 (optional, default verify.maxParallel)
+
+ test.db.type        = mysql (optional, default mysql)
+ test.db.host        = ...
+ test.db.port        = 3306 (optional, default 3306)
+ test.db.database    = ...
+ test.db.user        = ...
+ test.db.password    = ...
+ test.db.maxParallelQueries = 2 (optional, default verify.maxParallel)
+
+ verify.maxParallel  = 4 (optional, default 1, number of type/chunk verifications to run at the same time)
+
+ compare.ref.sql.<name>   = select ...
+ compare.test.sql.<name>  = select ...
+ compare.tolerance.<name> = 0, 0, 5%, 1%in99%  (one per column)
+ compare.keys.<name>      = id, date (optional, columns to join ref and test rows on, default is to compare the rows in order)
+ compare.ref.aggregate.<name>  = sum(strtol(substring(md5(id || '|' || name), 1, 8), 16)) (optional, extra aggregates over the ref query)
+ compare.test.aggregate.<name> = sum(conv(substring(md5(concat_ws('|', id, name)), 1, 8), 16, 10)) (optional, same for the test query, as many aggregates as for the ref)
+
+ compare.aggregateFirst   = true (optional, default false, compare count and sums per chunk first and only compare the rows
+                            of the hours that differ, requires the queries to filter on ${from} and ${before})
+
+ compare.hashJoinMaxRows  = 1000000 (optional, default 1000000, results with more rows are sorted and merged on disk)
+ compare.spillDir         = /tmp (optional, default java.io.tmpdir)
+ compare.bufferRows       = 10000 (optional, default 10000, rows to read ahead from each DB while comparing)
+
+ */
 public class Config {
 
     public String log4jConf;
@@ -21,6 +59,7 @@ public class Config {
     public String refDbUser;
     public String refDbPassword;
     public String refDbStagingDir;
+    public int refDbMaxParallelQueries;
 
     public JdbcDbHandler.DbType testDbType;
     public String testDbHost;
@@ -29,9 +68,17 @@ public class Config {
     public String testDbUser;
     public String testDbPassword;
     public String testDbStagingDir;
+    public int testDbMaxParallelQueries;
+
+    public int verifyMaxParallel;
 
     public List<SingleVerificationDetail> verificationDetails = new ArrayList<>();
 
+    public int compareHashJoinMaxRows;
+    public String compareSpillDir;
+    public int compareBufferRows;
+    public boolean compareAggregateFirst;
+
     public static Config load(String theFile) {
         try {
 
@@ -48,6 +95,8 @@ public class Config {
 
         log4jConf = aConf.getString("log4j.configuration");
 
+        verifyMaxParallel = aConf.getInt("verify.maxParallel", 1);
+
         refDbType = JdbcDbHandler.DbType.valueOf(aConf.getString("ref.db.type", "redshift").toUpperCase());
         refDbHost = aConf.getString("ref.db.host");
         refDbPort = aConf.getInt("ref.db.port", 5439);
@@ -55,6 +104,7 @@ public class Config {
         refDbUser = aConf.getString("ref.db.user");
         refDbPassword = aConf.getString("ref.db.password");
         refDbStagingDir = aConf.getString("ref.db.stagingDir");
+        refDbMaxParallelQueries = aConf.getInt("ref.db.maxParallelQueries", verifyMaxParallel);
 
         testDbType = JdbcDbHandler.DbType.valueOf(aConf.getString("test.db.type", "mysql").toUpperCase());
         testDbHost = aConf.getString("test.db.host");
@@ -63,6 +113,12 @@ public class Config {
         testDbUser = aConf.getString("test.db.user");
         testDbPassword = aConf.getString("test.db.password");
         testDbStagingDir = aConf.getString("test.db.stagingDir");
+        testDbMaxParallelQueries = aConf.getInt("test.db.maxParallelQueries", verifyMaxParallel);
+
+        compareHashJoinMaxRows = aConf.getInt("compare.hashJoinMaxRows", 1000000);
+        compareSpillDir = aConf.getString("compare.spillDir", System.getProperty("java.io.tmpdir"));
+        compareBufferRows = aConf.getInt("compare.bufferRows", 10000);
+        compareAggregateFirst = aConf.getBoolean("compare.aggregateFirst", false);
 
         initVerificationDetails(aConf);
     }
@@ -80,7 +136,10 @@ public class Config {
                     aSingleVerificationName,
                     aConf.getString("compare.ref.sql" + "." + aSingleVerificationName),
                     aConf.getString("compare.test.sql" + "." + aSingleVerificationName),
-                    getErrorTolerances(aConf.getString("compare.tolerance" + "." + aSingleVerificationName))
+                    getErrorTolerances(aConf.getString("compare.tolerance" + "." + aSingleVerificationName)),
+                    getKeyColumns(aConf.getString("compare.keys" + "." + aSingleVerificationName)),
+                    aConf.getString("compare.ref.aggregate" + "." + aSingleVerificationName),
+                    aConf.getString("compare.test.aggregate" + "." + aSingleVerificationName)
             ));
         }
 
@@ -98,6 +157,14 @@ public class Config {
         return someTolerances;
     }
 
+    private List<String> getKeyColumns(String theKeysSpec) {
+        if (theKeysSpec == null || theKeysSpec.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return Arrays.asList(theKeysSpec.trim().split("\\s*,\\s*"));
+    }
+
     public JdbcDbHandlerBuilder.JdbcDbHandlerConfig getRefDbConfig() {
         return new JdbcDbHandlerBuilder.JdbcDbHandlerConfig() {
             @Override
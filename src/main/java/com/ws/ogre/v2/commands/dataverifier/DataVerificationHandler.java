@@ -6,13 +6,17 @@ import com.ws.ogre.v2.datetime.DateHour;
 import com.ws.ogre.v2.db.JdbcDbHandler;
 import com.ws.ogre.v2.db.JdbcDbHandlerBuilder;
 import com.ws.ogre.v2.db.SqlScript;
+import com.ws.ogre.v2.utils.JobExecutorService;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 
 public class DataVerificationHandler {
@@ -26,51 +30,69 @@ public class DataVerificationHandler {
     private final List<SingleVerificationDetail> myVerificationDetails;
     private final boolean iWillSuppressAlert;
 
-    private final Map<MismatchType, MismatchStat> myLoggedMismatchCount = new HashMap<>();
-    private final Map<Integer, Integer> myMismatchedRowCount = new HashMap<>();
-    private final Map<String, String> myVars = new HashMap<>();
-
     private final JdbcDbHandler myRefDbHandler;
     private final JdbcDbHandler myTestDbHandler;
 
+    private final int myHashJoinMaxRows;
+    private final File mySpillDir;
+
+    private final int myMaxParallel;
+    private final Semaphore myRefDbPermits;
+    private final Semaphore myTestDbPermits;
+    private final int myBufferRows;
+
+    private final boolean iWillAggregateFirst;
+    private final JdbcDbHandler.DbType myRefDbType;
+    private final JdbcDbHandler.DbType myTestDbType;
+
+    private final ExecutorService myFetchExecutor = Executors.newCachedThreadPool(theRunnable -> {
+        Thread aThread = new Thread(theRunnable, "ResultFetcher");
+        aThread.setDaemon(true);
+        return aThread;
+    });
+
     public DataVerificationHandler(Config theConfig, boolean theIsToSuppressAlert) {
         iWillSuppressAlert = theIsToSuppressAlert;
         myVerificationDetails = theConfig.verificationDetails;
         myRefDbHandler = JdbcDbHandlerBuilder.getInstance().buildJdbcDbHandler(theConfig.getRefDbConfig());
         myTestDbHandler = JdbcDbHandlerBuilder.getInstance().buildJdbcDbHandler(theConfig.getTestDbConfig());
+        myHashJoinMaxRows = theConfig.compareHashJoinMaxRows;
+        mySpillDir = new File(theConfig.compareSpillDir);
+        myMaxParallel = Math.max(1, theConfig.verifyMaxParallel);
+        myRefDbPermits = new Semaphore(Math.max(1, theConfig.refDbMaxParallelQueries), true);
+        myTestDbPermits = new Semaphore(Math.max(1, theConfig.testDbMaxParallelQueries), true);
+        myBufferRows = theConfig.compareBufferRows;
+        iWillAggregateFirst = theConfig.compareAggregateFirst;
+        myRefDbType = theConfig.refDbType;
+        myTestDbType = theConfig.testDbType;
     }
 
     public void verify(DateHour.Range theTimeRange, DateHour.Range.Chunking theChunking, Set<String> theTypes) {
         ourLogger.info("Run verification for '%s' with chunking '%s'", theTimeRange, theChunking);
 
-        // Calc chunks
-        DateHour.Ranges aChunks = theTimeRange.getChunkedRanges(theChunking);
-
-        // Load data chunk by chunks
-        for (DateHour.Range aChunk : aChunks) {
-            verifyChunk(aChunk, theTypes);
-        }
-
-        ourLogger.info("DONE verification for '%s' with chunking '%s'", theTimeRange, theChunking);
-    }
-
-    private void verifyChunk(DateHour.Range aChunk, Set<String> theTypes) {
         List<SingleVerificationDetail> someTypesToVerify = getTypesToVerify(theTypes);
         if (CollectionUtils.isEmpty(someTypesToVerify)) {
             ourLogger.warn("Nothing to verify.");
             return;
         }
 
-        for (SingleVerificationDetail aDetail : someTypesToVerify) {
-            try {
-                ourLogger.info("Run verification for the chunk %s for '%s'", aChunk, aDetail.getName());
-                initForQueryAndMatch(aChunk);
-                doQueryAndMatchResult(aDetail, aChunk);
+        // Calc chunks
+        DateHour.Ranges aChunks = theTimeRange.getChunkedRanges(theChunking);
 
-            } catch (Exception e) {
-                logAlert("Unable to verify for '%s' for chunk '%s'", aDetail.getName(), aChunk, e);
+        List<Verification> aVerifications = new ArrayList<>();
+
+        for (DateHour.Range aChunk : aChunks) {
+            for (SingleVerificationDetail aDetail : someTypesToVerify) {
+                aVerifications.add(new Verification(aDetail, aChunk, iWillAggregateFirst));
             }
         }
+
+        // Verify chunks and types in parallel, the number of queries on each DB is capped by its permits
+        new JobExecutorService<Verification>(Math.min(myMaxParallel, Math.max(1, aVerifications.size())))
+                .addTasks(aVerifications)
+                .execute(Verification::run);
+
+        ourLogger.info("DONE verification for '%s' with chunking '%s'", theTimeRange, theChunking);
     }
 
     private List<SingleVerificationDetail> getTypesToVerify(Set<String> theTypes) {
@@ -99,203 +121,396 @@ public class DataVerificationHandler {
         return null;
     }
 
-    private void initForQueryAndMatch(DateHour.Range theChunk) {
-        myVars.clear();
-
-        myVars.putAll(System.getenv());
-
-        // Make time range available to the query. Send year, month day separately in case we want to read from partition.
-
-        DateHour aFromHour = theChunk.getFrom();
-        myVars.put("from", aFromHour.format("yyyy-MM-dd HH:mm:ss"));
-        myVars.put("fromDate", aFromHour.format("yyyy-MM-dd"));
-        myVars.put("fromYear", aFromHour.format("yyyy"));
-        myVars.put("fromMonth", aFromHour.format("MM"));
-        myVars.put("fromDay", aFromHour.format("dd"));
-        myVars.put("fromHour", aFromHour.format("HH"));
-
-        DateHour aToHour = theChunk.getTo().getNextDateHour();
-        myVars.put("before", aToHour.format("yyyy-MM-dd HH:mm:ss")); // Exclusive.
-        myVars.put("to", aToHour.format("yyyy-MM-dd HH:mm:ss")); // Exclusive. Legacy. Do not use it. Use 'before'. 'to' doesn't sound exclusive.
-        myVars.put("beforeDate", aToHour.format("yyyy-MM-dd")); // Exclusive.
-        myVars.put("beforeYear", aToHour.format("yyyy"));
-        myVars.put("beforeMonth", aToHour.format("MM"));
-        myVars.put("beforeDay", aToHour.format("dd"));
-        myVars.put("beforeHour", aToHour.format("HH"));
-
-        myVars.put("now", new DateHour(new Date()).format("yyyy-MM-dd HH:mm:ss"));
-        myVars.put("nowDate", new DateHour(new Date()).format("yyyy-MM-dd"));
-        myVars.put("nowYear", new DateHour(new Date()).format("yyyy"));
-        myVars.put("nowMonth", new DateHour(new Date()).format("MM"));
-        myVars.put("nowDay", new DateHour(new Date()).format("dd"));
-        myVars.put("nowHour", new DateHour(new Date()).format("HH"));
-
-        myLoggedMismatchCount.clear();
-        myMismatchedRowCount.clear();
-    }
+    /**
+     * Runs a query pair within the per DB limits.
+     */
+    private <T> T withPermits(Callable<T> theQueries) throws Exception {
+        // Take the permits in the same order everywhere not to dead lock with other verifications
+        myRefDbPermits.acquire();
 
-    private void doQueryAndMatchResult(final SingleVerificationDetail theDetail, final DateHour.Range theChunk) throws Exception {
-        SqlScript aRefScript = new SqlScript(theDetail.getRefSql(), myVars);
-        final SqlScript aTestScript = new SqlScript(theDetail.getTestSql(), myVars);
-
-        // => Ref storage's query.
-        ourLogger.info("Execute (ref): %s", aRefScript.getQuerySql());
-        myRefDbHandler.query(aRefScript.getQuerySql(), (ResultSet theRefResultSet) -> {
-            // => Test storage's query.
-            ourLogger.info("Execute (test): %s", aTestScript.getQuerySql());
-            myTestDbHandler.query(aTestScript.getQuerySql(), (ResultSet theTestResultSet) -> {
-                matchResultSet(theDetail, theChunk, theRefResultSet, theTestResultSet);
-                theTestResultSet.close();
-            });
+        try {
+            myTestDbPermits.acquire();
+
+            try {
+                return theQueries.call();
+
+            } finally {
+                myTestDbPermits.release();
+            }
 
-            theRefResultSet.close();
-        });
+        } finally {
+            myRefDbPermits.release();
+        }
     }
 
-    private void matchResultSet(SingleVerificationDetail theDetail, DateHour.Range theChunk, ResultSet theRefResultSet, ResultSet theTestResultSet) throws SQLException {
-        ResultSetMetaData aRefMetaData = theRefResultSet.getMetaData();
-        ResultSetMetaData aTestMetaData = theTestResultSet.getMetaData();
+    private void logAlert(String theMessage, Object... theParams) {
+        if (iWillSuppressAlert) {
+            ourLogger.warn(theMessage, theParams);
+        } else {
+            Alert.getAlert().alert(theMessage, theParams);
+        }
+    }
 
-        if (aRefMetaData.getColumnCount() != aTestMetaData.getColumnCount()) {
-            logMismatch(theDetail, MismatchType.MISMATCH_FOR_COLUMN_VALUE_DIFF, "Ref table column count (" + aRefMetaData.getColumnCount() + ") != test table column count (" + aTestMetaData.getColumnCount() + ").");
-            return;
+    /**
+     * Verification of one type for one chunk.
+     *
+     * When to aggregate first, the count and sums of the chunk are compared before the rows. If they differ the
+     * aggregates of each day and then of each hour of the days that differ are compared, and only the rows of the hours
+     * that differ are compared, each hour as a verification of its own.
+     */
+    private class Verification {
+
+        private final SingleVerificationDetail myDetail;
+        private final DateHour.Range myChunk;
+        private final boolean iWillAggregateFirst;
+
+        private final Map<MismatchType, MismatchStat> myLoggedMismatchCount = new HashMap<>();
+        private final Map<Integer, Integer> myMismatchedRowCount = new HashMap<>();
+
+        Verification(SingleVerificationDetail theDetail, DateHour.Range theChunk, boolean theIsToAggregateFirst) {
+            myDetail = theDetail;
+            myChunk = theChunk;
+            iWillAggregateFirst = theIsToAggregateFirst;
         }
 
-        int aRefRowsCount = 0;
-        int aTestRowsCount = 0;
+        void run() {
+            try {
+                ourLogger.info("Run verification for the chunk %s for '%s'", myChunk, myDetail.getName());
+
+                if (iWillAggregateFirst && isVerifiedByAggregates()) {
+                    return;
+                }
+
+                doQueryAndMatchResult();
+
+            } catch (Exception e) {
+                logAlert("Unable to verify for '%s' for chunk '%s'", myDetail.getName(), myChunk, e);
+            }
+        }
+
+        private Map<String, String> getVars(DateHour.Range theRange) {
+            Map<String, String> someVars = new HashMap<>(System.getenv());
+
+            // Make time range available to the query. Send year, month day separately in case we want to read from partition.
+
+            DateHour aFromHour = theRange.getFrom();
+            someVars.put("from", aFromHour.format("yyyy-MM-dd HH:mm:ss"));
+            someVars.put("fromDate", aFromHour.format("yyyy-MM-dd"));
+            someVars.put("fromYear", aFromHour.format("yyyy"));
+            someVars.put("fromMonth", aFromHour.format("MM"));
+            someVars.put("fromDay", aFromHour.format("dd"));
+            someVars.put("fromHour", aFromHour.format("HH"));
+
+            DateHour aToHour = theRange.getTo().getNextDateHour();
+            someVars.put("before", aToHour.format("yyyy-MM-dd HH:mm:ss")); // Exclusive.
+            someVars.put("to", aToHour.format("yyyy-MM-dd HH:mm:ss")); // Exclusive. Legacy. Do not use it. Use 'before'. 'to' doesn't sound exclusive.
+            someVars.put("beforeDate", aToHour.format("yyyy-MM-dd")); // Exclusive.
+            someVars.put("beforeYear", aToHour.format("yyyy"));
+            someVars.put("beforeMonth", aToHour.format("MM"));
+            someVars.put("beforeDay", aToHour.format("dd"));
+            someVars.put("beforeHour", aToHour.format("HH"));
+
+            someVars.put("now", new DateHour(new Date()).format("yyyy-MM-dd HH:mm:ss"));
+            someVars.put("nowDate", new DateHour(new Date()).format("yyyy-MM-dd"));
+            someVars.put("nowYear", new DateHour(new Date()).format("yyyy"));
+            someVars.put("nowMonth", new DateHour(new Date()).format("MM"));
+            someVars.put("nowDay", new DateHour(new Date()).format("dd"));
+            someVars.put("nowHour", new DateHour(new Date()).format("HH"));
+
+            return someVars;
+        }
+
+        private boolean isVerifiedByAggregates() throws Exception {
+            Map<String, String> someVars = getVars(myChunk);
+
+            ResultColumns[] aColumns = query(
+                    Aggregates.getProbeSql(getRefQuerySql(someVars)),
+                    Aggregates.getProbeSql(getTestQuerySql(someVars)),
+                    (theRef, theTest) -> new ResultColumns[]{theRef.getColumns(), theTest.getColumns()}
+            );
+
+            if (aColumns[0].size() != aColumns[1].size()) {
+                return false; // Reported by the row comparison
+            }
+
+            Aggregates anAggregates = new Aggregates(aColumns[0], aColumns[1], myDetail.getTolerances(), myDetail.getRefAggregates(), myDetail.getTestAggregates());
+
+            String[][] aChunkResult = queryAggregates(anAggregates, aColumns, someVars);
+
+            List<String> someMismatches = anAggregates.getMismatches(aColumns[0], aChunkResult[0], aChunkResult[1]);
+
+            if (someMismatches.isEmpty()) {
+                ourLogger.info("Aggregates match for: %s for chunk '%s', no need to compare the rows :)", myDetail.getName(), myChunk);
+                return true;
+            }
+
+            ourLogger.info("Aggregates differ for: %s for chunk '%s': %s", myDetail.getName(), myChunk, StringUtils.join(someMismatches, ", "));
 
-        while (theRefResultSet.next()) {
-            aRefRowsCount++;
+            // Narrow down to the days and then to the hours that differ, not to query the aggregates of every hour of a long chunk
+            List<DateHour.Range> someDiffering = Collections.singletonList(myChunk);
+            List<String[][]> someResults = Collections.singletonList(aChunkResult);
 
-            if (!theTestResultSet.next()) {
-                logMismatch(theDetail, MismatchType.MISMATCH_FOR_MISSING_IN_TEST, "Missing in TEST table: " + getColumnValuesCSVForLogging(theRefResultSet));
-                continue;
+            for (DateHour.Range.Chunking aChunking : Arrays.asList(DateHour.Range.Chunking.Daily, DateHour.Range.Chunking.Hourly)) {
+                List<DateHour.Range> someNextDiffering = new ArrayList<>();
+                List<String[][]> someNextResults = new ArrayList<>();
+
+                for (int i = 0; i < someDiffering.size(); i++) {
+                    DateHour.Range aRange = someDiffering.get(i);
+                    DateHour.Ranges aParts = aRange.getChunkedRanges(aChunking);
+
+                    if (aParts.size() <= 1) {
+                        someNextDiffering.add(aRange);
+                        someNextResults.add(someResults.get(i));
+                        continue;
+                    }
+
+                    List<String[][]> somePartResults = queryAggregates(anAggregates, aColumns, aParts);
+                    int aDifferingCount = someNextDiffering.size();
+                    long aRefCount = 0;
+                    long aTestCount = 0;
+
+                    for (int j = 0; j < aParts.size(); j++) {
+                        String[][] aPartResult = somePartResults.get(j);
+
+                        aRefCount += Long.parseLong(aPartResult[0][0]);
+                        aTestCount += Long.parseLong(aPartResult[1][0]);
+
+                        if (!anAggregates.getMismatches(aColumns[0], aPartResult[0], aPartResult[1]).isEmpty()) {
+                            someNextDiffering.add(aParts.get(j));
+                            someNextResults.add(aPartResult);
+                        }
+                    }
+
+                    String[][] aRangeResult = someResults.get(i);
+
+                    // If the parts do not add up to the range the queries do not filter on the time range, compare all rows
+                    if (aRefCount != Long.parseLong(aRangeResult[0][0]) || aTestCount != Long.parseLong(aRangeResult[1][0]) || someNextDiffering.size() == aDifferingCount) {
+                        ourLogger.info("Aggregates of the parts of '%s' do not add up for: %s, compare the rows of the whole chunk", aRange, myDetail.getName());
+                        return false;
+                    }
+                }
+
+                someDiffering = someNextDiffering;
+                someResults = someNextResults;
+            }
+
+            if (someDiffering.size() == 1 && someDiffering.get(0) == myChunk) {
+                return false;
             }
 
-            aTestRowsCount++;
+            ourLogger.info("Compare the rows of %s hours of chunk '%s' for: %s", someDiffering.size(), myChunk, myDetail.getName());
+
+            new JobExecutorService<DateHour.Range>(Math.min(myMaxParallel, someDiffering.size()))
+                    .addTasks(someDiffering)
+                    .execute(theHour -> new Verification(myDetail, theHour, false).run());
+
+            return true;
+        }
 
-            List<String> someColumnMismatches = getColumnMismatches(theRefResultSet, theTestResultSet, theDetail.getTolerances());
-            if (someColumnMismatches.size() > 0) {
-                logMismatch(theDetail, MismatchType.MISMATCH_FOR_COLUMN_VALUE_DIFF, StringUtils.join(someColumnMismatches, ", "));
+        /**
+         * Queries the aggregates of the ranges in parallel, the number of queries on each DB is capped by its permits.
+         */
+        private List<String[][]> queryAggregates(Aggregates theAggregates, ResultColumns[] theColumns, List<DateHour.Range> theRanges) throws Exception {
+            String[][][] someResults = new String[theRanges.size()][][];
+            List<Integer> someIndexes = new ArrayList<>();
+
+            for (int i = 0; i < theRanges.size(); i++) {
+                someIndexes.add(i);
             }
+
+            new JobExecutorService<Integer>(Math.min(myMaxParallel, theRanges.size()))
+                    .addTasks(someIndexes)
+                    .execute(theIndex -> someResults[theIndex] = queryAggregates(theAggregates, theColumns, getVars(theRanges.get(theIndex))));
+
+            return Arrays.asList(someResults);
         }
 
-        while (theTestResultSet.next()) {
-            aTestRowsCount++;
-            logMismatch(theDetail, MismatchType.MISMATCH_FOR_MISSING_IN_REF, "Missing in REF table: " + getColumnValuesCSVForLogging(theTestResultSet));
+        private String[][] queryAggregates(Aggregates theAggregates, ResultColumns[] theColumns, Map<String, String> theVars) throws Exception {
+            return query(
+                    theAggregates.getRefSql(getRefQuerySql(theVars), theColumns[0], myRefDbType),
+                    theAggregates.getTestSql(getTestQuerySql(theVars), theColumns[1], myTestDbType),
+                    (theRef, theTest) -> new String[][]{theRef.next(), theTest.next()}
+            );
         }
 
-        // For those tolerance type that checks in whole sample in an aggregated fashion.
-        if (myMismatchedRowCount.size() > 0) {
-            final int aTotalRowsCount = aTestRowsCount; /* Lambda needs final variable. */
+        private void doQueryAndMatchResult() throws Exception {
+            Map<String, String> someVars = getVars(myChunk);
 
-            myMismatchedRowCount.entrySet().stream().forEach(anEntry -> {
-                MismatchTolerance aTolerance = theDetail.getTolerances().get(anEntry.getKey());
-                int aMismatchCount = anEntry.getValue();
+            query(getRefQuerySql(someVars), getTestQuerySql(someVars), (theRef, theTest) -> {
+                matchResult(theRef, theTest);
+                return null;
+            });
+        }
 
-                ourLogger.info("Checking tolerance in whole dataset: %s. Total: %s, mismatched: %s", aTolerance, aTotalRowsCount, aMismatchCount);
-                if (!aTolerance.isEqualDataInWholeSample(aTotalRowsCount, aMismatchCount)) {
-                    logMismatch(theDetail, MismatchType.MISMATCH_FOR_WHOLE_SAMPLE, "Mismatch is " + aMismatchCount + "/" + aTotalRowsCount + " which exceeds tolerance " + aTolerance.getAsString());
+        /**
+         * Runs the reference and the test query at the same time and hands the results to the action.
+         */
+        private <T> T query(String theRefSql, String theTestSql, ResultAction<T> theAction) throws Exception {
+            return withPermits(() -> {
+                ourLogger.info("Execute (ref): %s", theRefSql);
+                ourLogger.info("Execute (test): %s", theTestSql);
+
+                try (
+                        ResultFetcher aRef = new ResultFetcher(myRefDbHandler, theRefSql, myBufferRows, myFetchExecutor);
+                        ResultFetcher aTest = new ResultFetcher(myTestDbHandler, theTestSql, myBufferRows, myFetchExecutor)
+                ) {
+                    return theAction.onResult(aRef, aTest);
                 }
             });
         }
 
-        if (myLoggedMismatchCount.size() <= 0) {
-            ourLogger.info("No mismatch found for: %s :)", theDetail.getName());
-            ourLogger.info(":)"); // A new small line for making log file a but nicer.
-            return;
+        private String getRefQuerySql(Map<String, String> theVars) throws IOException {
+            return new SqlScript(myDetail.getRefSql(), theVars).getQuerySql();
         }
 
-        logAlert("Mismatch found for: %s for chunk '%s'. See details in log file. Summary:<br>\n" +
-                        " Total rows in REF:  %s <br>\n" +
-                        "Total rows in TEST:  %s <br>\n<br>\n" +
-                        " Whole sample mismatch in TEST:  %s\n" +
-                        "               Missing in TEST:  %s\n" +
-                        "                 Extra in TEST:  %s\n" +
-                        "              Mismatch in TEST:  %s\n",
-
-                theDetail.getName(), theChunk, aRefRowsCount, aTestRowsCount,
-                getMismatchStat(MismatchType.MISMATCH_FOR_WHOLE_SAMPLE),
-                getMismatchStat(MismatchType.MISMATCH_FOR_MISSING_IN_TEST),
-                getMismatchStat(MismatchType.MISMATCH_FOR_MISSING_IN_REF),
-                getMismatchStat(MismatchType.MISMATCH_FOR_COLUMN_VALUE_DIFF)
-        );
-    }
+        private String getTestQuerySql(Map<String, String> theVars) throws IOException {
+            return new SqlScript(myDetail.getTestSql(), theVars).getQuerySql();
+        }
+
+        private void matchResult(ResultFetcher theRef, ResultFetcher theTest) throws Exception {
+            final ResultColumns aRefColumns = theRef.getColumns();
+            final ResultColumns aTestColumns = theTest.getColumns();
 
-    private List<String> getColumnMismatches(ResultSet theRefResultSet, ResultSet theTestResultSet, List<MismatchTolerance> theTolerances) throws SQLException {
-        List<String> someColumnMismatches = new ArrayList<>();
+            if (aRefColumns.size() != aTestColumns.size()) {
+                logMismatch(MismatchType.MISMATCH_FOR_COLUMN_VALUE_DIFF, "Ref table column count (" + aRefColumns.size() + ") != test table column count (" + aTestColumns.size() + ").");
+                return;
+            }
 
-        ResultSetMetaData aRefMetaData = theRefResultSet.getMetaData();
-        ResultSetMetaData aTestMetaData = theTestResultSet.getMetaData();
+            final int[] aRowCounts = new int[2]; /* Ref and test. Lambda needs final variable. */
 
-        for (int i = 1; i <= aRefMetaData.getColumnCount(); i++) {
-            String aRefValue = theRefResultSet.getString(i);
-            String aTestValue = theTestResultSet.getString(i);
-            int toleranceIndex = i - 1;
+            RowMatcher aMatcher = new RowMatcher(aRefColumns.indexesOf(myDetail.getKeyColumns()), myHashJoinMaxRows, mySpillDir, myFetchExecutor);
 
-            MismatchTolerance aTolerance = (i >= 1 && i <= theTolerances.size()) ? theTolerances.get(toleranceIndex) : MismatchTolerance.ZERO_TOLERANCE;
+            aMatcher.match(theRef, theTest, new RowMatcher.Listener() {
+                @Override
+                public void onPair(String[] theRef, String[] theTest) {
+                    aRowCounts[0]++;
+                    aRowCounts[1]++;
 
-            if (!aTolerance.isEqualData(aRefMetaData.getColumnType(i), aRefValue, aTestValue)) {
-                if (aTolerance.isForWholeSample()) {
-                    // For whole sample tolerance, just keep the count.
-                    logMismatchForWholeSample(toleranceIndex);
+                    List<String> someColumnMismatches = getColumnMismatches(aRefColumns, theRef, aTestColumns, theTest, myDetail.getTolerances());
+                    if (someColumnMismatches.size() > 0) {
+                        logMismatch(MismatchType.MISMATCH_FOR_COLUMN_VALUE_DIFF, StringUtils.join(someColumnMismatches, ", "));
+                    }
+                }
 
-                } else {
-                    someColumnMismatches.add(
-                            "" +
-                                    String.format("%30s", (aRefMetaData.getColumnName(i) + "#" + aRefValue)) + "  !=  " +
-                                    String.format("%30s", (aTestMetaData.getColumnName(i) + "#" + aTestValue)) +
-                                    " (+/- " + aTolerance.getAsString() + ")"
-                    );
+                @Override
+                public void onMissingInTest(String[] theRef) {
+                    aRowCounts[0]++;
+                    logMismatch(MismatchType.MISMATCH_FOR_MISSING_IN_TEST, "Missing in TEST table: " + getColumnValuesCSVForLogging(aRefColumns, theRef));
                 }
+
+                @Override
+                public void onMissingInRef(String[] theTest) {
+                    aRowCounts[1]++;
+                    logMismatch(MismatchType.MISMATCH_FOR_MISSING_IN_REF, "Missing in REF table: " + getColumnValuesCSVForLogging(aTestColumns, theTest));
+                }
+            });
+
+            int aRefRowsCount = aRowCounts[0];
+            int aTestRowsCount = aRowCounts[1];
+
+            // For those tolerance type that checks in whole sample in an aggregated fashion.
+            if (myMismatchedRowCount.size() > 0) {
+                final int aTotalRowsCount = aTestRowsCount; /* Lambda needs final variable. */
+
+                myMismatchedRowCount.entrySet().stream().forEach(anEntry -> {
+                    MismatchTolerance aTolerance = myDetail.getTolerances().get(anEntry.getKey());
+                    int aMismatchCount = anEntry.getValue();
+
+                    ourLogger.info("Checking tolerance in whole dataset: %s. Total: %s, mismatched: %s", aTolerance, aTotalRowsCount, aMismatchCount);
+                    if (!aTolerance.isEqualDataInWholeSample(aTotalRowsCount, aMismatchCount)) {
+                        logMismatch(MismatchType.MISMATCH_FOR_WHOLE_SAMPLE, "Mismatch is " + aMismatchCount + "/" + aTotalRowsCount + " which exceeds tolerance " + aTolerance.getAsString());
+                    }
+                });
             }
+
+            if (myLoggedMismatchCount.size() <= 0) {
+                ourLogger.info("No mismatch found for: %s :)", myDetail.getName());
+                ourLogger.info(":)"); // A new small line for making log file a but nicer.
+                return;
+            }
+
+            logAlert("Mismatch found for: %s for chunk '%s'. See details in log file. Summary:<br>\n" +
+                            " Total rows in REF:  %s <br>\n" +
+                            "Total rows in TEST:  %s <br>\n<br>\n" +
+                            " Whole sample mismatch in TEST:  %s\n" +
+                            "               Missing in TEST:  %s\n" +
+                            "                 Extra in TEST:  %s\n" +
+                            "              Mismatch in TEST:  %s\n",
+
+                    myDetail.getName(), myChunk, aRefRowsCount, aTestRowsCount,
+                    getMismatchStat(MismatchType.MISMATCH_FOR_WHOLE_SAMPLE),
+                    getMismatchStat(MismatchType.MISMATCH_FOR_MISSING_IN_TEST),
+                    getMismatchStat(MismatchType.MISMATCH_FOR_MISSING_IN_REF),
+                    getMismatchStat(MismatchType.MISMATCH_FOR_COLUMN_VALUE_DIFF)
+            );
         }
 
-        return someColumnMismatches;
-    }
+        private List<String> getColumnMismatches(ResultColumns theRefColumns, String[] theRefRow, ResultColumns theTestColumns, String[] theTestRow, List<MismatchTolerance> theTolerances) {
+            List<String> someColumnMismatches = new ArrayList<>();
 
-    private String getColumnValuesCSVForLogging(ResultSet theResultSet) throws SQLException {
-        List<String> someValues = new ArrayList<>();
+            for (int i = 0; i < theRefColumns.size(); i++) {
+                String aRefValue = theRefRow[i];
+                String aTestValue = theTestRow[i];
 
-        ResultSetMetaData aMetaData = theResultSet.getMetaData();
-        for (int i = 1; i <= aMetaData.getColumnCount(); i++) {
-            someValues.add(aMetaData.getColumnName(i) + "=" + theResultSet.getString(i));
+                MismatchTolerance aTolerance = i < theTolerances.size() ? theTolerances.get(i) : MismatchTolerance.ZERO_TOLERANCE;
+
+                if (!aTolerance.isEqualData(theRefColumns.types[i], aRefValue, aTestValue)) {
+                    if (aTolerance.isForWholeSample()) {
+                        // For whole sample tolerance, just keep the count.
+                        logMismatchForWholeSample(i);
+
+                    } else {
+                        someColumnMismatches.add(
+                                "" +
+                                        String.format("%30s", (theRefColumns.names[i] + "#" + aRefValue)) + "  !=  " +
+                                        String.format("%30s", (theTestColumns.names[i] + "#" + aTestValue)) +
+                                        " (+/- " + aTolerance.getAsString() + ")"
+                        );
+                    }
+                }
+            }
+
+            return someColumnMismatches;
         }
 
-        return StringUtils.join(someValues, ", ");
-    }
+        private String getColumnValuesCSVForLogging(ResultColumns theColumns, String[] theRow) {
+            List<String> someValues = new ArrayList<>();
 
-    private void logMismatch(SingleVerificationDetail theDetail, MismatchType theMismatchType, String theMismatch) {
-        MismatchStat aStat = getMismatchStat(theMismatchType);
-        myLoggedMismatchCount.put(theMismatchType, aStat);
+            for (int i = 0; i < theColumns.size(); i++) {
+                someValues.add(theColumns.names[i] + "=" + theRow[i]);
+            }
 
-        aStat.increment(); // 1 more mismatch.
-        aStat.addMessage("[ " + theDetail.getName() + " ] " + theMismatch);
-    }
+            return StringUtils.join(someValues, ", ");
+        }
 
-    private MismatchStat getMismatchStat(MismatchType theMismatchType) {
-        MismatchStat aStat = myLoggedMismatchCount.get(theMismatchType);
-        return aStat == null ? new MismatchStat() : aStat;
-    }
+        private void logMismatch(MismatchType theMismatchType, String theMismatch) {
+            MismatchStat aStat = getMismatchStat(theMismatchType);
+            myLoggedMismatchCount.put(theMismatchType, aStat);
 
-    private void logMismatchForWholeSample(int theColumnIndex) {
-        Integer aCount = myMismatchedRowCount.get(theColumnIndex);
-        if (aCount == null) {
-            aCount = 0;
+            aStat.increment(); // 1 more mismatch.
+            aStat.addMessage("[ " + myDetail.getName() + " ] " + theMismatch);
         }
 
-        myMismatchedRowCount.put(theColumnIndex, aCount + 1);
-    }
+        private MismatchStat getMismatchStat(MismatchType theMismatchType) {
+            MismatchStat aStat = myLoggedMismatchCount.get(theMismatchType);
+            return aStat == null ? new MismatchStat() : aStat;
+        }
 
-    private void logAlert(String theMessage, Object... theParams) {
-        if (iWillSuppressAlert) {
-            ourLogger.warn(theMessage, theParams);
-        } else {
-            Alert.getAlert().alert(theMessage, theParams);
+        private void logMismatchForWholeSample(int theColumnIndex) {
+            Integer aCount = myMismatchedRowCount.get(theColumnIndex);
+            if (aCount == null) {
+                aCount = 0;
+            }
+
+            myMismatchedRowCount.put(theColumnIndex, aCount + 1);
         }
     }
 
-    private class MismatchStat {
+    private interface ResultAction<T> {
+        T onResult(ResultFetcher theRef, ResultFetcher theTest) throws Exception;
+    }
+
+    private static class MismatchStat {
         private static final int MAX_MISMATCH_TO_DISPLAY = 20;
 
         private int myCount = 0;
@@ -71,6 +71,13 @@ public class MismatchTolerance {
         return false;
     }
 
+    /**
+     * @return true if the values must be exactly equal.
+     */
+    public boolean isExact() {
+        return myToleranceType == MismatchToleranceType.NUMBER && ((NumberValue) myToleranceValue).getAsDouble() == 0;
+    }
+
     public boolean isForWholeSample() {
         return myToleranceType == MismatchToleranceType.PERCENTAGE_IN_SAMPLE;
     }
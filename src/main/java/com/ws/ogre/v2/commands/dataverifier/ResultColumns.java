@@ -0,0 +1,51 @@
+package com.ws.ogre.v2.commands.dataverifier;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Names and types of the columns in a result. The labels are the names to refer to the columns by in an outer query.
+ */
+class ResultColumns {
+    final String[] names;
+    final String[] labels;
+    final int[] types;
+
+    ResultColumns(ResultSetMetaData theMetaData) throws SQLException {
+        names = new String[theMetaData.getColumnCount()];
+        labels = new String[names.length];
+        types = new int[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = theMetaData.getColumnName(i + 1);
+            labels[i] = theMetaData.getColumnLabel(i + 1);
+            types[i] = theMetaData.getColumnType(i + 1);
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    int[] indexesOf(List<String> theNames) {
+        int[] anIndexes = new int[theNames.size()];
+
+        for (int i = 0; i < anIndexes.length; i++) {
+            anIndexes[i] = -1;
+
+            for (int j = 0; j < names.length; j++) {
+                if (names[j].equalsIgnoreCase(theNames.get(i))) {
+                    anIndexes[i] = j;
+                }
+            }
+
+            if (anIndexes[i] < 0) {
+                throw new IllegalArgumentException("Key column '" + theNames.get(i) + "' is not in the result: " + Arrays.toString(names));
+            }
+        }
+
+        return anIndexes;
+    }
+}
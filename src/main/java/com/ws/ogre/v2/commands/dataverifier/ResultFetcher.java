@@ -0,0 +1,127 @@
+package com.ws.ogre.v2.commands.dataverifier;
+
+import com.ws.common.logging.Logger;
+import com.ws.ogre.v2.db.JdbcDbHandler;
+
+import java.sql.ResultSet;
+import java.util.concurrent.*;
+
+/**
+ * Runs a query in the background and buffers its rows for the comparison. The buffer is bounded so a fast DB is held
+ * back by the comparison instead of filling the memory, while both the reference and the test query still run at the
+ * same time.
+ */
+class ResultFetcher implements RowMatcher.RowSource, AutoCloseable {
+
+    private static final Logger ourLogger = Logger.getLogger();
+
+    /** Marks the end of the result in the buffer */
+    private static final String[] END = new String[0];
+
+    private final BlockingQueue<String[]> myRows;
+    private final CompletableFuture<ResultColumns> myColumns = new CompletableFuture<>();
+
+    private Future<?> myQuery;
+
+    private volatile Exception myError;
+    private volatile boolean isClosed;
+    private boolean isDone;
+
+    ResultFetcher(final JdbcDbHandler theDbHandler, final String theSql, int theBufferRows, ExecutorService theExecutor) {
+        myRows = new ArrayBlockingQueue<>(Math.max(1, theBufferRows));
+
+        myQuery = theExecutor.submit(() -> {
+            try {
+                theDbHandler.queryStreaming(theSql, (ResultSet theResultSet) -> {
+                    int aColumns = theResultSet.getMetaData().getColumnCount();
+
+                    myColumns.complete(new ResultColumns(theResultSet.getMetaData()));
+
+                    while (theResultSet.next()) {
+                        String[] aRow = new String[aColumns];
+
+                        for (int i = 0; i < aColumns; i++) {
+                            aRow[i] = theResultSet.getString(i + 1);
+                        }
+
+                        if (!put(aRow)) {
+                            return; // Closed, nobody reads the rest
+                        }
+                    }
+                });
+
+            } catch (Exception e) {
+                myError = e;
+                myColumns.completeExceptionally(e);
+
+            } finally {
+                myColumns.completeExceptionally(new IllegalStateException("Query returned no result: " + theSql));
+                put(END);
+            }
+        });
+    }
+
+    /**
+     * Waits for the query to return and gets the columns of the result.
+     */
+    ResultColumns getColumns() throws Exception {
+        try {
+            return myColumns.get();
+
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    @Override
+    public String[] next() throws Exception {
+        if (isDone) {
+            return null;
+        }
+
+        String[] aRow = myRows.take();
+
+        if (aRow == END) {
+            isDone = true;
+
+            if (myError != null) {
+                throw myError;
+            }
+
+            return null;
+        }
+
+        return aRow;
+    }
+
+    /**
+     * Stops reading the result and waits for the query to finish, so its connection is back when this returns.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+
+        myRows.clear();
+
+        try {
+            myQuery.get();
+        } catch (Exception e) {
+            ourLogger.debug("Query ended with error after close", e);
+        }
+    }
+
+    private boolean put(String[] theRow) {
+        try {
+            while (!isClosed) {
+                if (myRows.offer(theRow, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+}
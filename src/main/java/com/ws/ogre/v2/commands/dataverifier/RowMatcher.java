@@ -0,0 +1,458 @@
+package com.ws.ogre.v2.commands.dataverifier;
+
+import com.ws.common.logging.Logger;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Pairs the rows of the reference and test results to compare.
+ *
+ * Without key columns the rows are paired in the order they come, the way it has always been done, which requires
+ * both queries to sort their result the same way.
+ *
+ * With key columns the rows are joined on the key instead, so a missing or extra row is reported as such and does
+ * not shift the rest of the comparison. The reference rows are hashed in memory if they are fewer than the hash join
+ * limit, otherwise both results are sorted on disk in runs of that many rows and merge joined. The test rows are
+ * sorted on a thread of their own while the reference rows are read, so the test query is not held back until the
+ * reference result is read to the end.
+ *
+ * Rows with the same key are paired in the order they come.
+ */
+public class RowMatcher {
+
+    private static final Logger ourLogger = Logger.getLogger();
+
+    private int[] myKeyColumns;
+    private int myMaxHashRows;
+    private File mySpillDir;
+    private Executor myExecutor;
+
+    /**
+     * @param theKeyColumns  0 based indexes of the key columns, empty to pair the rows in order.
+     * @param theMaxHashRows the max number of reference rows to hash in memory, also the size of sorted runs on disk.
+     * @param theSpillDir    dir for the sorted runs.
+     */
+    public RowMatcher(int[] theKeyColumns, int theMaxHashRows, File theSpillDir) {
+        this(theKeyColumns, theMaxHashRows, theSpillDir, theRunnable -> {
+            Thread aThread = new Thread(theRunnable, "TestRowSorter");
+            aThread.setDaemon(true);
+            aThread.start();
+        });
+    }
+
+    /**
+     * @param theExecutor runs the sorting of the test rows.
+     */
+    public RowMatcher(int[] theKeyColumns, int theMaxHashRows, File theSpillDir, Executor theExecutor) {
+        myKeyColumns = theKeyColumns;
+        myMaxHashRows = Math.max(1, theMaxHashRows);
+        mySpillDir = theSpillDir;
+        myExecutor = theExecutor;
+    }
+
+    public void match(RowSource theRef, RowSource theTest, Listener theListener) throws Exception {
+        if (myKeyColumns.length == 0) {
+            matchInOrder(theRef, theTest, theListener);
+            return;
+        }
+
+        try (TestSorter aTestSorter = new TestSorter(theTest)) {
+
+            myExecutor.execute(aTestSorter);
+
+            Map<String, Deque<String[]>> aRefRows = new LinkedHashMap<>();
+            int aCount = 0;
+
+            String[] aRow;
+
+            while ((aRow = theRef.next()) != null) {
+                aRefRows.computeIfAbsent(getKey(aRow), theKey -> new ArrayDeque<>(1)).add(aRow);
+
+                if (++aCount > myMaxHashRows) {
+                    ourLogger.info("More than %s rows in reference, sort and merge on disk", myMaxHashRows);
+                    matchSortMerge(aRefRows, theRef, aTestSorter.await(), theListener);
+                    return;
+                }
+            }
+
+            matchHash(aRefRows, aTestSorter.await().sorted(), theListener);
+        }
+    }
+
+    private void matchInOrder(RowSource theRef, RowSource theTest, Listener theListener) throws Exception {
+        String[] aRef;
+        String[] aTest;
+
+        while ((aRef = theRef.next()) != null) {
+            aTest = theTest.next();
+
+            if (aTest == null) {
+                theListener.onMissingInTest(aRef);
+            } else {
+                theListener.onPair(aRef, aTest);
+            }
+        }
+
+        while ((aTest = theTest.next()) != null) {
+            theListener.onMissingInRef(aTest);
+        }
+    }
+
+    private void matchHash(Map<String, Deque<String[]>> theRefRows, Iterator<KeyedRow> theTests, Listener theListener) throws Exception {
+        while (theTests.hasNext()) {
+            KeyedRow aTest = theTests.next();
+
+            Deque<String[]> aRefs = theRefRows.get(aTest.key);
+
+            if (aRefs == null) {
+                theListener.onMissingInRef(aTest.row);
+                continue;
+            }
+
+            theListener.onPair(aRefs.poll(), aTest.row);
+
+            if (aRefs.isEmpty()) {
+                theRefRows.remove(aTest.key);
+            }
+        }
+
+        for (Deque<String[]> aRefs : theRefRows.values()) {
+            for (String[] aRef : aRefs) {
+                theListener.onMissingInTest(aRef);
+            }
+        }
+    }
+
+    private void matchSortMerge(Map<String, Deque<String[]>> theRefRows, RowSource theRef, ExternalSorter theTestSorter, Listener theListener) throws Exception {
+
+        try (ExternalSorter aRefSorter = new ExternalSorter()) {
+
+            for (Map.Entry<String, Deque<String[]>> anEntry : theRefRows.entrySet()) {
+                for (String[] aRow : anEntry.getValue()) {
+                    aRefSorter.add(anEntry.getKey(), aRow);
+                }
+            }
+
+            theRefRows.clear();
+
+            String[] aRow;
+
+            while ((aRow = theRef.next()) != null) {
+                aRefSorter.add(getKey(aRow), aRow);
+            }
+
+            Iterator<KeyedRow> aRefs = aRefSorter.sorted();
+            Iterator<KeyedRow> aTests = theTestSorter.sorted();
+
+            KeyedRow aRef = aRefs.hasNext() ? aRefs.next() : null;
+            KeyedRow aTest = aTests.hasNext() ? aTests.next() : null;
+
+            while (aRef != null || aTest != null) {
+                int aCompare = aRef == null ? 1 : aTest == null ? -1 : aRef.key.compareTo(aTest.key);
+
+                if (aCompare == 0) {
+                    theListener.onPair(aRef.row, aTest.row);
+                    aRef = aRefs.hasNext() ? aRefs.next() : null;
+                    aTest = aTests.hasNext() ? aTests.next() : null;
+
+                } else if (aCompare < 0) {
+                    theListener.onMissingInTest(aRef.row);
+                    aRef = aRefs.hasNext() ? aRefs.next() : null;
+
+                } else {
+                    theListener.onMissingInRef(aTest.row);
+                    aTest = aTests.hasNext() ? aTests.next() : null;
+                }
+            }
+        }
+    }
+
+    String getKey(String[] theRow) {
+        StringBuilder aKey = new StringBuilder();
+
+        for (int i = 0; i < myKeyColumns.length; i++) {
+            if (i > 0) {
+                aKey.append('\u0001');
+            }
+
+            String aValue = theRow[myKeyColumns[i]];
+
+            aKey.append(aValue == null ? "\u0000" : aValue);
+        }
+
+        return aKey.toString();
+    }
+
+
+    /**
+     * The rows of a result, one at a time.
+     */
+    public interface RowSource {
+
+        /**
+         * @return the column values of the next row, null when no more rows.
+         */
+        String[] next() throws Exception;
+    }
+
+    public interface Listener {
+
+        void onPair(String[] theRef, String[] theTest) throws Exception;
+
+        void onMissingInTest(String[] theRef) throws Exception;
+
+        void onMissingInRef(String[] theTest) throws Exception;
+    }
+
+    private static class KeyedRow {
+        final String key;
+        final String[] row;
+
+        KeyedRow(String theKey, String[] theRow) {
+            key = theKey;
+            row = theRow;
+        }
+    }
+
+    /**
+     * Sorts rows by key, in memory as long as they fit in one run, otherwise in sorted runs written to disk that are
+     * merged when read back. The sort is stable, rows with the same key are kept in the order they were added.
+     */
+    private class ExternalSorter implements Closeable {
+
+        private List<KeyedRow> myBuffer = new ArrayList<>();
+        private List<File> myRuns = new ArrayList<>();
+        private List<DataInputStream> myReaders = new ArrayList<>();
+
+        void add(String theKey, String[] theRow) throws IOException {
+            myBuffer.add(new KeyedRow(theKey, theRow));
+
+            if (myBuffer.size() >= myMaxHashRows) {
+                writeRun();
+            }
+        }
+
+        Iterator<KeyedRow> sorted() throws IOException {
+            if (myRuns.isEmpty()) {
+                myBuffer.sort((theA, theB) -> theA.key.compareTo(theB.key));
+                return myBuffer.iterator();
+            }
+
+            if (!myBuffer.isEmpty()) {
+                writeRun();
+            }
+
+            return new MergeIterator();
+        }
+
+        @Override
+        public void close() {
+            for (DataInputStream aReader : myReaders) {
+                try {
+                    aReader.close();
+                } catch (IOException e) {
+                    // Deleted below anyway
+                }
+            }
+
+            for (File aRun : myRuns) {
+                FileUtils.deleteQuietly(aRun);
+            }
+        }
+
+        private void writeRun() throws IOException {
+            myBuffer.sort((theA, theB) -> theA.key.compareTo(theB.key));
+
+            File aRun = File.createTempFile("ogre-verify-", ".run", mySpillDir);
+            myRuns.add(aRun);
+
+            try (DataOutputStream anOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(aRun), 256 * 1024))) {
+                for (KeyedRow aRow : myBuffer) {
+                    writeString(anOut, aRow.key);
+                    anOut.writeInt(aRow.row.length);
+
+                    for (String aValue : aRow.row) {
+                        writeString(anOut, aValue);
+                    }
+                }
+            }
+
+            ourLogger.debug("Wrote sorted run of %s rows to %s", myBuffer.size(), aRun);
+
+            myBuffer = new ArrayList<>();
+        }
+
+        /**
+         * Merges the sorted runs. Ties are broken on run order to keep the sort stable.
+         */
+        private class MergeIterator implements Iterator<KeyedRow> {
+
+            private PriorityQueue<Head> myHeads = new PriorityQueue<>((theA, theB) -> {
+                int aCompare = theA.row.key.compareTo(theB.row.key);
+                return aCompare != 0 ? aCompare : Integer.compare(theA.run, theB.run);
+            });
+
+            MergeIterator() throws IOException {
+                for (int i = 0; i < myRuns.size(); i++) {
+                    DataInputStream anIn = new DataInputStream(new BufferedInputStream(new FileInputStream(myRuns.get(i)), 64 * 1024));
+                    myReaders.add(anIn);
+
+                    KeyedRow aRow = readRow(anIn);
+
+                    if (aRow != null) {
+                        myHeads.add(new Head(i, aRow));
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !myHeads.isEmpty();
+            }
+
+            @Override
+            public KeyedRow next() {
+                Head aHead = myHeads.poll();
+
+                if (aHead == null) {
+                    throw new NoSuchElementException();
+                }
+
+                try {
+                    KeyedRow aNext = readRow(myReaders.get(aHead.run));
+
+                    if (aNext != null) {
+                        myHeads.add(new Head(aHead.run, aNext));
+                    }
+
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                return aHead.row;
+            }
+        }
+    }
+
+    /**
+     * Reads all test rows into a sorter, run by the executor while the reference rows are read.
+     */
+    private class TestSorter implements Runnable, Closeable {
+
+        private final RowSource mySource;
+        private final ExternalSorter mySorter = new ExternalSorter();
+        private final CountDownLatch myDone = new CountDownLatch(1);
+
+        private volatile Exception myError;
+        private volatile boolean isCancelled;
+
+        TestSorter(RowSource theSource) {
+            mySource = theSource;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String[] aRow;
+
+                while (!isCancelled && (aRow = mySource.next()) != null) {
+                    mySorter.add(getKey(aRow), aRow);
+                }
+
+            } catch (Exception e) {
+                myError = e;
+
+            } finally {
+                myDone.countDown();
+            }
+        }
+
+        /**
+         * @return the sorter with all test rows.
+         */
+        ExternalSorter await() throws Exception {
+            myDone.await();
+
+            if (myError != null) {
+                throw myError;
+            }
+
+            return mySorter;
+        }
+
+        /**
+         * Stops the sorting if still running, e.g. when the reference failed, and deletes the sorted runs.
+         */
+        @Override
+        public void close() {
+            isCancelled = true;
+
+            try {
+                myDone.await();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            mySorter.close();
+        }
+    }
+
+    private static class Head {
+        final int run;
+        final KeyedRow row;
+
+        Head(int theRun, KeyedRow theRow) {
+            run = theRun;
+            row = theRow;
+        }
+    }
+
+    private static KeyedRow readRow(DataInputStream theIn) throws IOException {
+        String aKey;
+
+        try {
+            aKey = readString(theIn);
+        } catch (EOFException e) {
+            return null;
+        }
+
+        String[] aRow = new String[theIn.readInt()];
+
+        for (int i = 0; i < aRow.length; i++) {
+            aRow[i] = readString(theIn);
+        }
+
+        return new KeyedRow(aKey, aRow);
+    }
+
+    private static void writeString(DataOutputStream theOut, String theValue) throws IOException {
+        if (theValue == null) {
+            theOut.writeInt(-1);
+            return;
+        }
+
+        byte[] aBytes = theValue.getBytes(StandardCharsets.UTF_8);
+
+        theOut.writeInt(aBytes.length);
+        theOut.write(aBytes);
+    }
+
+    private static String readString(DataInputStream theIn) throws IOException {
+        int aLength = theIn.readInt();
+
+        if (aLength < 0) {
+            return null;
+        }
+
+        byte[] aBytes = new byte[aLength];
+        theIn.readFully(aBytes);
+
+        return new String(aBytes, StandardCharsets.UTF_8);
+    }
+}
@@ -7,12 +7,19 @@ public class SingleVerificationDetail {
     private String myRefSql;
     private String myTestSql;
     private List<MismatchTolerance> myTolerances;
+    private List<String> myKeyColumns;
+    private String myRefAggregates;
+    private String myTestAggregates;
 
-    public SingleVerificationDetail(String theName, String theRefSql, String theTestSql, List<MismatchTolerance> theTolerances) {
+    public SingleVerificationDetail(String theName, String theRefSql, String theTestSql, List<MismatchTolerance> theTolerances, List<String> theKeyColumns,
+                                    String theRefAggregates, String theTestAggregates) {
         myName = theName;
         myRefSql = theRefSql;
         myTestSql = theTestSql;
         myTolerances = theTolerances;
+        myKeyColumns = theKeyColumns;
+        myRefAggregates = theRefAggregates;
+        myTestAggregates = theTestAggregates;
     }
 
     public String getName() {
@@ -31,11 +38,35 @@ public class SingleVerificationDetail {
         return myTolerances;
     }
 
+    /**
+     * The columns to join reference and test rows on, empty to compare the rows in the order they come.
+     */
+    public List<String> getKeyColumns() {
+        return myKeyColumns;
+    }
+
+    /**
+     * Extra aggregates to compare for the reference query before the rows, e.g. a hash of the rows, null if none.
+     */
+    public String getRefAggregates() {
+        return myRefAggregates;
+    }
+
+    /**
+     * Extra aggregates to compare for the test query before the rows, null if none.
+     */
+    public String getTestAggregates() {
+        return myTestAggregates;
+    }
+
     @Override
     public String toString() {
         return "\nname=" + myName +
                 "\nrefSql=" + myRefSql +
                 "\ntestSql=" + myTestSql +
-                "\ntolerances=" + myTolerances;
+                "\ntolerances=" + myTolerances +
+                "\nkeyColumns=" + myKeyColumns +
+                "\nrefAggregates=" + myRefAggregates +
+                "\ntestAggregates=" + myTestAggregates;
     }
 }
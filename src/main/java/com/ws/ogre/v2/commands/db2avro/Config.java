@@ -1,9 +1,12 @@
 package com.ws.ogre.v2.commands.db2avro;
 
 import com.amazonaws.services.s3.model.StorageClass;
+import com.ws.common.avrologging.parquet.ParquetCodec;
+import com.ws.common.avrologging.writer.v2.AvroCodecs;
 import com.ws.ogre.v2.aws.S3Url;
 import com.ws.ogre.v2.db.JdbcDbHandler;
 import com.ws.ogre.v2.db.JdbcDbHandlerBuilder;
+import org.apache.avro.file.CodecFactory;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 
@@ -22,11 +25,22 @@ import java.util.*;
  src.db.database     = apa
  src.db.user         = apa
  src.db.password     = banan
+ src.db.maxParallelQueries = 4 (optional, default 1 - max queries at a time on the source DB, slices of split queries included)
 
  dst.s3.accessKeyId  = ...
  dst.s3.secretKey    = ...
  dst.s3.rootPath     = s3://...
  dst.s3.storageClass = (STANDARD, STANDARD_IA, REDUCED_REDUNDANCY, GLACIER - default is STANDARD_IA)
+ dst.s3.storageType  = (avro, parquet, csv, tsv - default is avro)
+
+ dst.avro.compression       = (null, snappy, deflate, deflate-<1-9>, xz, xz-<0-9>, bzip2 - default is snappy, only for avro storage type)
+ dst.avro.syncIntervalKb    = 64 (optional, default 64, uncompressed size of a block before it is compressed, only for avro storage type)
+
+ dst.parquet.compression    = (uncompressed, snappy, gzip - default is snappy, only for parquet storage type)
+ dst.parquet.rowGroupSizeMb = 32 (optional, default 32, only for parquet storage type. A row group is buffered in
+                              heap per type and slice dumped at the same time, keep it well below the heap size)
+
+ sync.retryJournal   = /var/lib/ogre/db2avro-retry.json (optional, default <java.io.tmpdir>/ogre-db2avro-retry/<component>/<source>.json)
 
  */
 public class Config {
@@ -42,6 +56,7 @@ public class Config {
     public String srcDbUser;
     public String srcDbPassword;
     public String srcDbStagingDir;
+    public int srcDbMaxParallelQueries;
 
     public String dstAccessKey;
     public String dstSecret;
@@ -50,9 +65,15 @@ public class Config {
     public String dstSource;
     public StorageClass dstStorageClass;
     public StorageType dstStorageType;
+    public CodecFactory dstAvroCompression;
+    public int dstAvroSyncIntervalKb;
+    public ParquetCodec dstParquetCompression;
+    public int dstParquetRowGroupSizeMb;
 
     public String localAvroRoot;
 
+    public String syncRetryJournal;
+
     public Map<String, Sql> sqls = new HashMap<>();
 
 
@@ -79,6 +100,7 @@ public class Config {
         srcDbUser      = aConf.getString("src.db.user");
         srcDbPassword  = aConf.getString("src.db.password");
         srcDbStagingDir = aConf.getString("src.db.stagingDir");
+        srcDbMaxParallelQueries = aConf.getInt("src.db.maxParallelQueries", 1);
 
         dstAccessKey    = aConf.getString("dst.s3.accessKeyId");
         dstSecret       = aConf.getString("dst.s3.secretKey");
@@ -88,8 +110,16 @@ public class Config {
         dstStorageClass = StorageClass.fromValue(aConf.getString("dst.s3.storageClass", "STANDARD_IA"));
         dstStorageType  = StorageType.fromValue(aConf.getString("dst.s3.storageType", "avro"));
 
+        dstAvroCompression       = AvroCodecs.fromSpec(aConf.getString("dst.avro.compression", "snappy"));
+        dstAvroSyncIntervalKb    = aConf.getInt("dst.avro.syncIntervalKb", 64);
+
+        dstParquetCompression    = ParquetCodec.fromValue(aConf.getString("dst.parquet.compression", "snappy"));
+        dstParquetRowGroupSizeMb = aConf.getInt("dst.parquet.rowGroupSizeMb", 32);
+
         localAvroRoot  = aConf.getString("local.avro.root");
 
+        syncRetryJournal = aConf.getString("sync.retryJournal", System.getProperty("java.io.tmpdir") + "/ogre-db2avro-retry/" + dstComponent + "/" + dstSource + ".json");
+
         types          = aConf.getStringArray("types");
 
         aConf.setDelimiterParsingDisabled(true);
@@ -181,6 +211,7 @@ public class Config {
                 ", srcDbUser=" + srcDbUser +
                 ", srcDbPassword=" + "***" +
                 ", srcDbStagingDir=" + srcDbStagingDir +
+                ", srcDbMaxParallelQueries=" + srcDbMaxParallelQueries +
                 ", dstAccessKey=" + dstAccessKey +
                 ", dstSecret=" + "***" +
                 ", dstRoot=" + dstRoot +
@@ -188,7 +219,12 @@ public class Config {
                 ", dstSource=" + dstSource +
                 ", dstStorageClass=" + dstStorageClass +
                 ", dstStorageType=" + dstStorageType +
+                ", dstAvroCompression=" + dstAvroCompression +
+                ", dstAvroSyncIntervalKb=" + dstAvroSyncIntervalKb +
+                ", dstParquetCompression=" + dstParquetCompression +
+                ", dstParquetRowGroupSizeMb=" + dstParquetRowGroupSizeMb +
                 ", localAvroRoot=" + localAvroRoot +
+                ", syncRetryJournal=" + syncRetryJournal +
                 ", sqls=" + sqls +
                 '}';
     }
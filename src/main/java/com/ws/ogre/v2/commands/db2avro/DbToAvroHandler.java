@@ -1,6 +1,7 @@
 package com.ws.ogre.v2.commands.db2avro;
 
 import com.ws.common.avrologging.datalake.DataLakePublisher;
+import com.ws.common.avrologging.datalake.ParquetDataLakePublisher;
 import com.ws.common.avrologging.writer.v2.AvroWriter;
 import com.ws.common.logging.Alert;
 import com.ws.common.logging.Logger;
@@ -13,15 +14,20 @@ import com.ws.ogre.v2.datafile.DataFileHandler.DataFilesByType;
 import com.ws.ogre.v2.db.DependencySqlUtils;
 import com.ws.ogre.v2.db.JdbcDbHandler;
 import com.ws.ogre.v2.db.JdbcDbHandlerBuilder;
+import com.ws.ogre.v2.db.KeyRangeSplitter;
 import com.ws.ogre.v2.db.SqlScript;
 import com.ws.ogre.v2.datetime.DateHour;
+import com.ws.ogre.v2.utils.JobExecutorService;
 import com.ws.ogre.v2.utils.SleepUtil;
+import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
 
-import javax.sql.rowset.JdbcRowSet;
 import java.io.File;
 import java.sql.ResultSet;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Pattern;
 
 /**
@@ -38,6 +44,9 @@ public class DbToAvroHandler {
     private S3Client myS3Client;
     private JdbcDbHandler myDbHandler;
 
+    /** Limits the sessions open at a time on the source DB, shared by all types, chunks and slices */
+    private Semaphore myDbPermits;
+
     protected Set<String> myTypes;
 
     private Map<String, String> myVars = new HashMap<>();
@@ -50,6 +59,7 @@ public class DbToAvroHandler {
         myDataFileHandler = new DataFileHandler(myS3Client, new S3Url(theConfig.getDstS3FullPath()));
 
         myDbHandler = JdbcDbHandlerBuilder.getInstance().buildJdbcDbHandler(theConfig.getSrcDbConfig());
+        myDbPermits = new Semaphore(Math.max(1, theConfig.srcDbMaxParallelQueries), true);
 
         myTypes = getTypes(theCliTypes, theConfig.types);
 
@@ -61,47 +71,55 @@ public class DbToAvroHandler {
         myVars.putAll(theVariables);
     }
 
-    protected void initForDoingQueryForChunk(DateHour.Range theChunk) {
+    /**
+     * Returns the variables for running the SQL(s) of a chunk. A new map is returned for each chunk so chunks and
+     * types can be dumped in parallel.
+     */
+    private Map<String, String> getVarsForChunk(DateHour.Range theChunk) {
+        Map<String, String> aVars = new HashMap<>(myVars);
+
         DateHour aFromHour = theChunk.getFrom();
-        myVars.put("from", aFromHour.format("yyyy-MM-dd HH:mm:ss"));
-        myVars.put("fromDate", aFromHour.format("yyyy-MM-dd"));
-        myVars.put("fromYear", aFromHour.format("yyyy"));
-        myVars.put("fromMonth", aFromHour.format("MM"));
-        myVars.put("fromDay", aFromHour.format("dd"));
-        myVars.put("fromHour", aFromHour.format("HH"));
+        aVars.put("from", aFromHour.format("yyyy-MM-dd HH:mm:ss"));
+        aVars.put("fromDate", aFromHour.format("yyyy-MM-dd"));
+        aVars.put("fromYear", aFromHour.format("yyyy"));
+        aVars.put("fromMonth", aFromHour.format("MM"));
+        aVars.put("fromDay", aFromHour.format("dd"));
+        aVars.put("fromHour", aFromHour.format("HH"));
 
         DateHour aToHour = theChunk.getTo().getNextDateHour();
-        myVars.put("before", aToHour.format("yyyy-MM-dd HH:mm:ss")); // Exclusive.
-        myVars.put("to", aToHour.format("yyyy-MM-dd HH:mm:ss")); // Exclusive. Legacy. Do not use it. Use 'before'. 'to' doesn't sound exclusive.
-        myVars.put("beforeDate", aToHour.format("yyyy-MM-dd")); // Exclusive.
-        myVars.put("beforeYear", aToHour.format("yyyy"));
-        myVars.put("beforeMonth", aToHour.format("MM"));
-        myVars.put("beforeDay", aToHour.format("dd"));
-        myVars.put("beforeHour", aToHour.format("HH"));
-
-        myVars.put("now", new DateHour(new Date()).format("yyyy-MM-dd HH:mm:ss"));
-        myVars.put("nowDate", new DateHour(new Date()).format("yyyy-MM-dd"));
-        myVars.put("nowYear", new DateHour(new Date()).format("yyyy"));
-        myVars.put("nowMonth", new DateHour(new Date()).format("MM"));
-        myVars.put("nowDay", new DateHour(new Date()).format("dd"));
-        myVars.put("nowHour", new DateHour(new Date()).format("HH"));
-
-        myVars.put("s3DstPath", myConfig.getDstS3FullPath());
-        myVars.put("s3AccessKeyId", myS3Client.getCredentials().getAWSAccessKeyId());
-        myVars.put("s3SecretKey", myS3Client.getCredentials().getAWSSecretKey());
-        myVars.put("s3StorageClass", myConfig.dstStorageClass.toString());
+        aVars.put("before", aToHour.format("yyyy-MM-dd HH:mm:ss")); // Exclusive.
+        aVars.put("to", aToHour.format("yyyy-MM-dd HH:mm:ss")); // Exclusive. Legacy. Do not use it. Use 'before'. 'to' doesn't sound exclusive.
+        aVars.put("beforeDate", aToHour.format("yyyy-MM-dd")); // Exclusive.
+        aVars.put("beforeYear", aToHour.format("yyyy"));
+        aVars.put("beforeMonth", aToHour.format("MM"));
+        aVars.put("beforeDay", aToHour.format("dd"));
+        aVars.put("beforeHour", aToHour.format("HH"));
+
+        aVars.put("now", new DateHour(new Date()).format("yyyy-MM-dd HH:mm:ss"));
+        aVars.put("nowDate", new DateHour(new Date()).format("yyyy-MM-dd"));
+        aVars.put("nowYear", new DateHour(new Date()).format("yyyy"));
+        aVars.put("nowMonth", new DateHour(new Date()).format("MM"));
+        aVars.put("nowDay", new DateHour(new Date()).format("dd"));
+        aVars.put("nowHour", new DateHour(new Date()).format("HH"));
+
+        aVars.put("s3DstPath", myConfig.getDstS3FullPath());
+        aVars.put("s3AccessKeyId", myS3Client.getCredentials().getAWSAccessKeyId());
+        aVars.put("s3SecretKey", myS3Client.getCredentials().getAWSSecretKey());
+        aVars.put("s3StorageClass", myConfig.dstStorageClass.toString());
+
+        return aVars;
     }
 
-    private void initForDoingQueryForType(String theType) {
-        myVars.put("type", theType);
+    private void initForDoingQueryForType(Map<String, String> theVars, String theType) {
+        theVars.put("type", theType);
     }
 
-    private void initForDoingQueryForSeparator(StorageType theStorageType) {
+    private void initForDoingQueryForSeparator(Map<String, String> theVars, StorageType theStorageType) {
         if (theStorageType == StorageType.TSV) {
-            myVars.put("valueSeparator", "\\t");
+            theVars.put("valueSeparator", "\\t");
 
         } else if (theStorageType == StorageType.CSV) {
-            myVars.put("valueSeparator", ",");
+            theVars.put("valueSeparator", ",");
         }
     }
 
@@ -124,21 +142,25 @@ public class DbToAvroHandler {
 
             SqlScript aScript = new SqlScript(aSqlOrScript.sql, myVars);
 
-            for (String aSql : aScript.getExecSqls()) {
-                ourLogger.debug("Execute: %s", aSql);
-                myDbHandler.executeUpdate(aSql);
-            }
+            // Run script in one session so the query sees e.g. temp tables created by the exec sqls
+            try (JdbcDbHandler.Session aSession = myDbHandler.openSession()) {
 
-            ourLogger.debug("Query: %s", aScript.getQuerySql());
+                for (String aSql : aScript.getExecSqls()) {
+                    ourLogger.debug("Execute: %s", aSql);
+                    aSession.executeUpdate(aSql);
+                }
 
-            myDbHandler.query(aScript.getQuerySql(), (JdbcRowSet theRowSet) -> {
+                ourLogger.debug("Query: %s", aScript.getQuerySql());
 
-                String aDdl = RowSetToDdl.getDdl(aType, theRowSet, theDialect);
-                System.out.println(aDdl);
+                aSession.query(aScript.getQuerySql(), (ResultSet theRowSet) -> {
 
-                String anImport = RowSetToDdl.getColumnMappings(aType, theRowSet, theDialect);
-                System.out.println(anImport);
-            });
+                    String aDdl = RowSetToDdl.getDdl(aType, theRowSet, theDialect);
+                    System.out.println(aDdl);
+
+                    String anImport = RowSetToDdl.getColumnMappings(aType, theRowSet, theDialect);
+                    System.out.println(anImport);
+                });
+            }
         }
     }
 
@@ -155,7 +177,6 @@ public class DbToAvroHandler {
 
         // Load data chunk by chunks
         for (DateHour.Range aChunk : aChunks) {
-            initForDoingQueryForChunk(aChunk);
             dumpWithRetry(aChunk, theReplace, theSkipDependencyCheck, false, 30);
         }
     }
@@ -193,22 +214,26 @@ public class DbToAvroHandler {
     }
 
     protected void dumpTimeRange(DateHour.Range theUnitChunk, boolean theReplace, boolean theSkipDependencyCheck, boolean theIsPartial) throws Exception {
+        dumpTimeRange(myTypes, theUnitChunk, theReplace, theSkipDependencyCheck, theIsPartial);
+    }
+
+    protected void dumpTimeRange(Set<String> theTypes, DateHour.Range theUnitChunk, boolean theReplace, boolean theSkipDependencyCheck, boolean theIsPartial) throws Exception {
         String aDstFileNamePrefix = theIsPartial ? SYNCING_FILE_PREFIX : null;
 
         // First remove any partial files.
-        deleteExisting(myTypes, theUnitChunk, SYNCING_FILE_PREFIX);
+        deleteExisting(theTypes, theUnitChunk, SYNCING_FILE_PREFIX);
 
-        ourLogger.info("Run SQL(s) and dump result as avro files on S3 for: %s", theUnitChunk);
+        ourLogger.info("Run SQL(s) and dump result as avro files on S3 for: %s %s", theTypes, theUnitChunk);
 
         // Should we replace old existing dumps, then delete old first
         if (theReplace) {
-            deleteExisting(myTypes, theUnitChunk);
+            deleteExisting(theTypes, theUnitChunk);
 
-            dumpTypes(myTypes, theUnitChunk, theSkipDependencyCheck, aDstFileNamePrefix);
+            dumpTypes(theTypes, theUnitChunk, theSkipDependencyCheck, aDstFileNamePrefix);
 
         } else {
             // Check existing dumps and resolve types to dump for time range
-            Set<String> aTypes = resolveTypesNotDumpedYet(myTypes, theUnitChunk);
+            Set<String> aTypes = resolveTypesNotDumpedYet(theTypes, theUnitChunk);
 
             // Dump them
             dumpTypes(aTypes, theUnitChunk, theSkipDependencyCheck, aDstFileNamePrefix);
@@ -241,6 +266,8 @@ public class DbToAvroHandler {
             return;
         }
 
+        Map<String, String> aChunkVars = getVarsForChunk(theTimeChunk);
+
         // Iterate over all types and dump SQL as avro
         for (final String aType : theTypes) {
 
@@ -254,20 +281,24 @@ public class DbToAvroHandler {
             }
 
             // Parse and extracts SQLs from script
-            initForDoingQueryForType(aType);
-            initForDoingQueryForSeparator(myConfig.dstStorageType);
-            SqlScript aScript = new SqlScript(aSqlOrScript.sql, myVars);
+            Map<String, String> aVars = new HashMap<>(aChunkVars);
+            initForDoingQueryForType(aVars, aType);
+            initForDoingQueryForSeparator(aVars, myConfig.dstStorageType);
+            SqlScript aScript = new SqlScript(aSqlOrScript.sql, aVars);
 
             // Make sure we pass the dependencies (if asked to).
             if (!theSkipDependencyCheck) {
                 for (String aSql : aScript.getDependencySqls()) {
                     ourLogger.debug("Dependency Query: %s", aSql.replace('\n', ' '));
 
-                    DependencySqlUtils.checkDependency(myDbHandler, aSql);
+                    withDbPermit(() -> {
+                        DependencySqlUtils.checkDependency(myDbHandler, aSql);
+                        return null;
+                    });
                 }
             }
 
-            if (myConfig.dstStorageType == StorageType.AVRO) {
+            if (myConfig.dstStorageType == StorageType.AVRO || myConfig.dstStorageType == StorageType.PARQUET) {
                 dumpTypeToAvro(theTimeChunk, aType, aScript, theDstFileNamePrefix);
 
             } else {
@@ -281,30 +312,242 @@ public class DbToAvroHandler {
             throw new IllegalArgumentException(myConfig.srcDbType + " is not supported yet");
         }
 
-        // All sqls are executable.
-        for (String aSql : theScript.getExecSqls()) {
-            ourLogger.debug("Execute: %s", aSql.replace('\n', ' '));
-            myDbHandler.executeUpdate(aSql);
-        }
+        withDbPermit(() -> {
+            try (JdbcDbHandler.Session aSession = myDbHandler.openSession()) {
 
-        ourLogger.debug("Query: %s", theScript.getQuerySql().replace('\n', ' '));
-        myDbHandler.executeUpdate(theScript.getQuerySql());
+                // All sqls are executable.
+                for (String aSql : theScript.getExecSqls()) {
+                    ourLogger.debug("Execute: %s", aSql.replace('\n', ' '));
+                    aSession.executeUpdate(aSql);
+                }
+
+                ourLogger.debug("Query: %s", theScript.getQuerySql().replace('\n', ' '));
+                aSession.executeUpdate(theScript.getQuerySql());
+            }
+
+            return null;
+        });
     }
 
     private void dumpTypeToAvro(DateHour.Range theTimeChunk, String theType, SqlScript theScript, String theAvroFileNamePrefix) throws Exception {
-        // All SQL(s) except the last one in script are for preparing end result, execute them here.
-        for (String aSql : theScript.getExecSqls()) {
-            ourLogger.debug("Execute: %s", aSql.replace('\n', ' '));
-            myDbHandler.execute(aSql);
+        if (theScript.getSplit() != null) {
+            dumpTypeToAvroSplit(theTimeChunk, theType, theScript, theAvroFileNamePrefix);
+            return;
+        }
+
+        DataLakePublisher aPublisher = createPublisher(theTimeChunk, theType, null, theAvroFileNamePrefix);
+
+        try {
+            // Run script in one session so the query sees e.g. temp tables created by the exec sqls
+            withDbPermit(() -> {
+                try (JdbcDbHandler.Session aSession = openScriptSession(theScript)) {
+
+                    // The last SQL is the query returning the records to dump to file.
+                    ourLogger.debug("Query: %s", theScript.getQuerySql().replace('\n', ' '));
+                    executeAndWriteAvro(aSession, theTimeChunk, theType, theScript.getQuerySql(), aPublisher);
+                }
+
+                return null;
+            });
+
+        } catch (Exception e) {
+            discard(Collections.singletonList(aPublisher));
+            throw e;
+        }
+
+        upload(Collections.singletonList(aPublisher), theTimeChunk, theType);
+    }
+
+    /**
+     * Runs the key range slices of the query in parallel, each in a session of its own and writing its own avro
+     * files. The slices share the per DB limit with all other queries. The files are uploaded once all slices are
+     * written, nothing is uploaded if a slice failed.
+     */
+    private void dumpTypeToAvroSplit(final DateHour.Range theTimeChunk, final String theType, final SqlScript theScript, String theAvroFileNamePrefix) throws Exception {
+        final SqlScript.Split aSplit = theScript.getSplit();
+
+        final Long[] aBounds = new Long[2];
+
+        withDbPermit(() -> {
+            try (JdbcDbHandler.Session aSession = openScriptSession(theScript)) {
+                String aSql = KeyRangeSplitter.getBoundsSql(theScript.getQuerySql(), aSplit);
+
+                ourLogger.debug("Split bounds query: %s", aSql.replace('\n', ' '));
+
+                aSession.query(aSql, (ResultSet theRs) -> {
+                    if (theRs.next()) {
+                        long aMin = theRs.getLong(1);
+                        aBounds[0] = theRs.wasNull() ? null : aMin;
+                        long aMax = theRs.getLong(2);
+                        aBounds[1] = theRs.wasNull() ? null : aMax;
+                    }
+                });
+            }
+
+            return null;
+        });
+
+        // No rows at all, or only rows with null keys, then a single slice will do
+        List<String> aSliceSqls = aBounds[0] == null || aBounds[1] == null ?
+                Collections.singletonList(theScript.getQuerySql()) :
+                KeyRangeSplitter.getSliceSqls(theScript.getQuerySql(), aSplit.column, aBounds[0], aBounds[1], aSplit.slices);
+
+        ourLogger.info("Run query for %s as %s slice(s) on %s (%s - %s)", theType, aSliceSqls.size(), aSplit.column, aBounds[0], aBounds[1]);
+
+        final List<DataLakePublisher> aPublishers = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < aSliceSqls.size(); i++) {
+                aPublishers.add(createPublisher(theTimeChunk, theType, i, theAvroFileNamePrefix));
+            }
+
+            List<Integer> aSlices = new ArrayList<>();
+
+            for (int i = 0; i < aSliceSqls.size(); i++) {
+                aSlices.add(i);
+            }
+
+            new JobExecutorService<Integer>(aSliceSqls.size())
+                    .addTasks(aSlices)
+                    .execute(theSlice -> withDbPermit(() -> {
+                        try (JdbcDbHandler.Session aSession = openScriptSession(theScript)) {
+                            ourLogger.debug("Query slice %s: %s", theSlice, aSliceSqls.get(theSlice).replace('\n', ' '));
+                            executeAndWriteAvro(aSession, theTimeChunk, theType, aSliceSqls.get(theSlice), aPublishers.get(theSlice));
+                        }
+
+                        return null;
+                    }));
+
+        } catch (Exception e) {
+            discard(aPublishers);
+            throw e;
         }
 
-        // The last SQL is the query returning the records to dump to file.
-        ourLogger.debug("Query: %s", theScript.getQuerySql().replace('\n', ' '));
-        executeAndWriteAvro(theTimeChunk, theType, theScript.getQuerySql(), theAvroFileNamePrefix);
+        upload(aPublishers, theTimeChunk, theType);
     }
 
-    private void executeAndWriteAvro(final DateHour.Range theTimeChunk, final String theType, String theQuerySql, String theAvroFileNamePrefix) throws Exception {
-        myDbHandler.query(theQuerySql, new JdbcDbHandler.RsAction() {
+    /**
+     * Closes the publishers, which uploads their files. All publishers are closed also if one failed not to leak their
+     * writers, and then the files uploaded so far are deleted so the type does not look dumped to the next sync.
+     */
+    private void upload(List<DataLakePublisher> thePublishers, DateHour.Range theTimeChunk, String theType) throws Exception {
+        Exception aFailure = null;
+
+        for (DataLakePublisher aPublisher : thePublishers) {
+            try {
+                aPublisher.close();
+
+            } catch (Exception e) {
+                if (aFailure == null) {
+                    aFailure = e;
+                } else {
+                    aFailure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (aFailure != null) {
+            deleteExisting(Collections.singleton(theType), theTimeChunk);
+            throw aFailure;
+        }
+    }
+
+    /**
+     * Closes the publishers of a failed dump without uploading anything and deletes their files.
+     */
+    private void discard(List<DataLakePublisher> thePublishers) {
+        for (DataLakePublisher aPublisher : thePublishers) {
+            aPublisher.abort();
+
+            FileUtils.deleteQuietly(aPublisher.getLocalDir());
+        }
+    }
+
+    /**
+     * Runs queries within the per DB limit, see src.db.maxParallelQueries.
+     */
+    private <T> T withDbPermit(Callable<T> theQueries) throws Exception {
+        myDbPermits.acquire();
+
+        try {
+            return theQueries.call();
+
+        } finally {
+            myDbPermits.release();
+        }
+    }
+
+    /**
+     * Opens a session and runs the exec SQL(s) of the script in it, i.e. all SQL(s) except the query that are for
+     * preparing end result.
+     */
+    private JdbcDbHandler.Session openScriptSession(SqlScript theScript) throws Exception {
+        JdbcDbHandler.Session aSession = myDbHandler.openSession();
+
+        try {
+            for (String aSql : theScript.getExecSqls()) {
+                ourLogger.debug("Execute: %s", aSql.replace('\n', ' '));
+                aSession.execute(aSql);
+            }
+
+            return aSession;
+
+        } catch (Exception e) {
+            aSession.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a publisher that writes the avro records to local filesystem and finally uploads them to S3.
+     *
+     * @param theSlice the key range slice the publisher is for, null if the query is not split.
+     */
+    private DataLakePublisher createPublisher(DateHour.Range theTimeChunk, String theType, Integer theSlice, String theAvroFileNamePrefix) {
+
+        // Write to a local dir of its own, the publisher uploads all files in its dir and other types, chunks or
+        // slices may be dumped in parallel.
+        File aLocalDir = new File(myConfig.localAvroRoot, theType + "-" + theTimeChunk.getFrom().format("yyyyMMddHH") + (theSlice != null ? "-" + theSlice : ""));
+
+        // Drop any files left behind by an earlier failed dump, they must not be uploaded with this one
+        FileUtils.deleteQuietly(aLocalDir);
+
+        DataLakePublisher aPublisher;
+
+        if (myConfig.dstStorageType == StorageType.PARQUET) {
+            ParquetDataLakePublisher aParquetPublisher = new ParquetDataLakePublisher(
+                    myConfig.dstComponent, myConfig.dstSource, aLocalDir.getPath(),
+                    myConfig.dstRoot.bucket, myS3Client.getCredentials().getAWSAccessKeyId(), myS3Client.getCredentials().getAWSSecretKey()
+            );
+
+            aParquetPublisher.setCodec(myConfig.dstParquetCompression);
+            aParquetPublisher.setRowGroupSize(myConfig.dstParquetRowGroupSizeMb * 1024L * 1024L);
+
+            aPublisher = aParquetPublisher;
+
+        } else {
+            aPublisher = new DataLakePublisher(
+                    myConfig.dstComponent, myConfig.dstSource, aLocalDir.getPath(),
+                    myConfig.dstRoot.bucket, myS3Client.getCredentials().getAWSAccessKeyId(), myS3Client.getCredentials().getAWSSecretKey()
+            );
+
+            aPublisher.setAvroCodec(myConfig.dstAvroCompression);
+            aPublisher.setAvroSyncInterval(myConfig.dstAvroSyncIntervalKb * 1000);
+        }
+
+        // Set storage class for uploaded files
+        aPublisher.setStorageClass(myConfig.dstStorageClass);
+        aPublisher.setFileNamePrefix(theAvroFileNamePrefix /* Can be null */);
+
+        return aPublisher;
+    }
+
+    /**
+     * Runs the query and writes the result as avro files through the publisher. The files are not uploaded until
+     * the publisher is closed.
+     */
+    private void executeAndWriteAvro(JdbcDbHandler.Session theSession, final DateHour.Range theTimeChunk, final String theType, String theQuerySql, final DataLakePublisher thePublisher) throws Exception {
+        theSession.queryStreaming(theQuerySql, new JdbcDbHandler.RsAction() {
 
             @Override
             public void onData(ResultSet theRowSet) throws Exception {
@@ -312,24 +555,20 @@ public class DbToAvroHandler {
                 // Create a converter that converts from DB records to avro records.
                 RowSetToAvro aConverter = new RowSetToAvro("com.ws.db2avro." + theType, theRowSet);
 
-                // Create a publisher that writes the avro records to local filesystem and finally uploads them to S3.
-                DataLakePublisher aPublisher = new DataLakePublisher(
-                        myConfig.dstComponent, myConfig.dstSource, myConfig.localAvroRoot,
-                        myConfig.dstRoot.bucket, myS3Client.getCredentials().getAWSAccessKeyId(), myS3Client.getCredentials().getAWSSecretKey()
-                );
-
-                // Set storage class for uploaded files
-                aPublisher.setStorageClass(myConfig.dstStorageClass);
-                aPublisher.setFileNamePrefix(theAvroFileNamePrefix /* Can be null */);
-
                 // Create a writer handling avro records packaging
-                AvroWriter<GenericRecord> aWriter = aPublisher.createGenericRecordWriter(aConverter.getSchema(), Integer.MAX_VALUE - 100000, 10 * 3600);
+                AvroWriter<GenericRecord> aWriter = thePublisher.createGenericRecordWriter(aConverter.getSchema(), Integer.MAX_VALUE - 100000, 10 * 3600);
+
+                // Resolve timestamp column once instead of by name for every row
+                Schema.Field aTimestampField = aConverter.getSchema().getField("timestamp");
 
                 int aRecords = 0;
 
+                // Writer serializes records on write so one record can be reused for all rows
+                GenericRecord aRecord = null;
+
                 while (true) {
                     // Get DB record and convert it to avro
-                    GenericRecord aRecord = aConverter.next();
+                    aRecord = aConverter.next(aRecord);
 
                     // No more records?
                     if (aRecord == null) {
@@ -337,7 +576,7 @@ public class DbToAvroHandler {
                     }
 
                     // Get timestamp value if any such exists
-                    Long aTimestamp = (Long) aRecord.get("timestamp");
+                    Long aTimestamp = aTimestampField != null ? (Long) aRecord.get(aTimestampField.pos()) : null;
 
                     // Check if record timestamp within given range
                     if (aTimestamp != null && !theTimeChunk.inRange(aTimestamp)) {
@@ -354,14 +593,8 @@ public class DbToAvroHandler {
                     aRecords++;
                 }
 
-                // Close all avro files and upload them to S3
-                Collection<File> aFiles = aPublisher.publish();
-                aPublisher.close();
-
-                // TODO: We need to fix sync with replace load option to work with multiple files. Until then just try to catch them using alarms...
-                if (aFiles.size() > 1) {
-                    Alert.getAlert().alert("Data was written to multiple files, that's not supported by replace. This needs fixing... %s", Arrays.toString(aFiles.toArray()));
-                }
+                // Close the avro files, they are uploaded when the publisher is closed
+                aWriter.close();
 
                 ourLogger.info("Query executed and %s records stored as avro.", aRecords);
             }
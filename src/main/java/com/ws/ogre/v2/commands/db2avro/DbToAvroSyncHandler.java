@@ -5,21 +5,31 @@ import com.ws.common.logging.Logger;
 import com.ws.ogre.v2.db.DependencySqlFailedException;
 import com.ws.ogre.v2.utils.CommandSyncer;
 import com.ws.ogre.v2.datetime.DateHour;
+import com.ws.ogre.v2.utils.JobExecutorService;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.io.File;
+import java.util.*;
 
+/**
+ * Syncs the types chunk by chunk. Each type and chunk is synced as a task of its own and the tasks are run in
+ * parallel, at most src.db.maxParallelQueries at a time not to overload the source DB. Failed tasks are booked in a
+ * local retry journal and retried in the coming scans, also after a restart.
+ */
 public class DbToAvroSyncHandler extends DbToAvroHandler {
 
     private static final Logger ourLogger = Logger.getLogger();
 
     private static final int MAX_TIME_FOR_FAILED_CHUNK_FIX_MS = 24 * 60 * 60 * 1000 /* 1 day */;
 
-    private Map<Integer /* Chunk id (hash code) */, ChunkSyncStatus> mySyncFailedChunk = new HashMap<>();
+    private RetryJournal myRetryJournal;
+
+    private int myMaxParallelQueries;
 
     public DbToAvroSyncHandler(Config theConfig, Set<String> theCliTypes, Map<String, String> theVariables) {
         super(theConfig, theCliTypes, theVariables);
+
+        myRetryJournal = RetryJournal.load(new File(theConfig.syncRetryJournal));
+        myMaxParallelQueries = Math.max(1, theConfig.srcDbMaxParallelQueries);
     }
 
     public void scanAndDump(int theScanIntervalS, int theLookbackUnits, int theSyncEligibleDiffHour, DateHour.Range.Chunking theChunking) {
@@ -34,78 +44,87 @@ public class DbToAvroSyncHandler extends DbToAvroHandler {
     private void scanAndDump(DateHour.Ranges theUnitChunks, int theSyncEligibleDiffHour) {
         long theSyncEligibleDiffMs = theSyncEligibleDiffHour * 60 * 60 * 1000L;
 
-        // Load data chunk by chunks
+        Map<String, TypeChunk> aTasks = new LinkedHashMap<>();
+
         for (DateHour.Range aChunk : theUnitChunks) {
-            try {
-                initForDoingQueryForChunk(aChunk);
-
-                if (aChunk.getEndTimeDiffFromCurrentTime() < theSyncEligibleDiffMs) {
-                    dumpTimeRange(aChunk,
-                            false /* Sync should never replace. If any problem, do the "load" command */,
-                            true /* For recent running range (hour / day), no need to check dependency. */,
-                            true /* This time, the file is a partial as the range (hour / day) is not completed yet. */
-                    );
-                } else {
-                    dumpTimeRange(aChunk,
-                            false /* Sync should never replace. If any problem, do the "load" command */,
-                            false /* Must check dependency. */,
-                            false /* This time, its not a sync file. We expect it to load fully. */
-                    );
-                }
-
-                chunkSucceeded(aChunk);
-
-            } catch (DependencySqlFailedException e) {
-                chunkFailed(aChunk);
-                ourLogger.warn("[ Chunk %s ] Dependency failed. Don't worry. Will try soon.", aChunk, e);
-
-            } catch (Exception e) {
-                chunkFailed(aChunk);
-                ourLogger.warn("[ Chunk %s ] Failed to dump for data source problem. Don't worry. Will try soon.", aChunk, e);
+            for (String aType : myTypes) {
+                aTasks.put(RetryJournal.getKey(aType, aChunk), new TypeChunk(aType, aChunk));
+            }
+        }
+
+        // Also retry earlier failures that have fallen out of the lookback, e.g. after a longer outage
+        for (RetryJournal.Entry anEntry : myRetryJournal.getEntries()) {
+            if (myTypes.contains(anEntry.getType())) {
+                aTasks.putIfAbsent(RetryJournal.getKey(anEntry.getType(), anEntry.getChunk()), new TypeChunk(anEntry.getType(), anEntry.getChunk()));
             }
         }
 
+        ourLogger.info("Sync %s type chunk(s), %s at a time", aTasks.size(), myMaxParallelQueries);
+
+        new JobExecutorService<TypeChunk>(Math.min(myMaxParallelQueries, Math.max(1, aTasks.size())))
+                .addTasks(aTasks.values())
+                .execute(theTask -> syncTypeChunk(theTask, theSyncEligibleDiffMs));
+
         // If failed chunk were not recovered withing 1 day, then its a problem.
-        mySyncFailedChunk.entrySet().stream()
-                .filter(anEntry -> anEntry.getValue().myChunk.getEndTimeDiffFromCurrentTime() >= MAX_TIME_FOR_FAILED_CHUNK_FIX_MS)
-                .forEach(anEntry -> Alert.getAlert().alert("[ Chunk %s/%s ] is in black hole.", myTypes, anEntry.getValue()));
+        myRetryJournal.getEntries().stream()
+                .filter(anEntry -> anEntry.getChunk().getEndTimeDiffFromCurrentTime() >= MAX_TIME_FOR_FAILED_CHUNK_FIX_MS)
+                .forEach(anEntry -> Alert.getAlert().alert("[ Chunk %s/%s ] is in black hole.", anEntry.getType(), anEntry.getChunk()));
     }
 
-    private void chunkFailed(DateHour.Range theChunk) {
-        ChunkSyncStatus aStatus = mySyncFailedChunk.get(theChunk.hashCode());
-        if (aStatus == null) {
-            aStatus = new ChunkSyncStatus(theChunk, 0);
-            mySyncFailedChunk.put(theChunk.hashCode(), aStatus);
-        }
+    private void syncTypeChunk(TypeChunk theTask, long theSyncEligibleDiffMs) {
+        Set<String> aTypes = Collections.singleton(theTask.type);
+
+        try {
+            if (theTask.chunk.getEndTimeDiffFromCurrentTime() < theSyncEligibleDiffMs) {
+                dumpTimeRange(aTypes, theTask.chunk,
+                        false /* Sync should never replace. If any problem, do the "load" command */,
+                        true /* For recent running range (hour / day), no need to check dependency. */,
+                        true /* This time, the file is a partial as the range (hour / day) is not completed yet. */
+                );
+            } else {
+                dumpTimeRange(aTypes, theTask.chunk,
+                        false /* Sync should never replace. If any problem, do the "load" command */,
+                        false /* Must check dependency. */,
+                        false /* This time, its not a sync file. We expect it to load fully. */
+                );
+            }
+
+            chunkSucceeded(theTask);
+
+        } catch (DependencySqlFailedException e) {
+            myRetryJournal.failed(theTask.type, theTask.chunk);
+            ourLogger.warn("[ Chunk %s ] Dependency failed. Don't worry. Will try soon.", theTask, e);
 
-        aStatus.myFailCount++;
+        } catch (Exception e) {
+            myRetryJournal.failed(theTask.type, theTask.chunk);
+            ourLogger.warn("[ Chunk %s ] Failed to dump for data source problem. Don't worry. Will try soon.", theTask, e);
+        }
     }
 
-    private void chunkSucceeded(DateHour.Range theChunk) {
-        ChunkSyncStatus aStatus = mySyncFailedChunk.get(theChunk.hashCode());
-        if (aStatus == null) {
+    private void chunkSucceeded(TypeChunk theTask) {
+        RetryJournal.Entry anEntry = myRetryJournal.succeeded(theTask.type, theTask.chunk);
+
+        if (anEntry == null) {
             return; // No earlier failure.
         }
 
-        if (aStatus.myFailCount > 5) {
-            Alert.getAlert().alert("[ Chunk %s ] Successfully loaded after " + aStatus.myFailCount + " failure. Might be data unavailability issue in data source.", theChunk);
+        if (anEntry.getFailCount() > 5) {
+            Alert.getAlert().alert("[ Chunk %s ] Successfully loaded after " + anEntry.getFailCount() + " failure. Might be data unavailability issue in data source.", theTask);
         }
-
-        mySyncFailedChunk.remove(theChunk.hashCode());
     }
 
-    private class ChunkSyncStatus {
-        private DateHour.Range myChunk;
-        private int myFailCount = 0;
+    private static class TypeChunk {
+        private final String type;
+        private final DateHour.Range chunk;
 
-        public ChunkSyncStatus(DateHour.Range theChunk, int theFailCount) {
-            myChunk = theChunk;
-            myFailCount = theFailCount;
+        TypeChunk(String theType, DateHour.Range theChunk) {
+            type = theType;
+            chunk = theChunk;
         }
 
         @Override
         public String toString() {
-            return "chunk=" + myChunk + ", failCount=" + myFailCount;
+            return type + "/" + chunk;
         }
     }
 }
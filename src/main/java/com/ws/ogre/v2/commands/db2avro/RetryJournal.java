@@ -0,0 +1,162 @@
+package com.ws.ogre.v2.commands.db2avro;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+import com.ws.common.logging.Logger;
+import com.ws.ogre.v2.datetime.DateHour;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local journal of the type chunks that failed to sync and are to be retried. The journal is saved on every change
+ * so failed chunks are retried also after a restart, and also when they have fallen out of the sync lookback.
+ */
+public class RetryJournal {
+
+    private static final Logger ourLogger = Logger.getLogger();
+
+    private static final Gson ourGson = new Gson();
+
+    private transient File myFile;
+
+    @SerializedName("entries")
+    private Map<String, Entry> myEntries = new HashMap<>();
+
+    /** For Gson, to run the field initializers */
+    private RetryJournal() {
+    }
+
+    private RetryJournal(File theFile) {
+        myFile = theFile;
+    }
+
+    public static RetryJournal load(File theFile) {
+
+        if (!theFile.exists()) {
+            return new RetryJournal(theFile);
+        }
+
+        try {
+            RetryJournal aJournal = ourGson.fromJson(FileUtils.readFileToString(theFile, "UTF-8"), RetryJournal.class);
+
+            if (aJournal == null) {
+                return new RetryJournal(theFile);
+            }
+
+            aJournal.myFile = theFile;
+
+            ourLogger.info("Loaded %s failed chunk(s) to retry from %s", aJournal.myEntries.size(), theFile);
+
+            return aJournal;
+
+        } catch (Exception e) {
+            ourLogger.warn("Failed to read retry journal %s, start with an empty one", theFile, e);
+            return new RetryJournal(theFile);
+        }
+    }
+
+    /**
+     * Books a failed sync of a type chunk.
+     *
+     * @return the journal entry with the number of failures so far.
+     */
+    public synchronized Entry failed(String theType, DateHour.Range theChunk) {
+        String aKey = getKey(theType, theChunk);
+
+        Entry anEntry = myEntries.get(aKey);
+
+        if (anEntry == null) {
+            anEntry = new Entry(theType, theChunk);
+            myEntries.put(aKey, anEntry);
+        }
+
+        anEntry.failCount++;
+
+        save();
+
+        return anEntry;
+    }
+
+    /**
+     * Books a successful sync of a type chunk.
+     *
+     * @return the journal entry of earlier failures, null if none.
+     */
+    public synchronized Entry succeeded(String theType, DateHour.Range theChunk) {
+        Entry anEntry = myEntries.remove(getKey(theType, theChunk));
+
+        if (anEntry != null) {
+            save();
+        }
+
+        return anEntry;
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(myEntries.values());
+    }
+
+    public static String getKey(String theType, DateHour.Range theChunk) {
+        return theType + "/" + theChunk.getFrom() + "/" + theChunk.getTo();
+    }
+
+    private void save() {
+        try {
+            File aTmpFile = new File(myFile.getPath() + ".tmp");
+
+            FileUtils.writeStringToFile(aTmpFile, ourGson.toJson(this), "UTF-8");
+
+            // Replace the old journal in one go so a crash never leaves a half written journal behind
+            Files.move(aTmpFile.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            ourLogger.warn("Failed to save retry journal %s", myFile, e);
+        }
+    }
+
+    public static class Entry {
+
+        @SerializedName("type")
+        private String type;
+
+        @SerializedName("from")
+        private String from;
+
+        @SerializedName("to")
+        private String to;
+
+        @SerializedName("failCount")
+        private int failCount;
+
+        private Entry(String theType, DateHour.Range theChunk) {
+            type = theType;
+            from = theChunk.getFrom().toString();
+            to = theChunk.getTo().toString();
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public DateHour.Range getChunk() {
+            return new DateHour.Range(from, to);
+        }
+
+        public int getFailCount() {
+            return failCount;
+        }
+
+        @Override
+        public String toString() {
+            return "type=" + type + ", chunk=" + from + " - " + to + ", failCount=" + failCount;
+        }
+    }
+}
@@ -6,11 +6,8 @@ import org.apache.avro.SchemaBuilder;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 
-import javax.sql.rowset.JdbcRowSet;
 import java.nio.ByteBuffer;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.Types;
+import java.sql.*;
 
 /**
  * Converts a JDBC RowSet records to AVRO records dynamically.
@@ -22,9 +19,20 @@ public class RowSetToAvro {
 
     private static final Logger ourLogger = Logger.getLogger();
 
+    private static final ColumnReader INT_READER = (theRs, theColumn) -> {
+        int aValue = theRs.getInt(theColumn);
+        return theRs.wasNull() ? null : aValue;
+    };
+
+    private static final ColumnReader LONG_READER = (theRs, theColumn) -> {
+        long aValue = theRs.getLong(theColumn);
+        return theRs.wasNull() ? null : aValue;
+    };
+
     private ResultSetMetaData myMeta;
     private ResultSet myRowSet;
     private Schema mySchema;
+    private ColumnReader[] myReaders;
 
     private boolean iAmTimestamped;
 
@@ -33,12 +41,17 @@ public class RowSetToAvro {
         myRowSet = theRowSet;
         myMeta = theRowSet.getMetaData();
 
-        mySchema = createAvroSchema(myMeta, new Fqn(theAvroFqn));
+        myReaders = new ColumnReader[myMeta.getColumnCount()];
+        mySchema = createAvroSchema(myMeta, new Fqn(theAvroFqn), myReaders);
 
         iAmTimestamped = mySchema.getField("timestamp") != null;
     }
 
-    private Schema createAvroSchema(ResultSetMetaData theMeta, Fqn theAvroFqn) throws Exception {
+    /**
+     * Creates the schema and one reader per column, bound to the position of its field in the schema, in one pass so
+     * they always agree. The type resolution is done once per result set instead of for every cell.
+     */
+    private Schema createAvroSchema(ResultSetMetaData theMeta, Fqn theAvroFqn, ColumnReader[] theReaders) throws Exception {
 
         SchemaBuilder.FieldAssembler aFa = SchemaBuilder
                 .record(theAvroFqn.name)
@@ -55,28 +68,48 @@ public class RowSetToAvro {
                 case Types.BIT:
                 case Types.BOOLEAN:
                     aFa = aTb.booleanType().noDefault();
+                    theReaders[i - 1] = (theRs, theColumn) -> {
+                        boolean aValue = theRs.getBoolean(theColumn);
+                        return theRs.wasNull() ? null : aValue;
+                    };
                     break;
 
                 case Types.TINYINT:
                 case Types.SMALLINT:
                     aFa = aTb.intType().noDefault();
+                    theReaders[i - 1] = INT_READER;
                     break;
 
                 case Types.INTEGER:
-                    aFa = theMeta.isSigned(i) ? aTb.intType().noDefault() : aTb.longType().noDefault();
+                    if (theMeta.isSigned(i)) {
+                        aFa = aTb.intType().noDefault();
+                        theReaders[i - 1] = INT_READER;
+                    } else {
+                        aFa = aTb.longType().noDefault();
+                        theReaders[i - 1] = LONG_READER;
+                    }
                     break;
 
                 case Types.BIGINT:
                     aFa = aTb.longType().noDefault();
+                    theReaders[i - 1] = LONG_READER;
                     break;
 
                 case Types.REAL:
                     aFa = aTb.floatType().noDefault();
+                    theReaders[i - 1] = (theRs, theColumn) -> {
+                        float aValue = theRs.getFloat(theColumn);
+                        return theRs.wasNull() ? null : aValue;
+                    };
                     break;
 
                 case Types.FLOAT:
                 case Types.DOUBLE:
                     aFa = aTb.doubleType().noDefault();
+                    theReaders[i - 1] = (theRs, theColumn) -> {
+                        double aValue = theRs.getDouble(theColumn);
+                        return theRs.wasNull() ? null : aValue;
+                    };
                     break;
 
                 case Types.CHAR:
@@ -86,6 +119,7 @@ public class RowSetToAvro {
                 case Types.DECIMAL:
                 case Types.NUMERIC:
                     aFa = aTb.stringType().noDefault();
+                    theReaders[i - 1] = ResultSet::getString;
                     break;
 
                 case Types.BINARY:
@@ -93,12 +127,27 @@ public class RowSetToAvro {
                 case Types.LONGVARBINARY:
                 case Types.BLOB:
                     aFa = aTb.bytesType().noDefault();
+                    theReaders[i - 1] = (theRs, theColumn) -> {
+                        byte[] aValue = theRs.getBytes(theColumn);
+                        return aValue == null ? null : ByteBuffer.wrap(aValue);
+                    };
                     break;
 
                 case Types.DATE:
+                    aFa = aTb.longType().noDefault();
+                    theReaders[i - 1] = (theRs, theColumn) -> {
+                        Date aValue = theRs.getDate(theColumn);
+                        return aValue == null ? null : aValue.getTime();
+                    };
+                    break;
+
                 case Types.TIME:
                 case Types.TIMESTAMP:
                     aFa = aTb.longType().noDefault();
+                    theReaders[i - 1] = (theRs, theColumn) -> {
+                        Timestamp aValue = theRs.getTimestamp(theColumn);
+                        return aValue == null ? null : aValue.getTime();
+                    };
                     break;
 
                 default:
@@ -110,6 +159,16 @@ public class RowSetToAvro {
     }
 
     public GenericRecord next() throws Exception {
+        return next(null);
+    }
+
+    /**
+     * Reads next record into the given record, if any, to save allocations when the record is consumed before next
+     * call, e.g. when written to a synchronous writer.
+     *
+     * @return the read record or null if no more records.
+     */
+    public GenericRecord next(GenericRecord theReuse) throws Exception {
 
         // Read next record from JDBC RowSet if any
         boolean aValid = myRowSet.next();
@@ -118,80 +177,10 @@ public class RowSetToAvro {
             return null;
         }
 
-        GenericRecord aRecord = new GenericData.Record(mySchema);
-
-        for (int i = 1; i <= myMeta.getColumnCount(); i++) {
-
-            String aName = myMeta.getColumnLabel(i);
-
-            // Need to read value before usage of .wasNull()
-            myRowSet.getObject(i);
-
-            if (myRowSet.wasNull()) {
-                continue;
-            }
-
-            switch (myMeta.getColumnType(i)) {
-                case Types.BIT:
-                case Types.BOOLEAN:
-                    aRecord.put(aName, myRowSet.getBoolean(i));
-                    break;
-
-                case Types.TINYINT:
-                case Types.SMALLINT:
-                    aRecord.put(aName, myRowSet.getInt(i));
-                    break;
-
-                case Types.INTEGER:
-                    if (myMeta.isSigned(i)) {
-                        aRecord.put(aName, myRowSet.getInt(i));
-                    } else {
-                        aRecord.put(aName, myRowSet.getLong(i));
-                    }
-                    break;
-
-                case Types.BIGINT:
-                    aRecord.put(aName, myRowSet.getLong(i));
-                    break;
-
-                case Types.REAL:
-                    aRecord.put(aName, myRowSet.getFloat(i));
-                    break;
-
-                case Types.FLOAT:
-                case Types.DOUBLE:
-                    aRecord.put(aName, myRowSet.getDouble(i));
-                    break;
-
-                case Types.CHAR:
-                case Types.VARCHAR:
-                case Types.LONGVARCHAR:
-                case Types.LONGNVARCHAR:
-                case Types.DECIMAL:
-                case Types.NUMERIC:
-                    aRecord.put(aName, myRowSet.getString(i));
-                    break;
-
-                case Types.BINARY:
-                case Types.VARBINARY:
-                case Types.LONGVARBINARY:
-                case Types.BLOB:
-                    ByteBuffer aBuffer=ByteBuffer.wrap(myRowSet.getBytes(i));
-                    aRecord.put(aName, aBuffer);
-                    break;
-
-                case Types.DATE:
-                    aRecord.put(aName, myRowSet.getDate(i).getTime());
-                    break;
-                case Types.TIME:
-                case Types.TIMESTAMP:
-                    aRecord.put(aName, myRowSet.getTimestamp(i).getTime());
-                    break;
-
-                default:
-                    throw new RuntimeException("Cannot resolve db column type for table '" + aName + "', type: " + myMeta.getColumnType(i) + ", (" + myMeta.getColumnTypeName(i) + ")");
-            }
+        GenericRecord aRecord = theReuse != null ? theReuse : new GenericData.Record(mySchema);
 
+        for (int i = 0; i < myReaders.length; i++) {
+            aRecord.put(i, myReaders[i].read(myRowSet, i + 1));
         }
 
         return aRecord;
@@ -205,6 +194,10 @@ public class RowSetToAvro {
         return iAmTimestamped;
     }
 
+    private interface ColumnReader {
+        Object read(ResultSet theRs, int theColumn) throws SQLException;
+    }
+
     private static class Fqn {
         String namespace;
         String name;
@@ -6,7 +6,7 @@ import org.hibernate.HibernateException;
 import org.hibernate.dialect.*;
 
 import com.ws.ogre.v2.commands.db2avro.CliCommand.DdlCommand.Dialect;
-import javax.sql.rowset.JdbcRowSet;
+import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.Types;
 
@@ -16,7 +16,7 @@ public class RowSetToDdl {
 
     private static final Logger ourLogger = Logger.getLogger();
 
-    public static String getDdl(String theType, JdbcRowSet theRowSet, Dialect theDialect) throws Exception {
+    public static String getDdl(String theType, ResultSet theRowSet, Dialect theDialect) throws Exception {
         ResultSetMetaData aMeta = theRowSet.getMetaData();
 
         DbDialect aDialect = new MysqlDbDialect();
@@ -34,7 +34,7 @@ public class RowSetToDdl {
         return aDialect.getDdl(theType, aMeta);
     }
 
-    public static String getColumnMappings(String theType, JdbcRowSet theRowSet, Dialect theDialect) throws Exception {
+    public static String getColumnMappings(String theType, ResultSet theRowSet, Dialect theDialect) throws Exception {
 
         if (theDialect != Dialect.redshift) {
             return "";
@@ -3,6 +3,7 @@ package com.ws.ogre.v2.commands.db2avro;
 public enum StorageType {
 
     AVRO("avro"),
+    PARQUET("parquet"),
     CSV("csv"),
     TSV("tsv");
 
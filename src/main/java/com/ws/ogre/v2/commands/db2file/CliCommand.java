@@ -28,6 +28,9 @@ public class CliCommand {
         @Parameter(names = "-output", description = "Local path where to write the response (e.g., /path/to/output/json)")
         private String myOutputFilePath;
 
+        @Parameter(names = "-gzip", description = "If to gzip the response written to output")
+        private boolean iWillGzip = false;
+
         @Parameter(names = "-config", description = "The config file to use")
         private String myConfig = "db2file.conf";
 
@@ -42,6 +45,10 @@ public class CliCommand {
             return myOutputFilePath;
         }
 
+        public boolean isGzip() {
+            return iWillGzip;
+        }
+
         public String getConfig() {
             return myConfig;
         }
@@ -69,6 +76,7 @@ public class CliCommand {
         public String toString() {
             return "LoadCommand{" +
                     "myType=" + myType +
+                    ", iWillGzip=" + iWillGzip +
                     ", myConfig=" + myConfig +
                     ", myVariables=" + myVariables +
                     '}';
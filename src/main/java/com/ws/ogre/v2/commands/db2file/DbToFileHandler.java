@@ -9,6 +9,7 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.ResultSet;
 import java.util.Date;
 import java.util.HashMap;
@@ -53,9 +54,14 @@ public class DbToFileHandler {
         myVars.put("type", theType);
     }
 
-    public void load(String theType, String theOutputPath) {
+    public void load(String theType, String theOutputPath, boolean theGzip) {
         ourLogger.info("Execute SQL(s) for type: %s", theType);
 
+        File aFile = new File(theOutputPath);
+
+        // Write to a temp file and move it in place when done so no one reads a half written response
+        File aTmpFile = new File(theOutputPath + ".progress");
+
         try {
             // Get SQL(s) for type
             Config.Sql aSqlOrScript = myConfig.getSql(theType);
@@ -66,15 +72,21 @@ public class DbToFileHandler {
             // Parse and extracts SQLs from script
             initForDoingQuery();
             initForDoingQueryForType(theType);
-            ResultResponse aResponse = loadAsJson(aSqlOrScript);
 
-            FileUtils.writeStringToFile(new File(theOutputPath), aResponse.toJson(), "UTF-8");
+            try (ResultResponseWriter aWriter = new ResultResponseWriter(aTmpFile, theGzip)) {
+                loadAsJson(aSqlOrScript, aWriter);
+            }
+
+            FileUtils.deleteQuietly(aFile);
+            FileUtils.moveFile(aTmpFile, aFile);
 
         } catch (Exception e) {
             ourLogger.warn("Unable to run sql for type '%s'", theType, e);
 
-            try {
-                FileUtils.writeStringToFile(new File(theOutputPath), new ErrorResponse(e.getMessage()).toJson(), "UTF-8");
+            FileUtils.deleteQuietly(aTmpFile);
+
+            try (Writer aWriter = ResultResponseWriter.openWriter(aFile, theGzip)) {
+                aWriter.write(new ErrorResponse(e.getMessage()).toJson());
             } catch (IOException e1) {
                 ourLogger.warn("Unable to write error response for type '%s'", theType, e);
                 e1.printStackTrace();
@@ -82,43 +94,46 @@ public class DbToFileHandler {
         }
     }
 
-    private ResultResponse loadAsJson(Config.Sql aSqlOrScript) throws Exception {
+    private void loadAsJson(Config.Sql aSqlOrScript, ResultResponseWriter theWriter) throws Exception {
         SqlScript aScript = new SqlScript(aSqlOrScript.sql, myVars);
 
-        // All SQL(s) except the last one in script are for preparing end result, execute them here.
-        for (String aSql : aScript.getExecSqls()) {
-            ourLogger.debug("Execute: %s", aSql.replace('\n', ' '));
-            myDbHandler.execute(aSql);
-        }
+        // Run script in one session so the query sees e.g. temp tables created by the exec sqls
+        try (JdbcDbHandler.Session aSession = myDbHandler.openSession()) {
 
-        // The last SQL is the query returning the records to dump to file.
-        ourLogger.debug("Query: %s", aScript.getQuerySql().replace('\n', ' '));
-        return executeSql(aScript.getQuerySql());
-    }
+            // All SQL(s) except the last one in script are for preparing end result, execute them here.
+            for (String aSql : aScript.getExecSqls()) {
+                ourLogger.debug("Execute: %s", aSql.replace('\n', ' '));
+                aSession.execute(aSql);
+            }
 
-    private ResultResponse executeSql(String theSql) throws Exception {
-        ResultResponse aResponse = new ResultResponse();
+            // The last SQL is the query returning the records to dump to file.
+            ourLogger.debug("Query: %s", aScript.getQuerySql().replace('\n', ' '));
+            executeSql(aSession, aScript.getQuerySql(), theWriter);
+        }
+    }
 
-        myDbHandler.query(theSql, (ResultSet theRowSet) -> {
+    private void executeSql(JdbcDbHandler.Session theSession, String theSql, ResultResponseWriter theWriter) throws Exception {
+        theSession.queryStreaming(theSql, (ResultSet theRowSet) -> {
 
-            // Create a converter that converts from DB records to avro records.
+            // Create a converter that converts from DB records to JSON records.
             RowSetToJson aConverter = new RowSetToJson(theRowSet);
 
+            // Each record is written before the next is read so one record can be reused for all rows
+            ResultResponse.ResultData aRecord = null;
+
             while (true) {
-                // Get DB record and convert it to avro
-                ResultResponse.ResultData aRecord = aConverter.next();
+                // Get DB record and convert it to JSON
+                aRecord = aConverter.next(aRecord);
 
                 // No more records?
                 if (aRecord == null) {
                     break;
                 }
 
-                aResponse.addData(aRecord);
+                theWriter.write(aRecord);
             }
 
-            ourLogger.info("Query executed and %s records returned.", aResponse.getData().size());
+            ourLogger.info("Query executed and %s records returned.", theWriter.getCount());
         });
-
-        return aResponse;
     }
 }
@@ -0,0 +1,63 @@
+package com.ws.ogre.v2.commands.db2file;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a result to file as JSON row by row, so the result never has to be held in memory. The output is the same
+ * as for ResultResponse.toJson().
+ */
+public class ResultResponseWriter implements Closeable {
+
+    private static final Gson ourGson = new Gson();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private JsonWriter myWriter;
+    private int myCount;
+
+    public ResultResponseWriter(File theFile, boolean theGzip) throws IOException {
+        myWriter = new JsonWriter(openWriter(theFile, theGzip));
+
+        myWriter.beginObject();
+        myWriter.name("data");
+        myWriter.beginArray();
+    }
+
+    public void write(ResultResponse.ResultData theData) {
+        ourGson.toJson(theData, ResultResponse.ResultData.class, myWriter);
+        myCount++;
+    }
+
+    public int getCount() {
+        return myCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            myWriter.endArray();
+            myWriter.endObject();
+        } finally {
+            myWriter.close();
+        }
+    }
+
+    /**
+     * Opens a buffered UTF-8 writer to file, gzipped if asked to. Parent dirs are created if missing.
+     */
+    public static Writer openWriter(File theFile, boolean theGzip) throws IOException {
+        OutputStream anOut = FileUtils.openOutputStream(theFile);
+
+        if (theGzip) {
+            anOut = new GZIPOutputStream(anOut, BUFFER_SIZE);
+        }
+
+        return new BufferedWriter(new OutputStreamWriter(anOut, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+}
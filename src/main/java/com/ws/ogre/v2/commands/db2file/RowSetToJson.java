@@ -19,6 +19,16 @@ public class RowSetToJson {
     }
 
     public ResultResponse.ResultData next() throws Exception {
+        return next(null);
+    }
+
+    /**
+     * Reads next record into the given record, if any, to save allocations when the record is consumed before next
+     * call.
+     *
+     * @return the read record or null if no more records.
+     */
+    public ResultResponse.ResultData next(ResultResponse.ResultData theReuse) throws Exception {
 
         // Read next record from JDBC RowSet if any
         boolean aValid = myRowSet.next();
@@ -27,7 +37,9 @@ public class RowSetToJson {
             return null;
         }
 
-        ResultResponse.ResultData aData = new ResultResponse.ResultData();
+        ResultResponse.ResultData aData = theReuse != null ? theReuse : new ResultResponse.ResultData();
+
+        aData.clear();
 
         for (int i = 1; i <= myMeta.getColumnCount(); i++) {
 
@@ -1,6 +1,7 @@
 package com.ws.ogre.v2.datafile;
 
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.model.StorageClass;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.Upload;
@@ -105,16 +106,18 @@ public class DataFileHandler {
 
         // Fetch listing of files for prefix
         ourLogger.trace("Listing objects at s3://%s/%s", myRoot.bucket, aKeyPrefix);
-        List<S3Url> someUrls = myS3Client.listObjects(new S3Url(myRoot.bucket, aKeyPrefix));
+        List<S3ObjectSummary> someSummaries = myS3Client.listObjectSummaries(new S3Url(myRoot.bucket, aKeyPrefix));
 
         DataFiles aFiles = new DataFiles();
 
-        for (S3Url anUrl : someUrls) {
+        for (S3ObjectSummary aSummary : someSummaries) {
+            S3Url anUrl = new S3Url(aSummary.getBucketName(), aSummary.getKey());
+
             if (theRegExpFilter != null && !anUrl.toString().matches(theRegExpFilter)) {
                 ourLogger.debug("Skip %s since it does not match filter: %s", anUrl, theRegExpFilter);
                 continue;
             }
-            aFiles.add(new DataFile(anUrl));
+            aFiles.add(new DataFile(anUrl, aSummary.getSize(), aSummary.getETag()));
         }
 
         return aFiles;
@@ -126,16 +129,18 @@ public class DataFileHandler {
 
         // Fetch listing of files for prefix
         ourLogger.trace("Listing objects at s3://%s/%s", myRoot.bucket, aKeyPrefix);
-        List<S3Url> someUrls = myS3Client.listObjects(new S3Url(myRoot.bucket, aKeyPrefix));
+        List<S3ObjectSummary> someSummaries = myS3Client.listObjectSummaries(new S3Url(myRoot.bucket, aKeyPrefix));
 
         DataFiles aFiles = new DataFiles();
 
-        for (S3Url anUrl : someUrls) {
+        for (S3ObjectSummary aSummary : someSummaries) {
+            S3Url anUrl = new S3Url(aSummary.getBucketName(), aSummary.getKey());
+
             if (theRegExpFilter != null && !anUrl.toString().matches(theRegExpFilter)) {
                 ourLogger.debug("Skip %s since it does not match filter: %s", anUrl, theRegExpFilter);
                 continue;
             }
-            aFiles.add(new DataFile(anUrl));
+            aFiles.add(new DataFile(anUrl, aSummary.getSize(), aSummary.getETag()));
         }
 
         return aFiles;
@@ -461,6 +466,12 @@ public class DataFileHandler {
 
         public Date timestamp;
 
+        /* Size in bytes if known from listing, otherwise -1 */
+        public long size = -1;
+
+        /* ETag if known from listing, otherwise null */
+        public String eTag;
+
         /**
          * theUrl ==> s3://<bucket>/<avro/json/tsv>/<source>/<component>/<type>/d=2015-02-07/h=16/delivery.yyyymmddhh.random.avro             [ avro ]
          * theUrl ==> s3://<bucket>/<avro/json/tsv>/<source>/<component>/<type>/d=2015-02-07/h=16/delivery.yyyymmddhh.random.json.gz          [ json + gzipped ]
@@ -552,6 +563,16 @@ public class DataFileHandler {
             return new S3Url(String.format("%s/%s/d=%s-%s-%s/h=%s/%s.%s", theRoot, theType, aYear, aMonth, aDay, theHour, theName, theExt));
         }
 
+        public DataFile(S3Url theUrl, long theSize) {
+            this(theUrl);
+            size = theSize;
+        }
+
+        public DataFile(S3Url theUrl, long theSize, String theETag) {
+            this(theUrl, theSize);
+            eTag = theETag;
+        }
+
         @Override
         public String toString() {
             return url.toString();
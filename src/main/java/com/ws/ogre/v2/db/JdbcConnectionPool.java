@@ -0,0 +1,183 @@
+package com.ws.ogre.v2.db;
+
+import com.ws.common.logging.Logger;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Simple pool of JDBC connections to one DB. Idle connections are validated before handed out again and closed when
+ * idle for too long, so sync jobs sleeping between cycles do not keep connections open on the DB.
+ */
+public class JdbcConnectionPool {
+
+    private static final Logger ourLogger = Logger.getLogger();
+
+    private static final Timer ourEvictor = new Timer("JdbcConnectionPool-evictor", true);
+
+    private static final int VALIDATION_TIMEOUT_S = 5;
+
+    private final String myUrl;
+    private final Properties myProps;
+    private final int myMaxIdle;
+    private final long myMaxIdleTimeMs;
+
+    private final Deque<IdleConnection> myIdle = new ArrayDeque<>();
+
+    private final TimerTask myEvictTask = new TimerTask() {
+        public void run() {
+            evictIdle();
+        }
+    };
+
+    private boolean isClosed;
+
+    public JdbcConnectionPool(String theUrl, Properties theProps, int theMaxIdle, long theMaxIdleTimeMs) {
+        myUrl = theUrl;
+        myProps = theProps;
+        myMaxIdle = theMaxIdle;
+        myMaxIdleTimeMs = theMaxIdleTimeMs;
+
+        ourEvictor.schedule(myEvictTask, theMaxIdleTimeMs, theMaxIdleTimeMs);
+    }
+
+    public Connection borrow() throws SQLException {
+        while (true) {
+            IdleConnection anIdle;
+
+            synchronized (this) {
+                anIdle = myIdle.pollFirst();
+            }
+
+            if (anIdle == null) {
+                ourLogger.debug("Open new connection to %s", myUrl);
+                return DriverManager.getConnection(myUrl, myProps);
+            }
+
+            if (isExpired(anIdle) || !isValid(anIdle.connection)) {
+                closeQuietly(anIdle.connection);
+                continue;
+            }
+
+            return anIdle.connection;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param theDiscard true to close the connection instead of pooling it, e.g. when it may hold session state like
+     *                   temp tables or variables that must not leak into the next user of the connection.
+     */
+    public void release(Connection theConnection, boolean theDiscard) {
+
+        if (theDiscard || !reset(theConnection)) {
+            closeQuietly(theConnection);
+            return;
+        }
+
+        synchronized (this) {
+            if (!isClosed && myIdle.size() < myMaxIdle) {
+                // Most recently used first, lets the least used ones expire when load drops
+                myIdle.addFirst(new IdleConnection(theConnection));
+                return;
+            }
+        }
+
+        closeQuietly(theConnection);
+    }
+
+    public void close() {
+        List<IdleConnection> aToClose;
+
+        myEvictTask.cancel();
+
+        synchronized (this) {
+            isClosed = true;
+            aToClose = new ArrayList<>(myIdle);
+            myIdle.clear();
+        }
+
+        for (IdleConnection anIdle : aToClose) {
+            closeQuietly(anIdle.connection);
+        }
+    }
+
+    private void evictIdle() {
+        List<IdleConnection> anExpired = new ArrayList<>();
+
+        synchronized (this) {
+            Iterator<IdleConnection> anIt = myIdle.iterator();
+
+            while (anIt.hasNext()) {
+                IdleConnection anIdle = anIt.next();
+
+                if (isExpired(anIdle)) {
+                    anIt.remove();
+                    anExpired.add(anIdle);
+                }
+            }
+        }
+
+        for (IdleConnection anIdle : anExpired) {
+            ourLogger.debug("Close connection idle for more than %s ms", myMaxIdleTimeMs);
+            closeQuietly(anIdle.connection);
+        }
+    }
+
+    private boolean isExpired(IdleConnection theIdle) {
+        return System.currentTimeMillis() - theIdle.since > myMaxIdleTimeMs;
+    }
+
+    private boolean reset(Connection theConnection) {
+        try {
+            if (theConnection.isClosed()) {
+                return false;
+            }
+
+            if (!theConnection.getAutoCommit()) {
+                theConnection.rollback();
+                theConnection.setAutoCommit(true);
+            }
+
+            return true;
+
+        } catch (Exception e) {
+            ourLogger.debug("Failed to reset connection, will close it", e);
+            return false;
+        }
+    }
+
+    private static boolean isValid(Connection theConnection) {
+        try {
+            return theConnection.isValid(VALIDATION_TIMEOUT_S);
+
+        } catch (SQLException | AbstractMethodError e) {
+            // Driver does not support validation, the best we can do is to check it is not closed
+            try {
+                return !theConnection.isClosed();
+            } catch (SQLException e2) {
+                return false;
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection theConnection) {
+        try {
+            theConnection.close();
+        } catch (Exception e) {
+            ourLogger.debug("Failed to close connection", e);
+        }
+    }
+
+    private static class IdleConnection {
+        final Connection connection;
+        final long since = System.currentTimeMillis();
+
+        IdleConnection(Connection theConnection) {
+            connection = theConnection;
+        }
+    }
+}
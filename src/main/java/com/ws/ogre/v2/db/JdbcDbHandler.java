@@ -4,29 +4,45 @@ import com.sun.rowset.JdbcRowSetImpl;
 
 import javax.sql.rowset.JdbcRowSet;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.Map;
 import java.util.Properties;
+import java.util.regex.Pattern;
 
 
 /**
- * Handler for accessing and querying a DB using JDBC.
+ * Handler for accessing and querying a DB using JDBC. Connections are pooled and reused between statements.
  */
 public class JdbcDbHandler {
 
     public enum DbType {MYSQL, REDSHIFT, ATHENA}
 
+    private static final int POOL_MAX_IDLE = 8;
+    private static final long POOL_MAX_IDLE_TIME_MS = 5 * 60 * 1000;
+
+    private static final int STREAMING_FETCH_SIZE = 10000;
+
+    /** Statements, at the start of a line or after a ';', that leave state in the DB session. False positives only cost a reconnect */
+    private static final Pattern SESSION_STATE_SQL = Pattern.compile(
+            "(^|;)\\s*(create\\s+(local\\s+|global\\s+)?(temp|temporary)\\s|create\\s+table\\s+#|set\\s|use\\s|lock\\s|prepare\\s|begin\\b|start\\s+transaction)" +
+            "|\\binto\\s+(temp|temporary)\\s|\\binto\\s+#",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
+    private DbType myType;
     private String myUrl;
     private Properties myProps = new Properties();
 
+    private JdbcConnectionPool myPool;
+
     public JdbcDbHandler(DbType theType, String theHost, Integer thePort, String theDatabase, String theUser, String thePassword) {
         this(theType, theHost, thePort, theDatabase, theUser, thePassword, null);
     }
 
     public JdbcDbHandler(DbType theType, String theHost, Integer thePort, String theDatabase, String theUser, String thePassword, Map<String, Object> theCustomProps) {
 
+        myType = theType;
+
         try {
             switch (theType) {
                 case MYSQL:
@@ -47,6 +63,8 @@ public class JdbcDbHandler {
 
             initProperties(theUser, thePassword, theCustomProps);
 
+            myPool = new JdbcConnectionPool(myUrl, getConfigProperties(), POOL_MAX_IDLE, POOL_MAX_IDLE_TIME_MS);
+
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("Failed to load DB driver", e);
         }
@@ -92,74 +110,207 @@ public class JdbcDbHandler {
     }
 
     public boolean execute(String theSql) throws Exception {
-
-        try (
-                Connection aConn = DriverManager.getConnection(myUrl, getConfigProperties());
-                Statement aStmt = aConn.createStatement();
-        ) {
-            return aStmt.execute(theSql);
-
-        } catch (Exception e) {
-            throw new Exception("Failed to execute sql: " + theSql, e);
+        try (Session aSession = openSession()) {
+            return aSession.execute(theSql);
         }
     }
 
     public int executeUpdate(String theSql) throws Exception {
-
-        try (
-                Connection aConn = DriverManager.getConnection(myUrl, getConfigProperties());
-                Statement aStmt = aConn.createStatement();
-        ) {
-            return aStmt.executeUpdate(theSql);
-
-        } catch (Exception e) {
-            throw new Exception("Failed to execute sql: " + theSql, e);
+        try (Session aSession = openSession()) {
+            return aSession.executeUpdate(theSql);
         }
     }
 
     public void query(String theSql, RsAction theAction) throws Exception {
+        try (Session aSession = openSession()) {
+            aSession.query(theSql, theAction);
+        }
+    }
 
-        try (
-                Connection aConn = DriverManager.getConnection(myUrl, getConfigProperties());
-                Statement aStmt = aConn.createStatement();
-        ) {
+    public void queryStreaming(String theSql, RsAction theAction) throws Exception {
+        try (Session aSession = openSession()) {
+            aSession.queryStreaming(theSql, theAction);
+        }
+    }
 
-            theAction.onData(aStmt.executeQuery(theSql));
+    /**
+     * Opens a session pinning all statements executed through it to one connection, e.g. to let a query see temp
+     * tables created by previous statements. The session must be closed to give the connection back.
+     */
+    public Session openSession() throws Exception {
+        try {
+            return new Session(myType, myPool, myPool.borrow());
 
         } catch (Exception e) {
-            throw new Exception("Failed to execute sql: " + theSql, e);
+            throw new Exception("Failed to connect to: " + myUrl, e);
         }
     }
 
-    private Properties getConfigProperties() {
-        return myProps;
+    public void close() {
+        myPool.close();
     }
 
-    public interface RsAction {
-        void onData(ResultSet theResultSet) throws Exception;
+    private Properties getConfigProperties() {
+        return myProps;
     }
 
     /**
-     * @deprecated Not working with redshift query :(
+     * A sequence of statements executed on the same connection.
+     *
+     * Some statements leave state like temp tables or variables behind in the DB session. A session having executed
+     * such a statement is closed instead of pooled, so the state never leaks into the next user. Other statements, e.g.
+     * DDL, inserts or partition changes, let the connection go back to the pool, with any open transaction rolled back.
      */
-    public void query(String theSql, Action theAction) throws Exception {
+    public static class Session implements AutoCloseable {
 
-        try (
-                JdbcRowSetImpl aRs = new JdbcRowSetImpl();
-        ) {
-            aRs.setUrl(myUrl);
-            aRs.setUsername(myProps.getProperty("user"));
-            aRs.setPassword(myProps.getProperty("password"));
+        private DbType myType;
+        private JdbcConnectionPool myPool;
+        private Connection myConnection;
+        private boolean isDirty;
 
-            aRs.setCommand(theSql);
+        private Session(DbType theType, JdbcConnectionPool thePool, Connection theConnection) {
+            myType = theType;
+            myPool = thePool;
+            myConnection = theConnection;
+        }
 
-            aRs.execute();
+        public boolean execute(String theSql) throws Exception {
+            isDirty |= isSessionStateSql(theSql);
 
-            theAction.onData(aRs);
+            try (Statement aStmt = myConnection.createStatement()) {
+                return aStmt.execute(theSql);
 
-        } catch (Exception e) {
-            throw new Exception("Failed to execute sql: " + theSql, e);
+            } catch (Exception e) {
+                throw new Exception("Failed to execute sql: " + theSql, e);
+            }
         }
+
+        public int executeUpdate(String theSql) throws Exception {
+            isDirty |= isSessionStateSql(theSql);
+
+            try (Statement aStmt = myConnection.createStatement()) {
+                return aStmt.executeUpdate(theSql);
+
+            } catch (Exception e) {
+                throw new Exception("Failed to execute sql: " + theSql, e);
+            }
+        }
+
+        public void query(String theSql, RsAction theAction) throws Exception {
+            try (Statement aStmt = myConnection.createStatement()) {
+
+                theAction.onData(aStmt.executeQuery(theSql));
+
+            } catch (Exception e) {
+                throw new Exception("Failed to execute sql: " + theSql, e);
+            }
+        }
+
+        /**
+         * Queries with the result streamed from the DB while iterated instead of buffered in memory by the driver.
+         * Use for large results, e.g. full table exports. Note that while the result is being iterated the session
+         * cannot be used for other statements.
+         */
+        public void queryStreaming(String theSql, RsAction theAction) throws Exception {
+
+            boolean isAutoCommit = myConnection.getAutoCommit();
+            boolean isInTransaction = false;
+
+            try {
+                // Postgres based drivers only use a cursor, i.e. honour the fetch size, within a transaction
+                if (myType == DbType.REDSHIFT && isAutoCommit) {
+                    myConnection.setAutoCommit(false);
+                    isInTransaction = true;
+                }
+
+                try (Statement aStmt = myConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+                    aStmt.setFetchSize(getStreamingFetchSize());
+
+                    theAction.onData(aStmt.executeQuery(theSql));
+                }
+
+                if (isInTransaction) {
+                    myConnection.commit();
+                }
+
+            } catch (Exception e) {
+                if (isInTransaction) {
+                    rollbackQuietly();
+                }
+
+                throw new Exception("Failed to execute sql: " + theSql, e);
+
+            } finally {
+                if (isInTransaction) {
+                    restoreAutoCommitQuietly();
+                }
+            }
+        }
+
+        private int getStreamingFetchSize() {
+            switch (myType) {
+                case MYSQL:
+                    // Makes MySQL driver stream the result row by row
+                    return Integer.MIN_VALUE;
+
+                case ATHENA:
+                    // Max page size in Athena
+                    return 1000;
+
+                default:
+                    return STREAMING_FETCH_SIZE;
+            }
+        }
+
+        private void restoreAutoCommitQuietly() {
+            try {
+                myConnection.setAutoCommit(true);
+            } catch (Exception e) {
+                // Do not let anyone reuse a connection in unknown state
+                isDirty = true;
+            }
+        }
+
+        private void rollbackQuietly() {
+            try {
+                myConnection.rollback();
+            } catch (Exception e) {
+                // Connection will be discarded when released anyway
+                isDirty = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (myConnection != null) {
+                myPool.release(myConnection, isDirty);
+                myConnection = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if the SQL may leave state behind in the DB session: temp tables, variables, the default schema or
+     *         database, locks, prepared statements or an explicitly started transaction.
+     */
+    static boolean isSessionStateSql(String theSql) {
+        return SESSION_STATE_SQL.matcher(theSql).find();
+    }
+
+    public interface RsAction {
+        void onData(ResultSet theResultSet) throws Exception;
+    }
+
+    /**
+     * @deprecated Use query(String, RsAction).
+     */
+    public void query(String theSql, Action theAction) throws Exception {
+        query(theSql, (ResultSet theResultSet) -> {
+            // Not closed, closing the statement closes the result
+            JdbcRowSetImpl aRs = new JdbcRowSetImpl(theResultSet);
+            theAction.onData(aRs);
+        });
     }
 
     public interface Action {
@@ -0,0 +1,72 @@
+package com.ws.ogre.v2.db;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a query into slices on key ranges of an integer column in its result, see SqlScript. The query is wrapped
+ * as a derived table so the key column can be any column of the result.
+ */
+public class KeyRangeSplitter {
+
+    /**
+     * @return query returning the min and max key, the bounds SQL of the split if any, else a query over the query
+     *         result which runs the query once more.
+     */
+    public static String getBoundsSql(String theQuerySql, SqlScript.Split theSplit) {
+        if (theSplit.boundsSql != null) {
+            return theSplit.boundsSql;
+        }
+
+        return "select min(" + theSplit.column + "), max(" + theSplit.column + ") from (" + theQuerySql + ") ogre_split";
+    }
+
+    /**
+     * Splits the key range from theMin to theMax, both inclusive, into slices of equal width. Rows with a null key
+     * are included in the first slice so no rows are lost.
+     */
+    public static List<String> getSliceSqls(String theQuerySql, String theColumn, long theMin, long theMax, int theSlices) {
+
+        if (theMax < theMin) {
+            throw new IllegalArgumentException("Negative key range: " + theMin + " - " + theMax);
+        }
+
+        BigInteger aMin = BigInteger.valueOf(theMin);
+        BigInteger aMax = BigInteger.valueOf(theMax);
+
+        // Width of each slice, rounded up so the slices cover the whole range. In BigInteger since the range of keys
+        // spread over all longs does not fit in a long.
+        BigInteger aWidth = aMax.subtract(aMin).divide(BigInteger.valueOf(theSlices)).add(BigInteger.ONE);
+
+        List<String> aSqls = new ArrayList<>();
+
+        for (int i = 0; i < theSlices; i++) {
+            BigInteger aFrom = aMin.add(aWidth.multiply(BigInteger.valueOf(i)));
+
+            if (aFrom.compareTo(aMax) > 0) {
+                break;
+            }
+
+            BigInteger aTo = aFrom.add(aWidth);
+
+            StringBuilder aWhere = new StringBuilder();
+
+            aWhere.append("(").append(theColumn).append(" >= ").append(aFrom);
+
+            if (aTo.compareTo(aMax) <= 0) {
+                aWhere.append(" and ").append(theColumn).append(" < ").append(aTo);
+            }
+
+            aWhere.append(")");
+
+            if (i == 0) {
+                aWhere.append(" or ").append(theColumn).append(" is null");
+            }
+
+            aSqls.add("select * from (" + theQuerySql + ") ogre_split where " + aWhere);
+        }
+
+        return aSqls;
+    }
+}
@@ -14,12 +14,21 @@ import java.util.*;
  * The SQLs can contain comments enclosed by /<star> ... <star>/ or starting with //.
  * <p/>
  * Any variable references on format ${<name>} will be replaced by values in supplied variables if any matching.
+ * <p/>
+ * A script can declare that its query is to be split into key range slices run in parallel, by a statement on
+ * format "@split <column> <slices> [<bounds sql>];", e.g. "@split id 8;". The column must be an integer column in the
+ * query result. Each slice runs the exec SQLs in a session of its own, so they must only create session local state like
+ * temp tables or be safe to run more than once.
+ * <p/>
+ * The optional bounds SQL returns the min and max key, e.g. "@split id 8 select min(id), max(id) from Delivery;". Without
+ * it the bounds are queried from the query result, i.e. the query is run once more.
  */
 public class SqlScript {
 
     private List<String> myExecSqls = new ArrayList<>();
     private List<String> myDependencySqls = new ArrayList<>();
     private String myQuerySql;
+    private Split mySplit;
 
     public SqlScript(String theSqlOrUrl, Map<String, String> theVars) throws IOException {
 
@@ -58,6 +67,11 @@ public class SqlScript {
                 myDependencySqls.add(aSql.replace("@dependency", "").trim());
             }
 
+            // Split is a directive for how to run the query, not a sql to run.
+            else if (aSql.trim().startsWith("@split")) {
+                mySplit = Split.parse(aSql.trim());
+            }
+
             // All unannotated sqls are execution sqls.
             else {
                 myExecSqls.add(aSql.trim());
@@ -80,6 +94,13 @@ public class SqlScript {
         return myQuerySql;
     }
 
+    /**
+     * @return the key range split to run the query with, null if not split.
+     */
+    public Split getSplit() {
+        return mySplit;
+    }
+
     private static String[] split(String theString) {
 
         ArrayList<String> aStrings = new ArrayList<>();
@@ -106,6 +127,33 @@ public class SqlScript {
         return aStrings.toArray(new String[aStrings.size()]);
     }
 
+    public static class Split {
+        public final String column;
+        public final int slices;
+        public final String boundsSql;
+
+        Split(String theColumn, int theSlices, String theBoundsSql) {
+            column = theColumn;
+            slices = theSlices;
+            boundsSql = theBoundsSql;
+        }
+
+        static Split parse(String theDirective) {
+            String[] aParts = theDirective.split("\\s+", 4);
+
+            if (aParts.length < 3 || !aParts[2].matches("\\d+") || Integer.parseInt(aParts[2]) < 1) {
+                throw new IllegalArgumentException("Expected '@split <column> <slices> [<bounds sql>]', got: " + theDirective);
+            }
+
+            return new Split(aParts[1], Integer.parseInt(aParts[2]), aParts.length == 4 ? aParts[3] : null);
+        }
+
+        @Override
+        public String toString() {
+            return "column=" + column + ", slices=" + slices + ", boundsSql=" + boundsSql;
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         Map<String, String> aVars = new HashMap<>();
         aVars.put("apa", "banan");
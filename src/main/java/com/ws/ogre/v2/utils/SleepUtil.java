@@ -9,13 +9,14 @@ import com.ws.common.logging.Logger;
 public class SleepUtil {
 
     private static final Logger ourLogger = Logger.getLogger();
+    private static final Alert ourAlert = Alert.getAlert();
 
     public static final long MIN_SLEEP_TIME_IN_SCAN_MS = 60000L; /* 1min */
     public static final long SLEEP_TIME_IN_RETRY_MS = 300000L; /* 5min */
 
     public static void sleepInsideScan(long theMs) {
         if (theMs <= MIN_SLEEP_TIME_IN_SCAN_MS) {
-            Alert.getAlert().alert("No breathing time in continuous scanning. Might introduce pressure on data stores.");
+            ourAlert.alert("No breathing time in continuous scanning. Might introduce pressure on data stores.");
         }
 
         sleep(theMs);
@@ -7,19 +7,33 @@ import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.spi.LoggingEvent;
 
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
     Log4j appender that can push log messages to AWS SNS.
 
     With inspiration from com.twitsprout.appender.sns.SnsAsyncAppender.
 
+    The logging thread only formats the message and puts it in a bounded queue, a background thread publishes them to
+    SNS. When the queue is full the message is written to the log4j internal log (stderr) instead.
+
+    Alerts with the same logger, level and message within the coalesce window are sent once. The first one is sent
+    right away and the repeats, if any, in one message with their count when the window has passed.
+
     <appender name="sns" class="com.ws.ogre.v2.utils.SnsAsyncAppender">
        <param name="threshold" value="WARN"/>
        <param name="topicArn" value="arn:aws:sns:eu-west-1:xxx:xxx"/>
        <param name="subject" value="My Alarm"/>
        <param name="awsKeyId" value="xxx"/>
        <param name="awsSecretKey" value="xxx"/>
+       <param name="queueSize" value="1000"/>                (optional, default 1000)
+       <param name="coalesceWindowSeconds" value="60"/>     (optional, default 60, 0 to send all alerts)
 
         <layout class="org.apache.log4j.PatternLayout">
             <param name="ConversionPattern" value="%p %t %c - %m%n"/>
@@ -28,15 +42,26 @@ import java.util.concurrent.TimeUnit;
 */
 public class SnsAsyncAppender extends AppenderSkeleton {
 
+    /** Marks the end of the alerts in the queue */
+    private static final Alert END = new Alert(null, null, null);
+
     private String myTopicArn;
     private String myAwsKeyId;
     private String myAwsSecretKey;
     private String mySubject;
 
+    private int myQueueSize = 1000;
+    private long myCoalesceWindowMs = 60000;
+
     private SnsClient mySnsClient;
 
+    private BlockingQueue<Alert> myQueue;
+    private Thread mySender;
+
+    private final AtomicLong myDroppedCount = new AtomicLong();
+
     private boolean iAmInitialized = false;
-    private boolean mySnsClosed = true;
+    private volatile boolean mySnsClosed = true;
 
 
     public SnsAsyncAppender() {
@@ -62,21 +87,36 @@ public class SnsAsyncAppender extends AppenderSkeleton {
         return mySubject;
     }
 
-    synchronized private void lazyInit() {
-        try {
+    public void setQueueSize(int theQueueSize) {
+        myQueueSize = theQueueSize;
+    }
 
-            if (iAmInitialized) {
-                return;
-            }
+    public void setCoalesceWindowSeconds(int theSeconds) {
+        myCoalesceWindowMs = theSeconds * 1000L;
+    }
 
-            iAmInitialized = true;
-            mySnsClient = new SnsClient(myAwsKeyId, myAwsSecretKey);
-            mySnsClosed = false;
+    /**
+     * @return the number of alerts not sent since the queue was full.
+     */
+    public long getDroppedCount() {
+        return myDroppedCount.get();
+    }
 
-        } catch (Exception e) {
-            mySnsClosed = true;
-            throw new RuntimeException("Could not instantiate SnsAsyncAppender", e);
+    synchronized private void lazyInit() {
+
+        if (iAmInitialized) {
+            return;
         }
+
+        iAmInitialized = true;
+
+        myQueue = new ArrayBlockingQueue<>(Math.max(1, myQueueSize));
+
+        mySender = new Thread(this::run, "SnsAsyncAppender-" + getName());
+        mySender.setDaemon(true);
+        mySender.start();
+
+        mySnsClosed = false;
     }
 
     @Override
@@ -90,6 +130,10 @@ public class SnsAsyncAppender extends AppenderSkeleton {
             return;
         }
 
+        // Logged by the SNS client while sending, would loop
+        if (Thread.currentThread() == mySender) {
+            return;
+        }
 
         String aMsg;
         if (layout != null) {
@@ -101,14 +145,13 @@ public class SnsAsyncAppender extends AppenderSkeleton {
         String[] aStacktrace = theEvent.getThrowableStrRep();
 
         if (aStacktrace != null && aStacktrace.length > 0) {
+            StringBuilder aBuilder = new StringBuilder(aMsg);
+
             for (String aStr : aStacktrace) {
-                aMsg += "\n" + aStr;
+                aBuilder.append("\n").append(aStr);
             }
-        }
 
-        if (aMsg.getBytes().length > 64 * 1024) {
-            // SNS has a 64K limit on each published message.
-            aMsg = new String(Arrays.copyOf(aMsg.getBytes(), 64 * 1024));
+            aMsg = aBuilder.toString();
         }
 
         String aSubject = mySubject;
@@ -117,15 +160,115 @@ public class SnsAsyncAppender extends AppenderSkeleton {
             aSubject = theEvent.getLoggerName() + " log: " + theEvent.getLevel().toString();
         }
 
+        // Same alert regardless of time and thread
+        String aKey = theEvent.getLoggerName() + "\u0001" + theEvent.getLevel() + "\u0001" + theEvent.getRenderedMessage();
+
+        if (!myQueue.offer(new Alert(aKey, aSubject, aMsg))) {
+            myDroppedCount.incrementAndGet();
+            LogLog.warn("SNS alert queue full, not sent: " + aMsg);
+        }
+    }
+
+    /**
+     * Publishes a message to SNS, called by the background thread only.
+     */
+    protected void publish(String theSubject, String theMessage) throws Exception {
+
+        if (mySnsClient == null) {
+            mySnsClient = new SnsClient(myAwsKeyId, myAwsSecretKey);
+        }
+
+        if (theMessage.getBytes().length > 64 * 1024) {
+            // SNS has a 64K limit on each published message.
+            theMessage = new String(Arrays.copyOf(theMessage.getBytes(), 64 * 1024));
+        }
+
+        mySnsClient.publishAsyncAndGet(
+                new PublishRequest(myTopicArn, theMessage, theSubject),
+                10, TimeUnit.SECONDS
+        );
+    }
+
+    private void run() {
+
+        // Alerts sent within the window, by key
+        Map<String, Repeats> aSent = new LinkedHashMap<>();
+
+        while (true) {
+
+            Alert anAlert;
+
+            try {
+                long aWait = aSent.isEmpty() ? Long.MAX_VALUE : aSent.values().iterator().next().until - System.currentTimeMillis();
+
+                anAlert = myQueue.poll(Math.max(0, aWait), TimeUnit.MILLISECONDS);
+
+            } catch (InterruptedException e) {
+                anAlert = END;
+            }
+
+            if (anAlert == END) {
+                sendRepeats(aSent, Long.MAX_VALUE);
+                return;
+            }
+
+            long aNow = System.currentTimeMillis();
+
+            sendRepeats(aSent, aNow);
+
+            if (anAlert == null) {
+                continue;
+            }
+
+            Repeats aRepeats = aSent.get(anAlert.key);
+
+            if (aRepeats != null) {
+                aRepeats.count++;
+                aRepeats.last = anAlert;
+                continue;
+            }
+
+            send(anAlert.subject, anAlert.message);
+
+            if (myCoalesceWindowMs > 0) {
+                aSent.put(anAlert.key, new Repeats(aNow + myCoalesceWindowMs));
+            }
+        }
+    }
+
+    /**
+     * Sends the repeats of the alerts whose window ended before a time, in one message per alert.
+     */
+    private void sendRepeats(Map<String, Repeats> theSent, long theBefore) {
+
+        Iterator<Repeats> anIt = theSent.values().iterator();
+
+        while (anIt.hasNext()) {
+
+            Repeats aRepeats = anIt.next();
+
+            // In window order
+            if (aRepeats.until > theBefore) {
+                return;
+            }
+
+            anIt.remove();
+
+            if (aRepeats.count > 0) {
+                send(aRepeats.last.subject, "Repeated " + aRepeats.count + " times within " + myCoalesceWindowMs / 1000 + " s, last:\n" + aRepeats.last.message);
+            }
+        }
+    }
+
+    private void send(String theSubject, String theMessage) {
         try {
+            publish(theSubject, theMessage);
 
-            mySnsClient.publishAsyncAndGet(
-                    new PublishRequest(myTopicArn, aMsg, aSubject),
-                    10, TimeUnit.SECONDS
-            );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
 
         } catch (Exception e) {
-            LogLog.error("Could not log to SNS", e);
+            LogLog.error("Could not log to SNS: " + theMessage, e);
         }
     }
 
@@ -138,11 +281,47 @@ public class SnsAsyncAppender extends AppenderSkeleton {
         System.out.println("Closing SNS appender....");
 
         mySnsClosed = true;
-        mySnsClient.close();
+
+        try {
+            // Send what is queued, but do not hang the shutdown on SNS
+            if (!myQueue.offer(END, 10, TimeUnit.SECONDS)) {
+                mySender.interrupt();
+            }
+
+            mySender.join(30000);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (mySnsClient != null) {
+            mySnsClient.close();
+        }
     }
 
     public boolean requiresLayout() {
         return false;
     }
 
-}
\ No newline at end of file
+    private static class Alert {
+        private final String key;
+        private final String subject;
+        private final String message;
+
+        Alert(String theKey, String theSubject, String theMessage) {
+            key = theKey;
+            subject = theSubject;
+            message = theMessage;
+        }
+    }
+
+    private static class Repeats {
+        private final long until;
+        private int count;
+        private Alert last;
+
+        Repeats(long theUntil) {
+            until = theUntil;
+        }
+    }
+}
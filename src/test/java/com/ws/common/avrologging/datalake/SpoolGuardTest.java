@@ -0,0 +1,267 @@
+package com.ws.common.avrologging.datalake;
+
+import com.ws.common.avrologging.writer.v2.AvroRollingFileWriter;
+import com.ws.common.avrologging.writer.v2.AvroWriter;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class SpoolGuardTest {
+
+    private static final String ROOT_DIR = "/tmp/SpoolGuardTest/";
+
+    private static final Schema SCHEMA = new Schema.Parser().parse(
+            "{\"type\": \"record\", \"name\": \"Event\", \"fields\": [{\"name\": \"text\", \"type\": \"string\"}]}");
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(new File(ROOT_DIR));
+        new File(ROOT_DIR).mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(new File(ROOT_DIR));
+    }
+
+
+    @Test
+    public void testWatermarks() throws Exception {
+
+        SpoolGuard aGuard = new SpoolGuard(new File(ROOT_DIR), "avro");
+        aGuard.setWatermarks(1000, 500);
+        aGuard.setPolicy(SpoolGuard.Policy.SAMPLE, 0);
+
+        List<Integer> aRecords = new ArrayList<>();
+        AvroWriter<Integer> aWriter = aGuard.guard(new CollectingWriter(aRecords));
+
+        FileUtils.writeByteArrayToFile(new File(ROOT_DIR + "a/1.avro"), new byte[600]);
+        FileUtils.writeByteArrayToFile(new File(ROOT_DIR + "a/2.avro.progress"), new byte[600]);
+
+        aGuard.update();
+
+        assertEquals("Wrong spool bytes", 1200, aGuard.getSpoolBytes());
+        assertEquals("Wrong spool file count", 1, aGuard.getSpoolFileCount());
+        assertTrue("Not overflowing", aGuard.isOverflowing());
+
+        aWriter.write(0, 1);
+
+        // Still above the low watermark
+        new File(ROOT_DIR + "a/2.avro.progress").delete();
+        aGuard.update();
+
+        assertTrue("Not overflowing", aGuard.isOverflowing());
+
+        aWriter.write(0, 2);
+
+        new File(ROOT_DIR + "a/1.avro").delete();
+        aGuard.update();
+
+        assertFalse("Overflowing", aGuard.isOverflowing());
+
+        aWriter.write(0, 3);
+
+        assertEquals("Wrong records written", 1, aRecords.size());
+        assertEquals("Wrong number of records dropped", 2, aGuard.getDroppedCount());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+
+        SpoolGuard aGuard = new SpoolGuard(new File(ROOT_DIR), "avro");
+        aGuard.setWatermarks(100, 0);
+        aGuard.setPolicy(SpoolGuard.Policy.BLOCK, 0);
+
+        List<Integer> aRecords = new ArrayList<>();
+        AvroWriter<Integer> aWriter = aGuard.guard(new CollectingWriter(aRecords));
+
+        File aFile = new File(ROOT_DIR + "1.avro");
+        FileUtils.writeByteArrayToFile(aFile, new byte[200]);
+
+        aGuard.update();
+
+        Thread aThread = new Thread(() -> {
+            try {
+                aWriter.write(0, 1);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        aThread.start();
+
+        aThread.join(200);
+        assertTrue("Writer not blocked", aThread.isAlive());
+
+        aFile.delete();
+        aGuard.update();
+
+        aThread.join(5000);
+        assertFalse("Writer still blocked", aThread.isAlive());
+
+        synchronized (aRecords) {
+            assertEquals("Wrong records written", 1, aRecords.size());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBlockSameThread() throws Exception {
+
+        SpoolGuard aGuard = new SpoolGuard(new File(ROOT_DIR), "avro");
+        aGuard.setWatermarks(100, 0);
+        aGuard.setPolicy(SpoolGuard.Policy.BLOCK, 0);
+
+        File aFile = new File(ROOT_DIR + "1.avro");
+        FileUtils.writeByteArrayToFile(aFile, new byte[200]);
+
+        // Like a publish, the spool is only relieved by the blocked thread itself
+        aGuard.setRelief(() -> {
+            aFile.delete();
+            aGuard.update();
+        });
+
+        List<Integer> aRecords = new ArrayList<>();
+        AvroWriter<Integer> aWriter = aGuard.guard(new CollectingWriter(aRecords));
+
+        aGuard.update();
+        assertTrue("Not overflowing", aGuard.isOverflowing());
+
+        aWriter.write(0, 1);
+
+        assertFalse("Overflowing", aGuard.isOverflowing());
+        assertEquals("Wrong records written", 1, aRecords.size());
+    }
+
+    @Test
+    public void testNotMeasuredWhenDisabled() throws Exception {
+
+        SpoolGuard aGuard = new SpoolGuard(new File(ROOT_DIR), "avro");
+        aGuard.setMinFreeBytes(Long.MAX_VALUE);
+
+        FileUtils.writeByteArrayToFile(new File(ROOT_DIR + "a/1.avro"), new byte[600]);
+
+        aGuard.update();
+
+        // No watermarks nor cold compression, the spool is not walked but the free disk is still checked
+        assertEquals("Wrong spool bytes", 0, aGuard.getSpoolBytes());
+        assertEquals("Wrong spool file count", 0, aGuard.getSpoolFileCount());
+        assertTrue("Not overflowing", aGuard.isOverflowing());
+    }
+
+    @Test
+    public void testColdCompression() throws Exception {
+
+        File aFile = writeColdFile();
+
+        long aLength = aFile.length();
+        long aModified = aFile.lastModified();
+
+        SpoolGuard aGuard = new SpoolGuard(new File(ROOT_DIR), "avro");
+        aGuard.setColdCompression(CodecFactory.deflateCodec(9), 30000);
+
+        aGuard.update();
+
+        assertTrue("Not recompressed", aFile.length() < aLength / 2);
+        assertEquals("Wrong spool bytes", aFile.length(), aGuard.getSpoolBytes());
+        assertEquals("Modification time not kept", aModified / 1000, aFile.lastModified() / 1000);
+
+        int aCount = 0;
+
+        try (DataFileReader<GenericRecord> aReader = new DataFileReader<>(aFile, new GenericDatumReader<GenericRecord>())) {
+            assertEquals("deflate", aReader.getMetaString("avro.codec"));
+
+            while (aReader.hasNext()) {
+                aReader.next();
+                aCount++;
+            }
+        }
+
+        assertEquals("Wrong number of records", 1000, aCount);
+    }
+
+    @Test(timeout = 10000)
+    public void testColdCompressionWhileShipping() throws Exception {
+
+        File aFile = writeColdFile();
+
+        Object aShipLock = new Object();
+
+        SpoolGuard aGuard = new SpoolGuard(new File(ROOT_DIR), "avro");
+        aGuard.setColdCompression(CodecFactory.deflateCodec(9), 30000);
+        aGuard.setShipLock(aShipLock);
+
+        Thread anUpdate = new Thread(aGuard::update);
+
+        // The file is shipped and deleted while the update waits for the ship lock to recompress it
+        synchronized (aShipLock) {
+            anUpdate.start();
+
+            while (anUpdate.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(1);
+            }
+
+            assertTrue(aFile.delete());
+        }
+
+        anUpdate.join();
+
+        assertFalse("Shipped file recreated", aFile.exists());
+        assertEquals("Files left", 0, FileUtils.listFiles(new File(ROOT_DIR), null, true).size());
+    }
+
+    /**
+     * @return an uncompressed AVRO file modified a minute ago.
+     */
+    private static File writeColdFile() throws Exception {
+
+        AvroRollingFileWriter<GenericRecord> aWriter = new AvroRollingFileWriter<>(SCHEMA, ROOT_DIR + "%c{HHmmss}-%i.avro", ".progress", Integer.MAX_VALUE, 1000);
+        aWriter.setCodec(CodecFactory.nullCodec());
+
+        for (int i = 0; i < 1000; i++) {
+            GenericRecord aRecord = new GenericData.Record(SCHEMA);
+            aRecord.put("text", "the same text over and over again");
+            aWriter.write(System.currentTimeMillis(), aRecord);
+        }
+
+        aWriter.close();
+
+        File aFile = FileUtils.listFiles(new File(ROOT_DIR), new String[]{"avro"}, true).iterator().next();
+
+        assertTrue(aFile.setLastModified(aFile.lastModified() - 60000));
+
+        return aFile;
+    }
+
+    private static class CollectingWriter extends AvroWriter<Integer> {
+
+        private final List<Integer> myRecords;
+
+        CollectingWriter(List<Integer> theRecords) {
+            myRecords = theRecords;
+        }
+
+        @Override
+        public void write(long theTimestamp, Integer theRecord) {
+            synchronized (myRecords) {
+                myRecords.add(theRecord);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
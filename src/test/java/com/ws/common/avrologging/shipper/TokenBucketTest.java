@@ -0,0 +1,41 @@
+package com.ws.common.avrologging.shipper;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstNotThrottled() throws Exception {
+        TokenBucket aBucket = new TokenBucket(1000000);
+
+        long aStart = System.currentTimeMillis();
+
+        aBucket.take(500000);
+
+        assertTrue("Burst within capacity throttled", System.currentTimeMillis() - aStart < 200);
+    }
+
+    @Test
+    public void testRateLimited() throws Exception {
+        TokenBucket aBucket = new TokenBucket(1000000);
+
+        // Empty the initial burst
+        aBucket.take(1000000);
+
+        long aStart = System.currentTimeMillis();
+
+        try (InputStream anIn = new ThrottledInputStream(new ByteArrayInputStream(new byte[500000]), aBucket)) {
+            assertEquals(500000, IOUtils.toByteArray(anIn).length);
+        }
+
+        long aTime = System.currentTimeMillis() - aStart;
+
+        assertTrue("Read too fast: " + aTime + " ms", aTime >= 400);
+    }
+}
@@ -0,0 +1,162 @@
+package com.ws.common.avrologging.writer.v2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+
+public class AsyncAvroWriterTest {
+
+    @Test
+    public void testBlockWritesAll() throws Exception {
+
+        CollectingWriter aTarget = new CollectingWriter(null);
+
+        AsyncAvroWriter<Integer> aWriter = new AsyncAvroWriter<>(aTarget, 10, 4, AsyncAvroWriter.OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 10000; i++) {
+            aWriter.write(i, i);
+        }
+
+        aWriter.close();
+
+        assertTrue("Target not closed", aTarget.isClosed);
+        assertEquals("Wrong number of records", 10000, aTarget.myRecords.size());
+        assertEquals("Records dropped", 0, aWriter.getDroppedCount());
+    }
+
+    @Test
+    public void testDropNew() throws Exception {
+
+        CountDownLatch aGate = new CountDownLatch(1);
+        CollectingWriter aTarget = new CollectingWriter(aGate);
+
+        AsyncAvroWriter<Integer> aWriter = new AsyncAvroWriter<>(aTarget, 5, 1, AsyncAvroWriter.OverflowPolicy.DROP_NEW);
+
+        // First record is taken by the thread which then waits for the gate
+        aWriter.write(0, 0);
+        while (aWriter.getBufferedCount() > 0) {
+            Thread.sleep(1);
+        }
+
+        for (int i = 1; i <= 10; i++) {
+            aWriter.write(i, i);
+        }
+
+        aGate.countDown();
+        aWriter.close();
+
+        assertEquals("Wrong number of records dropped", 5, aWriter.getDroppedCount());
+        assertEquals("Wrong records written", asList(0, 1, 2, 3, 4, 5), aTarget.myRecords);
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+
+        CountDownLatch aGate = new CountDownLatch(1);
+        CollectingWriter aTarget = new CollectingWriter(aGate);
+
+        AsyncAvroWriter<Integer> aWriter = new AsyncAvroWriter<>(aTarget, 5, 1, AsyncAvroWriter.OverflowPolicy.DROP_OLDEST);
+
+        aWriter.write(0, 0);
+        while (aWriter.getBufferedCount() > 0) {
+            Thread.sleep(1);
+        }
+
+        for (int i = 1; i <= 10; i++) {
+            aWriter.write(i, i);
+        }
+
+        aGate.countDown();
+        aWriter.close();
+
+        assertEquals("Wrong number of records dropped", 5, aWriter.getDroppedCount());
+        assertEquals("Wrong records written", asList(0, 6, 7, 8, 9, 10), aTarget.myRecords);
+    }
+
+    @Test(timeout = 60000)
+    public void testDropOldestWhileClosing() throws Exception {
+
+        // Writers racing close must neither make it hang nor lose records uncounted
+        for (int aRun = 0; aRun < 50; aRun++) {
+
+            CollectingWriter aTarget = new CollectingWriter(null);
+
+            AsyncAvroWriter<Integer> aWriter = new AsyncAvroWriter<>(aTarget, 2, 2, AsyncAvroWriter.OverflowPolicy.DROP_OLDEST);
+
+            AtomicLong anAccepted = new AtomicLong();
+            CountDownLatch aStarted = new CountDownLatch(4);
+            List<Thread> aThreads = new ArrayList<>();
+
+            for (int i = 0; i < 4; i++) {
+                Thread aThread = new Thread(() -> {
+                    aStarted.countDown();
+
+                    try {
+                        for (int j = 0; ; j++) {
+                            aWriter.write(j, j);
+                            anAccepted.incrementAndGet();
+                        }
+
+                    } catch (IllegalStateException e) {
+                        // Closed
+
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+
+                aThread.start();
+                aThreads.add(aThread);
+            }
+
+            aStarted.await();
+            aWriter.close();
+
+            for (Thread aThread : aThreads) {
+                aThread.join();
+            }
+
+            assertTrue("Target not closed", aTarget.isClosed);
+            assertEquals("Records lost", anAccepted.get(), aTarget.myRecords.size() + aWriter.getDroppedCount());
+            assertEquals("Records left", 0, aWriter.getBufferedCount());
+        }
+    }
+
+    private static List<Integer> asList(Integer... theValues) {
+        List<Integer> aList = new ArrayList<>();
+        Collections.addAll(aList, theValues);
+        return aList;
+    }
+
+    private static class CollectingWriter extends AvroWriter<Integer> {
+
+        private final List<Integer> myRecords = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch myGate;
+        private boolean isClosed;
+
+        CollectingWriter(CountDownLatch theGate) {
+            myGate = theGate;
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+
+        @Override
+        public void write(long theTimestamp, Integer theRecord) throws Exception {
+            if (myGate != null) {
+                myGate.await();
+            }
+
+            myRecords.add(theRecord);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.ws.common.avrologging.writer.v2;
+
+import com.ws.common.logging.Logger;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Writes the same sample records with each codec and reports the CPU time spent and the bytes written, to help
+ * picking a codec. Run with -Dbenchmark.records=<n> for a longer run.
+ */
+public class AvroCodecBenchmarkTest {
+
+    private static final Logger ourLog = Logger.getLogger();
+
+    private static final String ROOT_DIR = "/tmp/AvroCodecBenchmarkTest/";
+
+    private static final String[] CODECS = {"null", "snappy", "deflate-1", "deflate-6", "deflate-9", "bzip2", "xz-6"};
+
+    private static final String SCHEMA_STRING =
+            "{\"namespace\": \"example.avro\",\n" +
+            " \"type\": \"record\",\n" +
+            " \"name\": \"Impression\",\n" +
+            " \"fields\": [\n" +
+            "     {\"name\": \"timestamp\", \"type\": \"long\"},\n" +
+            "     {\"name\": \"id\", \"type\": \"string\"},\n" +
+            "     {\"name\": \"campaign\", \"type\": \"int\"},\n" +
+            "     {\"name\": \"country\", \"type\": \"string\"},\n" +
+            "     {\"name\": \"url\", \"type\": [\"string\", \"null\"]},\n" +
+            "     {\"name\": \"price\", \"type\": \"double\"}\n" +
+            " ]\n" +
+            "}";
+
+    private static final Schema SCHEMA = new Schema.Parser().parse(SCHEMA_STRING);
+
+    private static final String[] COUNTRIES = {"se", "no", "dk", "fi", "de", "uk", "us"};
+
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(new File(ROOT_DIR));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(new File(ROOT_DIR));
+    }
+
+
+    @Test
+    public void testCodecs() throws Exception {
+
+        int aRecords = Integer.getInteger("benchmark.records", 10000);
+
+        ThreadMXBean aThreads = ManagementFactory.getThreadMXBean();
+
+        ourLog.info("%-10s %10s %12s %8s", "codec", "cpu ms", "bytes", "ratio");
+
+        long aNullBytes = 0;
+
+        for (String aCodec : CODECS) {
+
+            String aDir = ROOT_DIR + aCodec + "/";
+
+            RollingFileWriter<GenericRecord> aWriter = new AvroRollingFileWriter<>(SCHEMA, aDir + "%c{HHmmss}-%i.avro", ".progress", Integer.MAX_VALUE, 1000);
+            aWriter.setCodec(AvroCodecs.fromSpec(aCodec));
+
+            Random aRandom = new Random(4711); // Same records for all codecs
+            long aTime = System.currentTimeMillis();
+
+            long aStart = aThreads.getCurrentThreadCpuTime();
+
+            for (int i = 0; i < aRecords; i++) {
+                aWriter.write(aTime, createRecord(aRandom, aTime + i));
+            }
+
+            aWriter.close();
+
+            long aCpuMs = (aThreads.getCurrentThreadCpuTime() - aStart) / 1000000;
+
+            Collection<File> aFiles = FileUtils.listFiles(new File(aDir), null, true);
+
+            assertEquals("Wrong number of files for " + aCodec, 1, aFiles.size());
+
+            File aFile = aFiles.iterator().next();
+
+            if (aNullBytes == 0) {
+                aNullBytes = aFile.length();
+            }
+
+            ourLog.info("%-10s %10d %12d %8.2f", aCodec, aCpuMs, aFile.length(), (double) aNullBytes / aFile.length());
+
+            assertEquals("Wrong number of records for " + aCodec, aRecords, countRecords(aFile));
+        }
+    }
+
+    private static GenericRecord createRecord(Random theRandom, long theTimestamp) {
+        GenericRecord aRecord = new GenericData.Record(SCHEMA);
+        aRecord.put("timestamp", theTimestamp);
+        aRecord.put("id", Long.toHexString(theRandom.nextLong()));
+        aRecord.put("campaign", theRandom.nextInt(500));
+        aRecord.put("country", COUNTRIES[theRandom.nextInt(COUNTRIES.length)]);
+        aRecord.put("url", theRandom.nextInt(10) == 0 ? null : "https://www.example.com/article/" + theRandom.nextInt(5000) + ".html");
+        aRecord.put("price", theRandom.nextInt(10000) / 100.0);
+        return aRecord;
+    }
+
+    private static int countRecords(File theFile) throws Exception {
+        int aCount = 0;
+
+        try (DataFileReader<GenericRecord> aReader = new DataFileReader<>(theFile, new GenericDatumReader<GenericRecord>(SCHEMA))) {
+            while (aReader.hasNext()) {
+                aReader.next();
+                aCount++;
+            }
+        }
+
+        return aCount;
+    }
+}
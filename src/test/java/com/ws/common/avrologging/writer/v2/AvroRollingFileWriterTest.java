@@ -13,8 +13,13 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -490,6 +495,89 @@ public class AvroRollingFileWriterTest {
 
     }
 
+    @Test(timeout = 60000)
+    public void testParallelCreate() throws Exception {
+
+        // Two threads per file race to write to two files, the files must be created in parallel and the max count
+        // still be strict.
+
+        String FILENAME = ROOT_DIR + "date=%d{yyyy-MM-dd}/hour=%d{HH}/%c{yyyyMMddHH}-%i.avro";
+
+        int RECORDS_PER_THREAD = 1000;
+        int MAX_RECORDS_PER_FILE = 10;
+        int MAX_AGE_S = 1000;
+
+        // 16 hours apart so the buckets share a bin of the map, where creating a file under the map lock blocks the other
+        long aTime = System.currentTimeMillis() /DAY_MS *DAY_MS;
+        final long[] someTimes = {aTime, aTime + 16*HOUR_MS};
+
+        // The first two files are only created when both are created at the same time
+        final CountDownLatch aCreating = new CountDownLatch(2);
+        final AtomicBoolean isSequential = new AtomicBoolean();
+        final Set<File> someCompleted = Collections.synchronizedSet(new HashSet<File>());
+
+        final RollingFileWriter<GenericRecord> aWriter = new AvroRollingFileWriter<GenericRecord>(AvroUserFactory.SCHEMA, FILENAME, ".progress", MAX_RECORDS_PER_FILE, MAX_AGE_S) {
+            @Override
+            protected FileAppender<GenericRecord> createFileAppender(File theFile) throws IOException {
+                aCreating.countDown();
+
+                try {
+                    if (!aCreating.await(5, TimeUnit.SECONDS)) {
+                        isSequential.set(true);
+                    }
+
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+
+                return super.createFileAppender(theFile);
+            }
+        };
+
+        aWriter.addFileListener(someCompleted::add);
+
+        final AtomicInteger anErrors = new AtomicInteger();
+        List<Thread> aThreads = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            final long aThreadTime = someTimes[i % 2];
+
+            Thread aThread = new Thread(() -> {
+                try {
+                    for (int j = 0; j < RECORDS_PER_THREAD; j++) {
+                        aWriter.write(aThreadTime, AvroUserFactory.createUser("" + j, aThreadTime));
+                    }
+
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    anErrors.incrementAndGet();
+                }
+            });
+
+            aThread.start();
+            aThreads.add(aThread);
+        }
+
+        for (Thread aThread : aThreads) {
+            aThread.join();
+        }
+
+        aWriter.close();
+
+        assertFalse("Files were not created in parallel", isSequential.get());
+        assertEquals("Failed writes", 0, anErrors.get());
+
+        // The files of the threads losing a race to create one are deleted and not reported
+        Collection<File> aFiles = FileUtils.listFiles(new File(ROOT_DIR), null, true);
+
+        assertEquals("Wrong number of files written", 4 * RECORDS_PER_THREAD / MAX_RECORDS_PER_FILE, aFiles.size());
+        assertEquals("Wrong files reported", new HashSet<>(aFiles), someCompleted);
+
+        for (File aFile : aFiles) {
+            assertEquals("Wrong number of records in " + aFile, MAX_RECORDS_PER_FILE, readEntries(aFile, GenericRecord.class).size());
+        }
+    }
+
     private class TestRecords extends ArrayList<TestRecord> {}
 
     private class TestRecord {
@@ -0,0 +1,41 @@
+package com.ws.common.avrologging.writer.v2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+public class FilenameTemplateTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void testOneFilenamePerBucket() {
+        String[] somePatterns = {
+                "/x/%d{yyyy-MM-dd}/%d{HH}/%i.avro",
+                "/x/%d{yyyy-MM}/%i.avro",
+                "/x/%d{YYYY-ww}/%i.avro",
+                "/x/%d{yyyy-ww}/%i.avro",
+                "/x/%d{MM}/%d{W}/%i.avro",
+                "/x/%d{yyyy}/%d{ww}/%i.avro",
+        };
+
+        for (String aPattern : somePatterns) {
+            FilenameTemplate aTemplate = new FilenameTemplate(aPattern);
+
+            Map<Long, String> aNames = new HashMap<>();
+
+            // Two years of days, with week, month and year ends not aligned
+            long aFrom = LocalDate.of(2024, 12, 1).toEpochDay() * DAY_MS;
+
+            for (long aTime = aFrom; aTime < aFrom + 730 * DAY_MS; aTime += 6 * 60 * 60 * 1000L) {
+                String aName = aTemplate.format(aTime, "type", 0).replaceAll("/[0-9a-f]{16}\\.avro$", "");
+                String anOther = aNames.putIfAbsent(aTemplate.getBucket(aTime), aName);
+
+                Assert.assertTrue(aPattern + ": " + aName + " and " + anOther, anOther == null || anOther.equals(aName));
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.ws.common.avrologging.writer.v2;
+
+import com.ws.common.avrologging.parquet.ParquetCodec;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.reflect.Nullable;
+import org.apache.avro.reflect.ReflectData;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Reads the written files back with the parquet-avro reader.
+ */
+public class ParquetRollingFileWriterTest {
+
+    private static final String ROOT_DIR = "/tmp/ParquetRollingFileWriterTest/";
+
+    private static final String FILENAME = ROOT_DIR + "%t/d=%d{yyyy-MM-dd}/h=%d{HH}/%c{yyyyMMddHHmm}-%i.parquet";
+
+    private static final Schema SCHEMA = SchemaBuilder.record("Delivery").namespace("com.ws.test").fields()
+            .name("id").type().longType().noDefault()
+            .name("name").type().nullable().stringType().noDefault()
+            .name("count").type().nullable().intType().noDefault()
+            .name("price").type().nullable().doubleType().noDefault()
+            .name("valid").type().nullable().booleanType().noDefault()
+            .name("data").type().nullable().bytesType().noDefault()
+            .name("empty").type().nullable().longType().noDefault()
+            .endRecord();
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(new File(ROOT_DIR));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(new File(ROOT_DIR));
+    }
+
+    @Test
+    public void testReadBack() throws Exception {
+        int aRowCount = 50000;
+
+        for (ParquetCodec aCodec : ParquetCodec.values()) {
+            FileUtils.deleteDirectory(new File(ROOT_DIR));
+
+            // Small row groups to get more than one
+            RollingFileWriter<GenericRecord> aWriter = new ParquetRollingFileWriter<>(SCHEMA, FILENAME, ".progress", Integer.MAX_VALUE, 3600, aCodec, 64 * 1024);
+
+            long aTime = System.currentTimeMillis();
+
+            for (int i = 0; i < aRowCount; i++) {
+                aWriter.write(aTime, createRecord(i));
+            }
+
+            aWriter.close();
+
+            Collection<File> aFiles = FileUtils.listFiles(new File(ROOT_DIR), null, true);
+
+            assertEquals(aCodec + ": " + aFiles, 1, aFiles.size());
+
+            File aFile = aFiles.iterator().next();
+
+            assertTrue(aFile.getName().endsWith(".parquet"));
+
+            try (ParquetReader<GenericRecord> aReader = AvroParquetReader.<GenericRecord>builder(new Path(aFile.toURI())).build()) {
+                for (int i = 0; i < aRowCount; i++) {
+                    assertEquals(aCodec + ": row " + i, createRecord(i), aReader.read());
+                }
+
+                assertNull(aReader.read());
+            }
+
+            ParquetMetadata aFooter = ParquetFileReader.readFooter(new Configuration(), new Path(aFile.toURI()));
+
+            assertEquals(SCHEMA, new Schema.Parser().parse(aFooter.getFileMetaData().getKeyValueMetaData().get("parquet.avro.schema")));
+
+            List<BlockMetaData> aRowGroups = aFooter.getBlocks();
+
+            assertTrue(aCodec + ": row groups " + aRowGroups.size(), aRowGroups.size() > 1);
+
+            long aFirstRow = 0;
+
+            for (BlockMetaData aRowGroup : aRowGroups) {
+                long aRows = aRowGroup.getRowCount();
+
+                List<ColumnChunkMetaData> aColumns = aRowGroup.getColumns();
+
+                assertEquals(7, aColumns.size());
+
+                for (ColumnChunkMetaData aColumn : aColumns) {
+                    assertEquals(aCodec.getCompressionCodecName(), aColumn.getCodec());
+                    assertEquals(aRows, aColumn.getValueCount());
+                }
+
+                // Ids are in order so the min and max are the first and last of the row group
+                Statistics<?> anIdStats = aColumns.get(0).getStatistics();
+
+                assertEquals(aFirstRow, anIdStats.genericGetMin());
+                assertEquals(aFirstRow + aRows - 1, anIdStats.genericGetMax());
+                assertEquals(0, anIdStats.getNumNulls());
+
+                // Names of even ids are null
+                assertEquals((aFirstRow + aRows + 1) / 2 - (aFirstRow + 1) / 2, aColumns.get(1).getStatistics().getNumNulls());
+
+                // All null, no min/max
+                Statistics<?> anEmptyStats = aColumns.get(6).getStatistics();
+
+                assertEquals(aRows, anEmptyStats.getNumNulls());
+                assertFalse(anEmptyStats.hasNonNullValue());
+
+                aFirstRow += aRows;
+            }
+
+            assertEquals(aRowCount, aFirstRow);
+        }
+    }
+
+    @Test
+    public void testReflectedRecords() throws Exception {
+        RollingFileWriter<Event> aWriter = new ParquetRollingFileWriter<>(Event.class, FILENAME, ".progress", Integer.MAX_VALUE, 3600, ParquetCodec.SNAPPY, 1024 * 1024);
+
+        long aTime = System.currentTimeMillis();
+
+        for (int i = 0; i < 100; i++) {
+            aWriter.write(aTime, new Event(i, i % 3 == 0 ? null : "event" + i));
+        }
+
+        aWriter.close();
+
+        Collection<File> aFiles = FileUtils.listFiles(new File(ROOT_DIR), null, true);
+
+        assertEquals(aFiles.toString(), 1, aFiles.size());
+
+        List<Event> anEvents = new ArrayList<>();
+
+        try (ParquetReader<Event> aReader = AvroParquetReader.<Event>builder(new Path(aFiles.iterator().next().toURI())).withDataModel(ReflectData.get()).build()) {
+            for (Event anEvent = aReader.read(); anEvent != null; anEvent = aReader.read()) {
+                anEvents.add(anEvent);
+            }
+        }
+
+        assertEquals(100, anEvents.size());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, anEvents.get(i).id);
+            assertEquals(i % 3 == 0 ? null : "event" + i, anEvents.get(i).name);
+        }
+    }
+
+    private static GenericRecord createRecord(int theId) {
+        GenericRecord aRecord = new GenericData.Record(SCHEMA);
+        aRecord.put("id", (long) theId);
+        aRecord.put("name", theId % 2 == 0 ? null : "name" + theId);
+        aRecord.put("count", theId % 3 == 0 ? null : theId % 100);
+        aRecord.put("price", theId % 5 == 0 ? null : theId / 7.0);
+        aRecord.put("valid", theId % 7 == 0 ? null : theId % 2 == 0);
+        aRecord.put("data", theId % 11 == 0 ? null : ByteBuffer.wrap(new byte[]{(byte) theId, (byte) (theId >> 8)}));
+        aRecord.put("empty", null);
+        return aRecord;
+    }
+
+    public static class Event {
+        private long id;
+
+        @Nullable
+        private String name;
+
+        public Event() {
+        }
+
+        Event(long theId, String theName) {
+            id = theId;
+            name = theName;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.ws.common.logging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Compares resolving the calling class with a stack trace, the way it used to be done, with getLogger() and
+ * getAlert(). The timings are only logged, they vary too much between machines to assert. Run with
+ * -Dbenchmark.calls=<n> for a longer run.
+ */
+public class CallerResolutionBenchmarkTest {
+
+    private static final Logger ourLog = Logger.getLogger();
+
+    @Test
+    public void testResolution() {
+
+        int aCalls = Integer.getInteger("benchmark.calls", 100000);
+
+        // Warm up
+        runStackTrace(aCalls / 10);
+        runGetLogger(aCalls / 10);
+        runGetAlert(aCalls / 10);
+
+        long aStackTraceNs = runStackTrace(aCalls);
+        long aLoggerNs = runGetLogger(aCalls);
+        long anAlertNs = runGetAlert(aCalls);
+
+        ourLog.info("%-12s %10s", "method", "ns/call");
+        ourLog.info("%-12s %10d", "stack trace", aStackTraceNs / aCalls);
+        ourLog.info("%-12s %10d", "getLogger()", aLoggerNs / aCalls);
+        ourLog.info("%-12s %10d", "getAlert()", anAlertNs / aCalls);
+    }
+
+    @Test
+    public void testCaller() {
+        assertEquals(CallerResolutionBenchmarkTest.class.getName(), Logger.getLogger().getName());
+        assertSame(Logger.getLogger(), Logger.getLogger(CallerResolutionBenchmarkTest.class));
+        assertSame(Alert.getAlert(), Alert.getAlert(CallerResolutionBenchmarkTest.class));
+    }
+
+    private static long runStackTrace(int theCalls) {
+        String aName = CallerResolutionBenchmarkTest.class.getName();
+        long aStart = System.nanoTime();
+
+        for (int i = 0; i < theCalls; i++) {
+            assertEquals(aName, Thread.currentThread().getStackTrace()[1].getClassName());
+        }
+
+        return System.nanoTime() - aStart;
+    }
+
+    private static long runGetLogger(int theCalls) {
+        long aStart = System.nanoTime();
+
+        for (int i = 0; i < theCalls; i++) {
+            assertSame(ourLog, Logger.getLogger());
+        }
+
+        return System.nanoTime() - aStart;
+    }
+
+    private static long runGetAlert(int theCalls) {
+        Alert anAlert = Alert.getAlert(CallerResolutionBenchmarkTest.class);
+        long aStart = System.nanoTime();
+
+        for (int i = 0; i < theCalls; i++) {
+            assertSame(anAlert, Alert.getAlert());
+        }
+
+        return System.nanoTime() - aStart;
+    }
+}
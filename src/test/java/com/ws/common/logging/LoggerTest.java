@@ -92,6 +92,42 @@ public class LoggerTest {
 
     }
 
+    @Test
+    public void testSimpleFormat() {
+        Assert.assertEquals("apa 1 100% 2", Logger.format("apa %s 100%% %s", new Object[]{1, 2}));
+        Assert.assertEquals("apa" + System.lineSeparator() + "null", Logger.format("apa%n%s", new Object[]{null}));
+        Assert.assertEquals("Formatter fallback", "apa 01 2.50", Logger.format("apa %02d %.2f", new Object[]{1, 2.5}));
+        Assert.assertEquals("Formatter fallback", "apa    1", Logger.format("apa %4s", new Object[]{1}));
+        Assert.assertEquals("Missing argument", "apa %s %s", Logger.format("apa %s %s", new Object[]{1}));
+
+        // Formatting an argument that logs
+        Object aLogging = new Object() {
+            @Override
+            public String toString() {
+                return Logger.format("inner %s", new Object[]{"x"});
+            }
+        };
+        Assert.assertEquals("Nested format", "outer inner x!", Logger.format("outer %s!", new Object[]{aLogging}));
+    }
+
+    @Test
+    public void testLazyParams() {
+        ourTestLogger.debug("apa %s %s", () -> 1, () -> "2");
+        Assert.assertEquals("log row", "apa 1 2", myInMemoryAppender.getLogRows().remove(0));
+
+        ourTestLogger.setLevel("INFO");
+
+        try {
+            ourTestLogger.debug("apa %s", () -> {
+                throw new IllegalStateException("Evaluated when disabled");
+            });
+            Assert.assertTrue("Logged when disabled", myInMemoryAppender.getLogRows().isEmpty());
+
+        } finally {
+            ourTestLogger.setLevel("TRACE");
+        }
+    }
+
     @Test
     public void testNullParam() {
         Logger.getLogger().info("apa %s %s", null, 2);
@@ -0,0 +1,70 @@
+package com.ws.ogre.v2.aws;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public class S3MultipartOutputStreamTest {
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testPartsCompletedInOrder() throws Exception {
+
+        FakeS3Client aClient = new FakeS3Client();
+
+        S3MultipartOutputStream anOut = new S3MultipartOutputStream(aClient, new S3Url("s3://bucket/key"), StorageClass.Standard, 0, 4);
+
+        byte[] aChunk = new byte[1024 * 1024];
+
+        // 12 full parts and a last partial one
+        for (int i = 0; i < 12 * 5 + 2; i++) {
+            anOut.write(aChunk);
+        }
+
+        anOut.close();
+
+        Assert.assertNotNull("Not completed", aClient.myCompleted);
+        Assert.assertEquals(13, aClient.myCompleted.getPartETags().size());
+
+        for (int i = 0; i < 13; i++) {
+            Assert.assertEquals("Parts not in order", i + 1, aClient.myCompleted.getPartETags().get(i).getPartNumber());
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static class FakeS3Client extends AmazonS3Client {
+
+        private volatile CompleteMultipartUploadRequest myCompleted;
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest theRequest) {
+            InitiateMultipartUploadResult aResult = new InitiateMultipartUploadResult();
+            aResult.setUploadId("upload");
+            return aResult;
+        }
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest theRequest) {
+            try {
+                // Complete out of order
+                Thread.sleep(ThreadLocalRandom.current().nextInt(20));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+
+            UploadPartResult aResult = new UploadPartResult();
+            aResult.setPartNumber(theRequest.getPartNumber());
+            aResult.setETag("etag" + theRequest.getPartNumber());
+            return aResult;
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest theRequest) {
+            myCompleted = theRequest;
+            return new CompleteMultipartUploadResult();
+        }
+    }
+}
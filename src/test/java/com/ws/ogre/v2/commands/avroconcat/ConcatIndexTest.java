@@ -0,0 +1,71 @@
+package com.ws.ogre.v2.commands.avroconcat;
+
+import com.ws.ogre.v2.aws.S3Url;
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFile;
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFiles;
+import com.ws.ogre.v2.datetime.DateHour;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+public class ConcatIndexTest {
+
+    private static final String ROOT_DIR = "/tmp/ConcatIndexTest/";
+
+    private static final S3Url DST = new S3Url("s3://bucket/dst");
+
+    private static final DateHour HOUR = new DateHour("2020-01-01:10");
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(new File(ROOT_DIR));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(new File(ROOT_DIR));
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        ConcatIndex anIndex = new ConcatIndex(new File(ROOT_DIR), DST);
+
+        DataFiles anIncludes = new DataFiles();
+        anIncludes.add(new DataFile(new S3Url("s3://bucket/src/delivery/d=2020-01-01/h=10/1.avro")));
+
+        ConcatIndex.HourIndex anHour = anIndex.load(HOUR);
+        anHour.put(new S3Url("s3://bucket/dst/delivery/d=2020-01-01/h=10/1.mf"), anIncludes);
+        anHour.save();
+
+        // Saved again over the old index
+        anHour.save();
+
+        ConcatIndex.HourIndex aLoaded = anIndex.load(HOUR);
+
+        Assert.assertTrue(aLoaded.contains(new DataFile(new S3Url("s3://bucket/dst/delivery/d=2020-01-01/h=10/1.mf"))));
+        Assert.assertEquals(1, aLoaded.getIncludes().size());
+    }
+
+    @Test
+    public void testLoadWithoutManifests() throws Exception {
+        ConcatIndex anIndex = new ConcatIndex(new File(ROOT_DIR), DST);
+
+        // Index written without the field
+        anIndex.load(HOUR).save();
+        File aFile = FileUtils.listFiles(new File(ROOT_DIR), new String[]{"json"}, true).iterator().next();
+        FileUtils.writeStringToFile(aFile, "{}", "UTF-8");
+
+        ConcatIndex.HourIndex aLoaded = anIndex.load(HOUR);
+
+        Assert.assertFalse(aLoaded.contains(new DataFile(new S3Url("s3://bucket/dst/delivery/d=2020-01-01/h=10/1.mf"))));
+        Assert.assertEquals(0, aLoaded.getIncludes().size());
+
+        FileUtils.writeStringToFile(aFile, "{\"manifests\": null}", "UTF-8");
+
+        Assert.assertEquals(0, anIndex.load(HOUR).getIncludes().size());
+    }
+}
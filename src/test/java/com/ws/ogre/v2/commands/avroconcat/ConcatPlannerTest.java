@@ -0,0 +1,76 @@
+package com.ws.ogre.v2.commands.avroconcat;
+
+import com.ws.ogre.v2.aws.S3Url;
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFile;
+import com.ws.ogre.v2.datafile.DataFileHandler.DataFiles;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ConcatPlannerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testNoTargetSize() {
+        DataFiles aFiles = new DataFiles();
+        aFiles.add(file("h=10/0001", 100 * MB));
+        aFiles.add(file("h=10/0002", 900 * MB));
+        aFiles.add(file("h=10/0003", 1));
+
+        List<DataFiles> aBins = new ConcatPlanner(0).plan(aFiles);
+
+        Assert.assertEquals(1, aBins.size());
+        Assert.assertEquals(3, aBins.get(0).size());
+    }
+
+    @Test
+    public void testTargetSize() {
+        DataFiles aFiles = new DataFiles();
+        aFiles.add(file("h=10/0001", 100 * MB));
+        aFiles.add(file("h=10/0002", 100 * MB));
+        aFiles.add(file("h=10/0003", 100 * MB));
+        aFiles.add(file("h=10/0004", 50 * MB));
+        aFiles.add(file("h=10/0005", 300 * MB));
+
+        List<DataFiles> aBins = new ConcatPlanner(256 * MB).plan(aFiles);
+
+        Assert.assertEquals(3, aBins.size());
+        Assert.assertEquals(2, aBins.get(0).size());
+        Assert.assertEquals(2, aBins.get(1).size());
+        Assert.assertEquals("0003", aBins.get(1).get(0).name);
+        Assert.assertEquals(1, aBins.get(2).size());
+    }
+
+    @Test
+    public void testHourBoundary() {
+        DataFiles aFiles = new DataFiles();
+        aFiles.add(file("h=10/0001", MB));
+        aFiles.add(file("h=11/0001", MB));
+        aFiles.add(file("h=11/0002", MB));
+
+        List<DataFiles> aBins = new ConcatPlanner(256 * MB).plan(aFiles);
+
+        Assert.assertEquals(2, aBins.size());
+        Assert.assertEquals("10", aBins.get(0).get(0).hour);
+        Assert.assertEquals(2, aBins.get(1).size());
+    }
+
+    @Test
+    public void testUnknownSize() {
+        DataFiles aFiles = new DataFiles();
+        aFiles.add(file("h=10/0001", 200 * MB));
+        aFiles.add(file("h=10/0002", -1));
+        aFiles.add(file("h=10/0003", 100 * MB));
+
+        List<DataFiles> aBins = new ConcatPlanner(256 * MB).plan(aFiles);
+
+        Assert.assertEquals(2, aBins.size());
+        Assert.assertEquals(2, aBins.get(0).size());
+    }
+
+    private DataFile file(String theHourAndName, long theSize) {
+        return new DataFile(new S3Url("s3://bucket/avro/comp/src/delivery/d=2016-09-28/" + theHourAndName + ".avro"), theSize);
+    }
+}
@@ -0,0 +1,90 @@
+package com.ws.ogre.v2.commands.dataverifier;
+
+import com.ws.ogre.v2.db.JdbcDbHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class AggregatesTest {
+
+    @Test
+    public void testSql() throws Exception {
+        ResultColumns aColumns = columns(new String[]{"id", "price", "ratio", "name", "amount"}, new int[]{Types.BIGINT, Types.DECIMAL, Types.DOUBLE, Types.VARCHAR, Types.INTEGER});
+
+        Aggregates anAggregates = new Aggregates(aColumns, aColumns,
+                Arrays.asList(MismatchTolerance.ZERO_TOLERANCE, MismatchTolerance.ZERO_TOLERANCE, MismatchTolerance.ZERO_TOLERANCE, MismatchTolerance.ZERO_TOLERANCE, MismatchTolerance.getToleranceFromSpec("5%")),
+                "sum(hash)", null);
+
+        // Only the exact numbers without a tolerance are summed
+        Assert.assertEquals("select count(*), sum(`id`), sum(`price`), sum(hash) from (select 1) ogre_agg",
+                anAggregates.getRefSql("select 1", aColumns, JdbcDbHandler.DbType.MYSQL));
+        Assert.assertEquals("select count(*), sum(\"id\"), sum(\"price\") from (select 1) ogre_agg",
+                anAggregates.getTestSql("select 1", aColumns, JdbcDbHandler.DbType.REDSHIFT));
+
+        Assert.assertEquals("select * from (select 1) ogre_probe where 1 = 0", Aggregates.getProbeSql("select 1"));
+    }
+
+    @Test
+    public void testQuotedLabels() throws Exception {
+        ResultColumns aColumns = columns(new String[]{"a`b\"c"}, new int[]{Types.INTEGER});
+
+        Aggregates anAggregates = new Aggregates(aColumns, aColumns, Collections.emptyList(), null, null);
+
+        Assert.assertEquals("select count(*), sum(`a``b\"c`) from (q) ogre_agg", anAggregates.getRefSql("q", aColumns, JdbcDbHandler.DbType.MYSQL));
+        Assert.assertEquals("select count(*), sum(\"a`b\"\"c\") from (q) ogre_agg", anAggregates.getRefSql("q", aColumns, JdbcDbHandler.DbType.REDSHIFT));
+    }
+
+    @Test
+    public void testIsEqual() {
+        Assert.assertTrue(Aggregates.isEqual("10", "10.00"));
+        Assert.assertTrue(Aggregates.isEqual(" 1e2", "100 "));
+        Assert.assertFalse(Aggregates.isEqual("10", "10.01"));
+        Assert.assertTrue(Aggregates.isEqual(null, null));
+        Assert.assertFalse(Aggregates.isEqual(null, "0"));
+        Assert.assertFalse(Aggregates.isEqual("0", null));
+        Assert.assertTrue(Aggregates.isEqual("abc", "abc"));
+        Assert.assertFalse(Aggregates.isEqual("abc", "ABC"));
+    }
+
+    @Test
+    public void testMismatches() throws Exception {
+        ResultColumns aColumns = columns(new String[]{"id"}, new int[]{Types.BIGINT});
+
+        Aggregates anAggregates = new Aggregates(aColumns, aColumns, Collections.emptyList(), "x", "y");
+
+        Assert.assertEquals(Collections.emptyList(), anAggregates.getMismatches(aColumns, new String[]{"2", "3", "7"}, new String[]{"2", "3.0", "7"}));
+        Assert.assertEquals(Arrays.asList("count: 2 != 1", "extra#1: 7 != null"), anAggregates.getMismatches(aColumns, new String[]{"2", "3", "7"}, new String[]{"1", "3", null}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchesOfDifferentLengths() throws Exception {
+        ResultColumns aColumns = columns(new String[]{"id"}, new int[]{Types.BIGINT});
+
+        Aggregates anAggregates = new Aggregates(aColumns, aColumns, Collections.emptyList(), "x, y", "x");
+
+        anAggregates.getMismatches(aColumns, new String[]{"2", "3", "7", "8"}, new String[]{"2", "3", "7"});
+    }
+
+    private static ResultColumns columns(String[] theNames, int[] theTypes) throws Exception {
+        ResultSetMetaData aMetaData = (ResultSetMetaData) Proxy.newProxyInstance(AggregatesTest.class.getClassLoader(), new Class[]{ResultSetMetaData.class}, (theProxy, theMethod, theArgs) -> {
+            switch (theMethod.getName()) {
+                case "getColumnCount":
+                    return theNames.length;
+                case "getColumnName":
+                case "getColumnLabel":
+                    return theNames[(Integer) theArgs[0] - 1];
+                case "getColumnType":
+                    return theTypes[(Integer) theArgs[0] - 1];
+                default:
+                    throw new UnsupportedOperationException(theMethod.getName());
+            }
+        });
+
+        return new ResultColumns(aMetaData);
+    }
+}
@@ -0,0 +1,135 @@
+package com.ws.ogre.v2.commands.dataverifier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class RowMatcherTest {
+
+    private static final File TMP = new File(System.getProperty("java.io.tmpdir"));
+
+    @Test
+    public void testHashJoin() throws Exception {
+        Result aResult = match(new RowMatcher(new int[]{0}, 100, TMP));
+
+        Assert.assertEquals(Arrays.asList("1:a=a", "3:c=x", "5:e=e", "5:f=g"), aResult.pairs);
+        Assert.assertEquals(Arrays.asList("2"), aResult.missingInTest);
+        Assert.assertEquals(Arrays.asList("4", "6"), aResult.missingInRef);
+    }
+
+    @Test
+    public void testSortMerge() throws Exception {
+        Result aResult = match(new RowMatcher(new int[]{0}, 2, TMP));
+
+        Assert.assertEquals(Arrays.asList("1:a=a", "3:c=x", "5:e=e", "5:f=g"), aResult.pairs);
+        Assert.assertEquals(Arrays.asList("2"), aResult.missingInTest);
+        Assert.assertEquals(Arrays.asList("4", "6"), aResult.missingInRef);
+    }
+
+    @Test(timeout = 10000)
+    public void testTestReadWhileReadingRef() throws Exception {
+        final CountDownLatch aTestRead = new CountDownLatch(1);
+
+        final Iterator<String[]> aRefs = rows("1,a", "2,b").iterator();
+        final Iterator<String[]> aTests = rows("1,a", "2,x").iterator();
+
+        // The reference does not end until the test is read to the end, like a DB held back by a full buffer
+        RowMatcher.RowSource aRef = () -> {
+            if (aRefs.hasNext()) {
+                return aRefs.next();
+            }
+
+            aTestRead.await();
+            return null;
+        };
+
+        RowMatcher.RowSource aTest = () -> {
+            if (aTests.hasNext()) {
+                return aTests.next();
+            }
+
+            aTestRead.countDown();
+            return null;
+        };
+
+        final List<String> aPairs = new ArrayList<>();
+
+        new RowMatcher(new int[]{0}, 100, TMP).match(aRef, aTest, new RowMatcher.Listener() {
+            public void onPair(String[] theRef, String[] theTest) {
+                aPairs.add(theRef[0] + ":" + theRef[1] + "=" + theTest[1]);
+            }
+
+            public void onMissingInTest(String[] theRef) {
+                Assert.fail();
+            }
+
+            public void onMissingInRef(String[] theTest) {
+                Assert.fail();
+            }
+        });
+
+        Assert.assertEquals(Arrays.asList("1:a=a", "2:b=x"), aPairs);
+    }
+
+    @Test
+    public void testInOrder() throws Exception {
+        Result aResult = match(new RowMatcher(new int[0], 100, TMP));
+
+        // Paired by position, so one row out of order mismatches all the rest
+        Assert.assertEquals(Arrays.asList("1:a=x", "2:b=g", "3:c=e", "5:e=a", "5:f=d"), aResult.pairs);
+        Assert.assertEquals(Arrays.asList(), aResult.missingInTest);
+        Assert.assertEquals(Arrays.asList("6"), aResult.missingInRef);
+    }
+
+    private static Result match(RowMatcher theMatcher) throws Exception {
+        List<String[]> aRef = rows("5,e", "1,a", "3,c", "2,b", "5,f");
+        List<String[]> aTest = rows("1,a", "3,x", "5,e", "5,g", "4,d", "6,z");
+
+        final Result aResult = new Result();
+
+        theMatcher.match(source(aRef), source(aTest), new RowMatcher.Listener() {
+            public void onPair(String[] theRef, String[] theTest) {
+                aResult.pairs.add(theRef[0] + ":" + theRef[1] + "=" + theTest[1]);
+            }
+
+            public void onMissingInTest(String[] theRef) {
+                aResult.missingInTest.add(theRef[0]);
+            }
+
+            public void onMissingInRef(String[] theTest) {
+                aResult.missingInRef.add(theTest[0]);
+            }
+        });
+
+        aResult.pairs.sort(null);
+
+        return aResult;
+    }
+
+    private static List<String[]> rows(String... theRows) {
+        List<String[]> aRows = new ArrayList<>();
+
+        for (String aRow : theRows) {
+            aRows.add(aRow.split(","));
+        }
+
+        return aRows;
+    }
+
+    private static RowMatcher.RowSource source(List<String[]> theRows) {
+        final Iterator<String[]> anIt = theRows.iterator();
+        return () -> anIt.hasNext() ? anIt.next() : null;
+    }
+
+    private static class Result {
+        List<String> pairs = new ArrayList<>();
+        List<String> missingInTest = new ArrayList<>();
+        List<String> missingInRef = new ArrayList<>();
+    }
+}
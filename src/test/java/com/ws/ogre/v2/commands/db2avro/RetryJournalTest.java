@@ -0,0 +1,61 @@
+package com.ws.ogre.v2.commands.db2avro;
+
+import com.ws.ogre.v2.datetime.DateHour;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class RetryJournalTest {
+
+    private File myDir;
+
+    @Before
+    public void setUp() throws Exception {
+        myDir = Files.createTempDirectory("retryjournal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(myDir);
+    }
+
+    @Test
+    public void testSurvivesReload() {
+        File aFile = new File(myDir, "sub/journal.json");
+        DateHour.Range aChunk = new DateHour.Range("2016-09-28:00", "2016-09-28:23");
+
+        RetryJournal aJournal = RetryJournal.load(aFile);
+        aJournal.failed("delivery", aChunk);
+        aJournal.failed("delivery", aChunk);
+        aJournal.failed("click", aChunk);
+
+        RetryJournal aReloaded = RetryJournal.load(aFile);
+
+        Assert.assertEquals(2, aReloaded.getEntries().size());
+
+        RetryJournal.Entry anEntry = aReloaded.succeeded("delivery", aChunk);
+
+        Assert.assertNotNull(anEntry);
+        Assert.assertEquals(2, anEntry.getFailCount());
+        Assert.assertEquals("2016-09-28:23", anEntry.getChunk().getTo().toString());
+
+        Assert.assertEquals(1, RetryJournal.load(aFile).getEntries().size());
+        Assert.assertNull(aReloaded.succeeded("delivery", aChunk));
+    }
+
+    @Test
+    public void testEmptyJournal() throws Exception {
+        File aFile = new File(myDir, "journal.json");
+        FileUtils.writeStringToFile(aFile, "{}", "UTF-8");
+
+        RetryJournal aJournal = RetryJournal.load(aFile);
+
+        Assert.assertEquals(0, aJournal.getEntries().size());
+        Assert.assertEquals(1, aJournal.failed("delivery", new DateHour.Range("2016-09-28:00", "2016-09-28:23")).getFailCount());
+    }
+}
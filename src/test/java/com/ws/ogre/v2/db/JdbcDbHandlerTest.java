@@ -0,0 +1,27 @@
+package com.ws.ogre.v2.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JdbcDbHandlerTest {
+
+    @Test
+    public void testSessionStateSql() {
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("create temp table t as select 1"));
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("CREATE TEMPORARY TABLE t (id int)"));
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("create table #t (id int)"));
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("select * into temp table t from s"));
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("set @from = '2020-01-01'"));
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("set search_path to abc"));
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("use mydb"));
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("-- Tmp table\ncreate temp table t as select 1"));
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("delete from t; create temp table t2 as select 1"));
+        Assert.assertTrue(JdbcDbHandler.isSessionStateSql("begin"));
+
+        Assert.assertFalse(JdbcDbHandler.isSessionStateSql("alter table t add partition (d='2020-01-01')"));
+        Assert.assertFalse(JdbcDbHandler.isSessionStateSql("create table if not exists t (id int)"));
+        Assert.assertFalse(JdbcDbHandler.isSessionStateSql("update t set a = 1 where id = 2"));
+        Assert.assertFalse(JdbcDbHandler.isSessionStateSql("insert into t select * from settings"));
+        Assert.assertFalse(JdbcDbHandler.isSessionStateSql("SELECT NOW()"));
+    }
+}
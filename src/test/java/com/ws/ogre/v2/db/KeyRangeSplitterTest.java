@@ -0,0 +1,62 @@
+package com.ws.ogre.v2.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+
+public class KeyRangeSplitterTest {
+
+    @Test
+    public void testSliceSqls() {
+        List<String> aSqls = KeyRangeSplitter.getSliceSqls("select * from Delivery", "id", 1, 100, 4);
+
+        Assert.assertEquals(4, aSqls.size());
+        Assert.assertEquals("select * from (select * from Delivery) ogre_split where (id >= 1 and id < 26) or id is null", aSqls.get(0));
+        Assert.assertEquals("select * from (select * from Delivery) ogre_split where (id >= 26 and id < 51)", aSqls.get(1));
+        Assert.assertEquals("select * from (select * from Delivery) ogre_split where (id >= 76)", aSqls.get(3));
+    }
+
+    @Test
+    public void testMoreSlicesThanKeys() {
+        List<String> aSqls = KeyRangeSplitter.getSliceSqls("select * from Delivery", "id", 5, 6, 8);
+
+        Assert.assertEquals(2, aSqls.size());
+        Assert.assertEquals("select * from (select * from Delivery) ogre_split where (id >= 6)", aSqls.get(1));
+    }
+
+    @Test
+    public void testFullLongRange() {
+        List<String> aSqls = KeyRangeSplitter.getSliceSqls("select * from Delivery", "id", Long.MIN_VALUE, Long.MAX_VALUE, 2);
+
+        Assert.assertEquals(2, aSqls.size());
+        Assert.assertEquals("select * from (select * from Delivery) ogre_split where (id >= -9223372036854775808 and id < 0) or id is null", aSqls.get(0));
+        Assert.assertEquals("select * from (select * from Delivery) ogre_split where (id >= 0)", aSqls.get(1));
+
+        aSqls = KeyRangeSplitter.getSliceSqls("select * from Delivery", "id", Long.MIN_VALUE, Long.MAX_VALUE, 1);
+
+        Assert.assertEquals(1, aSqls.size());
+        Assert.assertEquals("select * from (select * from Delivery) ogre_split where (id >= -9223372036854775808) or id is null", aSqls.get(0));
+    }
+
+    @Test
+    public void testBoundsSql() throws Exception {
+        SqlScript aScript = new SqlScript("@split id 8;\nselect * from Delivery;", new HashMap<>());
+
+        Assert.assertEquals("select min(id), max(id) from (" + aScript.getQuerySql() + ") ogre_split", KeyRangeSplitter.getBoundsSql(aScript.getQuerySql(), aScript.getSplit()));
+
+        aScript = new SqlScript("@split id 8 select min(id), max(id)\nfrom Delivery;\nselect * from Delivery;", new HashMap<>());
+
+        Assert.assertEquals("select min(id), max(id)\nfrom Delivery", KeyRangeSplitter.getBoundsSql(aScript.getQuerySql(), aScript.getSplit()));
+    }
+
+    @Test
+    public void testSplitDirective() throws Exception {
+        SqlScript aScript = new SqlScript("create temporary table t as select 1;\n@split id 8;\nselect * from t;", new HashMap<>());
+
+        Assert.assertEquals("id", aScript.getSplit().column);
+        Assert.assertEquals(8, aScript.getSplit().slices);
+        Assert.assertEquals(1, aScript.getExecSqls().size());
+    }
+}
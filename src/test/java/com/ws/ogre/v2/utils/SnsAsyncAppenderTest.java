@@ -1,13 +1,88 @@
 package com.ws.ogre.v2.utils;
 
 import com.ws.ogre.AbstractBaseTest;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 public class SnsAsyncAppenderTest extends AbstractBaseTest {
     @Test
     public void testClassPath() {
         // This class path is used as string in the data pipeline log4j.xml
         Assert.assertEquals("com.ws.ogre.v2.utils.SnsAsyncAppender", SnsAsyncAppender.class.getName());
     }
+
+    @Test
+    public void testCoalesce() {
+        CollectingAppender anAppender = new CollectingAppender(null);
+        anAppender.setCoalesceWindowSeconds(60);
+
+        for (int i = 0; i < 5; i++) {
+            anAppender.doAppend(createEvent("Disk full"));
+        }
+
+        anAppender.doAppend(createEvent("Other error"));
+
+        anAppender.close();
+
+        Assert.assertEquals(3, anAppender.myMessages.size());
+        Assert.assertEquals("Disk full", anAppender.myMessages.get(0));
+        Assert.assertEquals("Other error", anAppender.myMessages.get(1));
+        Assert.assertEquals("Repeated 4 times within 60 s, last:\nDisk full", anAppender.myMessages.get(2));
+    }
+
+    @Test
+    public void testNotBlockedBySlowSns() throws Exception {
+        CountDownLatch aGate = new CountDownLatch(1);
+
+        CollectingAppender anAppender = new CollectingAppender(aGate);
+        anAppender.setQueueSize(2);
+        anAppender.setCoalesceWindowSeconds(0);
+
+        long aStart = System.currentTimeMillis();
+
+        for (int i = 0; i < 10; i++) {
+            anAppender.doAppend(createEvent("Error " + i));
+        }
+
+        Assert.assertTrue("Logging thread blocked", System.currentTimeMillis() - aStart < 1000);
+        Assert.assertTrue("Nothing dropped", anAppender.getDroppedCount() > 0);
+
+        aGate.countDown();
+        anAppender.close();
+
+        Assert.assertEquals(10, anAppender.myMessages.size() + anAppender.getDroppedCount());
+    }
+
+    private static LoggingEvent createEvent(String theMessage) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getLogger(SnsAsyncAppenderTest.class), Level.ERROR, theMessage, null);
+    }
+
+    private static class CollectingAppender extends SnsAsyncAppender {
+
+        private final List<String> myMessages = new ArrayList<>();
+        private final CountDownLatch myGate;
+
+        CollectingAppender(CountDownLatch theGate) {
+            myGate = theGate;
+        }
+
+        @Override
+        protected void publish(String theSubject, String theMessage) throws Exception {
+            if (myGate != null) {
+                myGate.await(10, TimeUnit.SECONDS);
+            }
+
+            synchronized (myMessages) {
+                myMessages.add(theMessage);
+            }
+        }
+    }
 }